@@ -0,0 +1,142 @@
+package com.oxygenxml.examples.webdav;
+
+import java.net.URL;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the latency and the error rate of the saves for each server and recommends
+ * an auto-save interval that does not overload the slow servers.
+ */
+final class AutosaveAdvisor {
+
+  /**
+   * The weight of a new measurement in the moving averages.
+   */
+  private static final double SMOOTHING_FACTOR = 0.2;
+
+  /**
+   * The number of saves measured before an interval is recommended.
+   */
+  private static final int MIN_SAMPLES = 5;
+
+  /**
+   * The auto-save interval is at least this many times the save latency, so that an editor spends
+   * at most 5% of the time saving.
+   */
+  private static final int LATENCY_MULTIPLIER = 20;
+
+  /**
+   * The auto-save interval is multiplied by up to this factor when all the saves fail.
+   */
+  private static final int ERROR_BACKOFF_FACTOR = 4;
+
+  /**
+   * The save measurements of a server.
+   */
+  private static final class SaveStats {
+    /**
+     * The moving average of the save latency, in milliseconds.
+     */
+    double latencyMillis;
+    /**
+     * The moving average of the failed saves ratio.
+     */
+    double errorRate;
+    /**
+     * The number of measured saves.
+     */
+    long sampleCount;
+
+    /**
+     * Records a save.
+     *
+     * @param saveLatencyMillis The latency of the save.
+     * @param failed <code>true</code> if the save failed.
+     */
+    synchronized void record(double saveLatencyMillis, boolean failed) {
+      if (sampleCount == 0) {
+        latencyMillis = saveLatencyMillis;
+        errorRate = failed ? 1 : 0;
+      } else {
+        latencyMillis += SMOOTHING_FACTOR * (saveLatencyMillis - latencyMillis);
+        errorRate += SMOOTHING_FACTOR * ((failed ? 1 : 0) - errorRate);
+      }
+      sampleCount++;
+    }
+
+    /**
+     * @param interval The configured auto-save interval, in seconds.
+     * @param minInterval The minimum auto-save interval, in seconds.
+     * @param maxInterval The maximum auto-save interval, in seconds.
+     *
+     * @return The recommended auto-save interval, or -1 if there are not enough measurements.
+     */
+    synchronized int getRecommendedInterval(int interval, int minInterval, int maxInterval) {
+      if (sampleCount < MIN_SAMPLES) {
+        return -1;
+      }
+      double recommendedInterval = Math.max(interval, latencyMillis * LATENCY_MULTIPLIER / 1000);
+      recommendedInterval *= 1 + errorRate * (ERROR_BACKOFF_FACTOR - 1);
+      return (int) Math.max(minInterval, Math.min(maxInterval, Math.ceil(recommendedInterval)));
+    }
+  }
+
+  /**
+   * The save measurements, keyed by server.
+   */
+  private static final Map<String, SaveStats> saveStats = new ConcurrentHashMap<>();
+
+  /**
+   * Private constructor.
+   */
+  private AutosaveAdvisor() {
+  }
+
+  /**
+   * Records a save.
+   *
+   * @param httpUrl The HTTP URL of the saved resource.
+   * @param latencyNanos The duration of the save.
+   * @param failed <code>true</code> if the server could not save the resource. The saves rejected because 
+   * of a lock do not say anything about the server and should not be counted as failed.
+   */
+  static void recordSave(URL httpUrl, long latencyNanos, boolean failed) {
+    if (!WebdavMetrics.isTracked(ServerGuard.getServerId(httpUrl))) {
+      // The configured interval is used for the servers that are not tracked.
+      return;
+    }
+    saveStats.computeIfAbsent(getServerKey(httpUrl), key -> new SaveStats())
+      .record(TimeUnit.NANOSECONDS.toMillis(latencyNanos), failed);
+  }
+
+  /**
+   * @param interval The configured auto-save interval, in seconds.
+   * @param minInterval The minimum auto-save interval, in seconds.
+   * @param maxInterval The maximum auto-save interval, in seconds. If it is smaller than the minimum 
+   * interval, the minimum interval is used.
+   *
+   * @return The recommended auto-save intervals keyed by the server, as <code>protocol://host[:port]</code>.
+   */
+  static Map<String, Integer> getRecommendedIntervals(int interval, int minInterval, int maxInterval) {
+    maxInterval = Math.max(minInterval, maxInterval);
+    Map<String, Integer> recommendedIntervals = new HashMap<>();
+    for (Map.Entry<String, SaveStats> serverStats : saveStats.entrySet()) {
+      int recommendedInterval = serverStats.getValue().getRecommendedInterval(interval, minInterval, maxInterval);
+      if (recommendedInterval != -1) {
+        recommendedIntervals.put(serverStats.getKey(), recommendedInterval);
+      }
+    }
+    return recommendedIntervals;
+  }
+
+  /**
+   * @param httpUrl The HTTP URL of a resource.
+   * @return The key of the server, as <code>protocol://host[:port]</code>.
+   */
+  private static String getServerKey(URL httpUrl) {
+    return httpUrl.getProtocol() + "://" + httpUrl.getHost() + (httpUrl.getPort() != -1 ? ":" + httpUrl.getPort() : "");
+  }
+}
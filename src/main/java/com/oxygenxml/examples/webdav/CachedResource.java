@@ -0,0 +1,131 @@
+package com.oxygenxml.examples.webdav;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * The body of a resource downloaded from a WebDAV server, together with the 
+ * validators used to check whether it is still up-to-date.
+ * 
+ * Small bodies are kept in memory, while large ones are stored in a file and 
+ * read back through a file channel, so that they do not occupy the heap.
+ */
+final class CachedResource {
+  
+  /**
+   * The body of the resource, <code>null</code> if it is stored in a file.
+   */
+  private final byte[] body;
+  
+  /**
+   * The file that contains the body of the resource, <code>null</code> if it is stored in memory.
+   */
+  private final File bodyFile;
+  
+  /**
+   * The length of the body.
+   */
+  private final long length;
+  
+  /**
+   * The entity tag of the resource, may be <code>null</code>.
+   */
+  private final String etag;
+  
+  /**
+   * The value of the Last-Modified header, may be <code>null</code>.
+   */
+  private final String lastModified;
+  
+  /**
+   * The content type of the resource, may be <code>null</code>.
+   */
+  private final String contentType;
+
+  /**
+   * Constructor for a resource stored in memory.
+   * 
+   * @param body The body of the resource.
+   * @param etag The entity tag of the resource, may be <code>null</code>.
+   * @param lastModified The value of the Last-Modified header, may be <code>null</code>.
+   * @param contentType The content type of the resource, may be <code>null</code>.
+   */
+  CachedResource(byte[] body, String etag, String lastModified, String contentType) {
+    this.body = body;
+    this.bodyFile = null;
+    this.length = body.length;
+    this.etag = etag;
+    this.lastModified = lastModified;
+    this.contentType = contentType;
+  }
+  
+  /**
+   * Constructor for a resource stored in a file.
+   * 
+   * @param bodyFile The file that contains the body of the resource.
+   * @param etag The entity tag of the resource, may be <code>null</code>.
+   * @param lastModified The value of the Last-Modified header, may be <code>null</code>.
+   * @param contentType The content type of the resource, may be <code>null</code>.
+   */
+  CachedResource(File bodyFile, String etag, String lastModified, String contentType) {
+    this.body = null;
+    this.bodyFile = bodyFile;
+    this.length = bodyFile.length();
+    this.etag = etag;
+    this.lastModified = lastModified;
+    this.contentType = contentType;
+  }
+  
+  /**
+   * @return A new stream over the body of the resource.
+   * 
+   * @throws IOException If the file that contains the body cannot be opened.
+   */
+  InputStream openStream() throws IOException {
+    if (body != null) {
+      return new ByteArrayInputStream(body);
+    } else {
+      return Channels.newInputStream(FileChannel.open(bodyFile.toPath(), StandardOpenOption.READ));
+    }
+  }
+  
+  /**
+   * @return The file that contains the body, <code>null</code> if the body is kept in memory.
+   */
+  File getBodyFile() {
+    return bodyFile;
+  }
+  
+  /**
+   * @return The length of the body.
+   */
+  long getLength() {
+    return length;
+  }
+  
+  /**
+   * @return The entity tag of the resource, may be <code>null</code>.
+   */
+  String getEtag() {
+    return etag;
+  }
+  
+  /**
+   * @return The value of the Last-Modified header, may be <code>null</code>.
+   */
+  String getLastModified() {
+    return lastModified;
+  }
+  
+  /**
+   * @return The content type of the resource, may be <code>null</code>.
+   */
+  String getContentType() {
+    return contentType;
+  }
+}
@@ -0,0 +1,300 @@
+package com.oxygenxml.examples.webdav;
+
+import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PushbackInputStream;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.InflaterInputStream;
+
+import com.google.common.io.CountingInputStream;
+import com.google.common.io.CountingOutputStream;
+
+/**
+ * Compresses the request bodies and decodes the compressed response bodies exchanged with
+ * the WebDAV servers, and counts the bytes saved by the compression.
+ */
+final class ContentCompression {
+
+  /**
+   * The encodings that we accept for the responses.
+   */
+  static final String ACCEPTED_ENCODINGS = "gzip, deflate";
+
+  /**
+   * The encoding of the compressed request bodies.
+   */
+  static final String UPLOAD_ENCODING = "gzip";
+
+  /**
+   * The number of compressed response bytes received.
+   */
+  private static final AtomicLong receivedResponseBytes = new AtomicLong();
+
+  /**
+   * The number of response bytes after decoding.
+   */
+  private static final AtomicLong decodedResponseBytes = new AtomicLong();
+
+  /**
+   * The number of compressed request bytes sent.
+   */
+  private static final AtomicLong sentUploadBytes = new AtomicLong();
+
+  /**
+   * The number of request bytes before compression.
+   */
+  private static final AtomicLong uncompressedUploadBytes = new AtomicLong();
+
+  /**
+   * Private constructor.
+   */
+  private ContentCompression() {
+  }
+
+  /**
+   * @param encoding The Content-Encoding of a response.
+   *
+   * @return <code>true</code> if we can decode the response.
+   */
+  static boolean isSupported(String encoding) {
+    return getCanonicalEncoding(encoding) != null;
+  }
+
+  /**
+   * Decodes a compressed response body.
+   *
+   * @param encoding The Content-Encoding of the response.
+   * @param responseStream The stream of the response body.
+   *
+   * @return The decoded stream, or the response stream if the encoding is not supported.
+   *
+   * @throws IOException If the compressed stream is invalid.
+   */
+  static InputStream decode(String encoding, InputStream responseStream) throws IOException {
+    String canonicalEncoding = getCanonicalEncoding(encoding);
+    if (canonicalEncoding == null || responseStream == null) {
+      return responseStream;
+    }
+    // Some servers announce the encoding for empty bodies too.
+    PushbackInputStream bodyStream = new PushbackInputStream(responseStream, 1);
+    int firstByte = bodyStream.read();
+    if (firstByte == -1) {
+      return bodyStream;
+    }
+    bodyStream.unread(firstByte);
+    CountingInputStream receivedStream = new CountingInputStream(bodyStream);
+    InputStream decodedStream = "gzip".equals(canonicalEncoding)
+        ? new GZIPInputStream(receivedStream) : new InflaterInputStream(receivedStream);
+    return new DecodedInputStream(decodedStream, receivedStream);
+  }
+
+  /**
+   * Compresses a request body.
+   *
+   * @param content The content.
+   *
+   * @return The compressed content.
+   *
+   * @throws IOException If the content cannot be compressed.
+   */
+  static ByteArrayOutputStream compress(ByteArrayOutputStream content) throws IOException {
+    ByteArrayOutputStream compressed = new ByteArrayOutputStream(content.size() / 8 + 64);
+    try (GZIPOutputStream compressingStream = new GZIPOutputStream(compressed)) {
+      content.writeTo(compressingStream);
+    }
+    uncompressedUploadBytes.addAndGet(content.size());
+    sentUploadBytes.addAndGet(compressed.size());
+    return compressed;
+  }
+
+  /**
+   * Compresses the content written to a request stream.
+   *
+   * @param requestStream The stream of the request.
+   *
+   * @return The stream to which the uncompressed content should be written.
+   *
+   * @throws IOException If the stream cannot be written.
+   */
+  static OutputStream compressingStream(OutputStream requestStream) throws IOException {
+    CountingOutputStream sentStream = new CountingOutputStream(requestStream);
+    return new CompressingOutputStream(new GZIPOutputStream(sentStream), sentStream);
+  }
+
+  /**
+   * @return The number of compressed response bytes received.
+   */
+  static long getReceivedResponseBytes() {
+    return receivedResponseBytes.get();
+  }
+
+  /**
+   * @return The number of response bytes after decoding.
+   */
+  static long getDecodedResponseBytes() {
+    return decodedResponseBytes.get();
+  }
+
+  /**
+   * @return The number of compressed request bytes sent.
+   */
+  static long getSentUploadBytes() {
+    return sentUploadBytes.get();
+  }
+
+  /**
+   * @return The number of request bytes before compression.
+   */
+  static long getUncompressedUploadBytes() {
+    return uncompressedUploadBytes.get();
+  }
+
+  /**
+   * @param encoding The Content-Encoding of a response.
+   *
+   * @return "gzip" or "deflate", <code>null</code> if the encoding is not supported.
+   */
+  private static String getCanonicalEncoding(String encoding) {
+    if (encoding == null) {
+      return null;
+    }
+    String trimmedEncoding = encoding.trim().toLowerCase(Locale.ENGLISH);
+    if ("gzip".equals(trimmedEncoding) || "x-gzip".equals(trimmedEncoding)) {
+      return "gzip";
+    } else if ("deflate".equals(trimmedEncoding)) {
+      return "deflate";
+    }
+    return null;
+  }
+
+  /**
+   * Decoded response stream that counts the bytes saved when it is closed.
+   */
+  private static final class DecodedInputStream extends FilterInputStream {
+    /**
+     * The stream that counts the received bytes.
+     */
+    private final CountingInputStream receivedStream;
+    /**
+     * The number of decoded bytes read.
+     */
+    private long decodedBytes;
+    /**
+     * <code>true</code> after the stream was closed.
+     */
+    private boolean closed;
+
+    /**
+     * Constructor.
+     *
+     * @param decodedStream The decoded stream.
+     * @param receivedStream The stream that counts the received bytes.
+     */
+    DecodedInputStream(InputStream decodedStream, CountingInputStream receivedStream) {
+      super(decodedStream);
+      this.receivedStream = receivedStream;
+    }
+
+    @Override
+    public int read() throws IOException {
+      int b = super.read();
+      if (b != -1) {
+        decodedBytes++;
+      }
+      return b;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+      int read = super.read(b, off, len);
+      if (read > 0) {
+        decodedBytes += read;
+      }
+      return read;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+      long skipped = super.skip(n);
+      decodedBytes += skipped;
+      return skipped;
+    }
+
+    @Override
+    public boolean markSupported() {
+      return false;
+    }
+
+    @Override
+    public void close() throws IOException {
+      if (!closed) {
+        closed = true;
+        receivedResponseBytes.addAndGet(receivedStream.getCount());
+        decodedResponseBytes.addAndGet(decodedBytes);
+      }
+      super.close();
+    }
+  }
+
+  /**
+   * Compressing request stream that counts the bytes saved when it is closed.
+   */
+  private static final class CompressingOutputStream extends FilterOutputStream {
+    /**
+     * The stream that counts the sent bytes.
+     */
+    private final CountingOutputStream sentStream;
+    /**
+     * The number of uncompressed bytes written.
+     */
+    private long uncompressedBytes;
+    /**
+     * <code>true</code> after the stream was closed.
+     */
+    private boolean closed;
+
+    /**
+     * Constructor.
+     *
+     * @param compressingStream The compressing stream.
+     * @param sentStream The stream that counts the sent bytes.
+     */
+    CompressingOutputStream(OutputStream compressingStream, CountingOutputStream sentStream) {
+      super(compressingStream);
+      this.sentStream = sentStream;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+      out.write(b);
+      uncompressedBytes++;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+      out.write(b, off, len);
+      uncompressedBytes += len;
+    }
+
+    @Override
+    public void close() throws IOException {
+      if (closed) {
+        return;
+      }
+      closed = true;
+      try {
+        super.close();
+      } finally {
+        uncompressedUploadBytes.addAndGet(uncompressedBytes);
+        sentUploadBytes.addAndGet(sentStream.getCount());
+      }
+    }
+  }
+}
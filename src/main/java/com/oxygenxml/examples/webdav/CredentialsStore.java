@@ -2,6 +2,16 @@ package com.oxygenxml.examples.webdav;
 
 import java.io.Serializable;
 import java.net.PasswordAuthentication;
+import java.util.Objects;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 
 import ro.sync.ecss.extensions.api.webapp.SessionStore;
 import ro.sync.ecss.extensions.api.webapp.access.WebappPluginWorkspace;
@@ -13,6 +23,69 @@ import ro.sync.exml.workspace.api.PluginWorkspaceProvider;
  *
  */
 public class CredentialsStore {
+  /**
+   * The maximum number of decrypted credentials kept in memory.
+   */
+  private static final int MAX_CACHED_CREDENTIALS = 10000;
+  
+  /**
+   * The number of seconds after which unused decrypted credentials are dropped.
+   */
+  private static final int CACHED_CREDENTIALS_TTL = 60;
+
+  /**
+   * Near-cache of the decrypted credentials keyed by session and server id.
+   * 
+   * The session store is still queried on each access, so that expired sessions and changed 
+   * credentials are noticed immediately. The cache only saves the decryption of the password.
+   */
+  private static final Cache<String, DecryptedCredentials> resolvedCredentialsCache = CacheBuilder.newBuilder()
+      .maximumSize(MAX_CACHED_CREDENTIALS)
+      .expireAfterAccess(CACHED_CREDENTIALS_TTL, TimeUnit.SECONDS)
+      .recordStats()
+      .build();
+  
+  /**
+   * The prefix of the keys of the credentials in the shared store.
+   */
+  private static final String SHARED_CREDENTIALS_PREFIX = "webdav.creds|";
+  
+  /**
+   * The number of milliseconds for which the credentials of a session that is no longer used 
+   * are kept in the shared store. It matches the usual timeout of the HTTP sessions.
+   */
+  private static final long SHARED_CREDENTIALS_TTL = TimeUnit.MINUTES.toMillis(30);
+  
+  /**
+   * The number of minutes between two removals of the expired credentials from the shared store.
+   */
+  private static final int SHARED_CREDENTIALS_SWEEP_INTERVAL = 5;
+  
+  /**
+   * The time when the credentials of each session and server expire in the shared store, 
+   * in milliseconds since the epoch, as last written or read by this node.
+   */
+  private static final Cache<String, Long> sharedExpiries = CacheBuilder.newBuilder()
+      .maximumSize(MAX_CACHED_CREDENTIALS)
+      .expireAfterWrite(SHARED_CREDENTIALS_TTL, TimeUnit.MILLISECONDS)
+      .build();
+  
+  /**
+   * Removes the expired credentials from the shared store.
+   */
+  private static final ScheduledExecutorService sweeper = Executors.newSingleThreadScheduledExecutor(
+      new ThreadFactoryBuilder().setNameFormat("webdav-credentials-sweeper").setDaemon(true).build());
+  
+  /**
+   * The shared store whose changes invalidate the decrypted credentials cache.
+   */
+  private static SharedStore listenedSharedStore;
+  
+  /**
+   * The periodic removal of the expired credentials from the listened shared store.
+   */
+  private static ScheduledFuture<?> sharedStoreSweep;
+  
   /**
    * Structure to hold a user name and encrypted password.
    * @author gabriel_titerlea
@@ -45,6 +118,40 @@ public class CredentialsStore {
     }
   }
   
+  /**
+   * Credentials decrypted from the stored ones.
+   */
+  private static final class DecryptedCredentials {
+    /**
+     * The stored credentials.
+     */
+    final UsrPass stored;
+    
+    /**
+     * The decrypted credentials.
+     */
+    final ResolvedCredentials credentials;
+    
+    /**
+     * Constructor.
+     * @param stored The stored credentials.
+     * @param credentials The decrypted credentials.
+     */
+    DecryptedCredentials(UsrPass stored, ResolvedCredentials credentials) {
+      this.stored = stored;
+      this.credentials = credentials;
+    }
+    
+    /**
+     * @param usrPass The credentials currently stored.
+     * @return <code>true</code> if these credentials were decrypted from the given ones.
+     */
+    boolean isDecryptedFrom(UsrPass usrPass) {
+      return Objects.equals(stored.username, usrPass.username) 
+          && Objects.equals(stored.encryptedPassword, usrPass.encryptedPassword);
+    }
+  }
+  
   /**
    * Stores the given credentials.
    * @param sessionId The session id.
@@ -55,6 +162,8 @@ public class CredentialsStore {
   public static void put(String sessionId, String serverId, String userName, String password) {
     String encryptedPass = PluginWorkspaceProvider.getPluginWorkspace().getUtilAccess().encrypt(password);
     getSessionStore().put(sessionId, getCredentialsKey(serverId), new UsrPass(userName, encryptedPass));
+    putShared(sessionId, serverId, userName, encryptedPass, false);
+    resolvedCredentialsCache.invalidate(getCacheKey(sessionId, serverId));
   }
 
   /**
@@ -67,6 +176,8 @@ public class CredentialsStore {
   public static void putIfAbsent(String sessionId, String serverId, String userName, String password) {
     String encryptedPass = PluginWorkspaceProvider.getPluginWorkspace().getUtilAccess().encrypt(password);
     getSessionStore().putIfAbsent(sessionId, getCredentialsKey(serverId), new UsrPass(userName, encryptedPass));
+    putShared(sessionId, serverId, userName, encryptedPass, true);
+    resolvedCredentialsCache.invalidate(getCacheKey(sessionId, serverId));
   }
 
   /**
@@ -79,6 +190,8 @@ public class CredentialsStore {
   public static void putIfAbsentWithoutSessionCookieRefresh(String sessionId, String serverId, String userName, String password) {
     String encryptedPass = PluginWorkspaceProvider.getPluginWorkspace().getUtilAccess().encrypt(password);
     getSessionStore().putIfAbsentWithoutSessionCookieRefresh(sessionId, getCredentialsKey(serverId), new UsrPass(userName, encryptedPass));
+    putShared(sessionId, serverId, userName, encryptedPass, true);
+    resolvedCredentialsCache.invalidate(getCacheKey(sessionId, serverId));
   }
 
   /**
@@ -88,14 +201,40 @@ public class CredentialsStore {
    * @return The password authentication if present or <code>null</code>
    */
   public static PasswordAuthentication get(String sessionId, String serverId) {
+    ResolvedCredentials credentials = resolve(sessionId, serverId);
+    return credentials != null ? credentials.toPasswordAuthentication() : null;
+  }
+  
+  /**
+   * Retrieves the decrypted credentials for the given session and server ids.
+   * @param sessionId The session id.
+   * @param serverId The server id.
+   * @return The credentials if present or <code>null</code>
+   */
+  static ResolvedCredentials resolve(String sessionId, String serverId) {
     UsrPass usrPass = getSessionStore().get(sessionId, getCredentialsKey(serverId));
+    if (usrPass == null) {
+      // The session may have been started on another node of the cluster.
+      usrPass = getShared(sessionId, serverId);
+    }
+    if (usrPass == null) {
+      // The session expired or it has no credentials for the server.
+      return null;
+    }
+    // The session is still used, the other nodes should not consider it expired.
+    extendShared(sessionId, serverId, usrPass);
     
-    if (usrPass != null) {
+    String cacheKey = getCacheKey(sessionId, serverId);
+    DecryptedCredentials decrypted = resolvedCredentialsCache.getIfPresent(cacheKey);
+    // A concurrent resolve may have cached credentials read before a change, they are not used.
+    if (decrypted == null || !decrypted.isDecryptedFrom(usrPass)) {
+      long start = System.nanoTime();
       String decryptedPass = PluginWorkspaceProvider.getPluginWorkspace().getUtilAccess().decrypt(usrPass.encryptedPassword);
-      return new PasswordAuthentication(usrPass.username, decryptedPass.toCharArray());
+      WebdavMetrics.record(serverId, WebdavMetrics.CREDENTIALS_DECRYPTION, start);
+      decrypted = new DecryptedCredentials(usrPass, new ResolvedCredentials(usrPass.username, decryptedPass));
+      resolvedCredentialsCache.put(cacheKey, decrypted);
     }
-    
-    return null;
+    return decrypted.credentials;
   }
   
   /**
@@ -104,6 +243,148 @@ public class CredentialsStore {
    */
   public static void invalidate(String sessionId) {
     getSessionStore().invalidate(sessionId);
+    final String sessionKeyPrefix = getCacheKey(sessionId, "");
+    SharedStore sharedStore = getSharedStore();
+    if (sharedStore != null) {
+      sharedStore.removeAll(SHARED_CREDENTIALS_PREFIX + sessionKeyPrefix);
+    }
+    resolvedCredentialsCache.asMap().keySet().removeIf(key -> key.startsWith(sessionKeyPrefix));
+    sharedExpiries.asMap().keySet().removeIf(key -> key.startsWith(sessionKeyPrefix));
+  }
+  
+  /**
+   * Removes from the shared store the credentials of the sessions that expired, that is, 
+   * that were not used by any node for {@link #SHARED_CREDENTIALS_TTL} milliseconds.
+   */
+  static void removeExpiredShared() {
+    SharedStore sharedStore = getSharedStore();
+    if (sharedStore != null) {
+      long now = System.currentTimeMillis();
+      sharedStore.removeIf(SHARED_CREDENTIALS_PREFIX, value -> getExpiresAt(value) - now <= 0);
+    }
+  }
+  
+  /**
+   * Stores the encrypted credentials in the store shared by the nodes of the cluster, if any.
+   * @param sessionId The session id.
+   * @param serverId The server id.
+   * @param userName The user name.
+   * @param encryptedPassword The encrypted password.
+   * @param onlyIfAbsent <code>true</code> to keep the credentials already stored.
+   */
+  private static void putShared(String sessionId, String serverId, String userName, String encryptedPassword, 
+      boolean onlyIfAbsent) {
+    SharedStore sharedStore = getSharedStore();
+    if (sharedStore != null) {
+      String key = SHARED_CREDENTIALS_PREFIX + getCacheKey(sessionId, serverId);
+      if (!onlyIfAbsent || getShared(sessionId, serverId) == null) {
+        long expiresAt = System.currentTimeMillis() + SHARED_CREDENTIALS_TTL;
+        sharedStore.put(key, expiresAt + "\n" + userName + "\n" + encryptedPassword);
+        sharedExpiries.put(getCacheKey(sessionId, serverId), expiresAt);
+      }
+    }
+  }
+  
+  /**
+   * Extends the time for which the credentials of a session are kept in the shared store, if 
+   * more than half of it passed.
+   * @param sessionId The session id.
+   * @param serverId The server id.
+   * @param usrPass The credentials of the session.
+   */
+  private static void extendShared(String sessionId, String serverId, UsrPass usrPass) {
+    if (getSharedStore() == null) {
+      return;
+    }
+    Long expiresAt = sharedExpiries.getIfPresent(getCacheKey(sessionId, serverId));
+    if (expiresAt == null || expiresAt - System.currentTimeMillis() < SHARED_CREDENTIALS_TTL / 2) {
+      putShared(sessionId, serverId, usrPass.username, usrPass.encryptedPassword, false);
+    }
+  }
+  
+  /**
+   * Reads the encrypted credentials from the store shared by the nodes of the cluster, if any.
+   * @param sessionId The session id.
+   * @param serverId The server id.
+   * @return The credentials if present or <code>null</code>
+   */
+  private static UsrPass getShared(String sessionId, String serverId) {
+    SharedStore sharedStore = getSharedStore();
+    if (sharedStore == null) {
+      return null;
+    }
+    String key = SHARED_CREDENTIALS_PREFIX + getCacheKey(sessionId, serverId);
+    String value = sharedStore.get(key);
+    if (value == null) {
+      return null;
+    }
+    long expiresAt = getExpiresAt(value);
+    if (expiresAt - System.currentTimeMillis() <= 0) {
+      // The session expired on all the nodes.
+      sharedStore.remove(key);
+      return null;
+    }
+    int expirySeparatorIndex = value.indexOf('\n');
+    int separatorIndex = value.indexOf('\n', expirySeparatorIndex + 1);
+    if (separatorIndex == -1) {
+      return null;
+    }
+    sharedExpiries.put(getCacheKey(sessionId, serverId), expiresAt);
+    return new UsrPass(value.substring(expirySeparatorIndex + 1, separatorIndex), value.substring(separatorIndex + 1));
+  }
+  
+  /**
+   * @param sharedValue The credentials as kept in the shared store.
+   * @return The time when they expire, in milliseconds since the epoch. Credentials stored 
+   * without an expiry are expired.
+   */
+  private static long getExpiresAt(String sharedValue) {
+    int separatorIndex = sharedValue.indexOf('\n');
+    try {
+      return separatorIndex != -1 ? Long.parseLong(sharedValue.substring(0, separatorIndex)) : 0;
+    } catch (NumberFormatException e) {
+      return 0;
+    }
+  }
+  
+  /**
+   * @return The store shared by the nodes of the cluster, or <code>null</code>. 
+   * Its changes invalidate the decrypted credentials cache and its expired credentials are 
+   * removed periodically.
+   */
+  private static synchronized SharedStore getSharedStore() {
+    SharedStore sharedStore = SharedStores.getStore();
+    if (sharedStore != null && sharedStore != listenedSharedStore) {
+      sharedStore.addChangeListener(key -> {
+        if (key.startsWith(SHARED_CREDENTIALS_PREFIX)) {
+          resolvedCredentialsCache.invalidate(key.substring(SHARED_CREDENTIALS_PREFIX.length()));
+        }
+      });
+      if (sharedStoreSweep != null) {
+        sharedStoreSweep.cancel(false);
+      }
+      sharedStoreSweep = sweeper.scheduleWithFixedDelay(CredentialsStore::removeExpiredShared, 
+          SHARED_CREDENTIALS_SWEEP_INTERVAL, SHARED_CREDENTIALS_SWEEP_INTERVAL, TimeUnit.MINUTES);
+      listenedSharedStore = sharedStore;
+    }
+    return sharedStore;
+  }
+  
+  /**
+   * @return The hit/miss statistics of the decrypted credentials cache.
+   */
+  public static CacheStats getCacheStats() {
+    return resolvedCredentialsCache.stats();
+  }
+  
+  /**
+   * Returns the key used to cache decrypted credentials.
+   * @param sessionId The session id.
+   * @param serverId The server id.
+   * @return The cache key.
+   */
+  private static String getCacheKey(String sessionId, String serverId) {
+    return sessionId + "|" + serverId;
   }
 
   /**
@@ -0,0 +1,329 @@
+package com.oxygenxml.examples.webdav;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.hash.Hashing;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * {@link SharedStore} that keeps each entry in a file of a folder shared by the nodes of the cluster.
+ *
+ * Reads are served from an in-memory near-cache. The cached entries are invalidated when the
+ * folder watcher reports a change and, since file system events are not always propagated between
+ * the nodes of a network file system, after a short time.
+ *
+ * Several instances that use a local folder behave like the nodes of a cluster.
+ * The folder watcher runs until the store is closed.
+ */
+@Slf4j
+public class FileSharedStore implements SharedStore, Closeable {
+
+  /**
+   * The extension of the files that hold the entries.
+   */
+  private static final String ENTRY_EXTENSION = ".entry";
+
+  /**
+   * The number of seconds for which an entry is served from memory.
+   */
+  private static final int NEAR_CACHE_TTL = 5;
+
+  /**
+   * The maximum number of entries kept in memory.
+   */
+  private static final int MAX_NEAR_CACHE_SIZE = 10000;
+
+  /**
+   * An entry read from the store.
+   */
+  private static final class CachedEntry {
+    /**
+     * The key of the entry.
+     */
+    final String key;
+    /**
+     * The value of the entry, <code>null</code> if there is none.
+     */
+    final String value;
+
+    /**
+     * Constructor.
+     *
+     * @param key The key of the entry.
+     * @param value The value of the entry, <code>null</code> if there is none.
+     */
+    CachedEntry(String key, String value) {
+      this.key = key;
+      this.value = value;
+    }
+  }
+
+  /**
+   * The folder of the store.
+   */
+  private final Path folder;
+
+  /**
+   * The near-cache of the entries, keyed by file name.
+   */
+  private final Cache<String, CachedEntry> nearCache;
+
+  /**
+   * The service that reports the changes made to the folder by other nodes.
+   */
+  private final WatchService watchService;
+
+  /**
+   * The change listeners.
+   */
+  private final List<ChangeListener> listeners = new CopyOnWriteArrayList<>();
+
+  /**
+   * Constructor.
+   *
+   * @param folder The folder of the store. It is created if it does not exist.
+   *
+   * @throws IOException If the folder cannot be used.
+   */
+  public FileSharedStore(Path folder) throws IOException {
+    this(folder, NEAR_CACHE_TTL, TimeUnit.SECONDS);
+  }
+
+  /**
+   * Constructor.
+   *
+   * @param folder The folder of the store. It is created if it does not exist.
+   * @param nearCacheTtl The time for which an entry is served from memory, 0 to always read the folder.
+   * @param unit The unit of the time.
+   *
+   * @throws IOException If the folder cannot be used.
+   */
+  FileSharedStore(Path folder, long nearCacheTtl, TimeUnit unit) throws IOException {
+    this.folder = Files.createDirectories(folder);
+    this.nearCache = CacheBuilder.newBuilder()
+        .maximumSize(MAX_NEAR_CACHE_SIZE)
+        .expireAfterWrite(nearCacheTtl, unit)
+        .build();
+    this.watchService = folder.getFileSystem().newWatchService();
+    startWatcher();
+  }
+
+  @Override
+  public String get(final String key) {
+    final String fileName = getFileName(key);
+    try {
+      CachedEntry entry = nearCache.get(fileName, () -> new CachedEntry(key, read(fileName, key)));
+      return entry.value;
+    } catch (ExecutionException e) {
+      log.warn("Could not read from the shared store: " + e.getCause().getMessage());
+      return null;
+    }
+  }
+
+  @Override
+  public void put(String key, String value) {
+    String fileName = getFileName(key);
+    try {
+      Path tempFile = Files.createTempFile(folder, null, ".tmp");
+      try {
+        restrictPermissions(tempFile);
+        Files.write(tempFile, (key + "\n" + value).getBytes(StandardCharsets.UTF_8));
+        Files.move(tempFile, folder.resolve(fileName),
+            StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+      } finally {
+        Files.deleteIfExists(tempFile);
+      }
+      nearCache.put(fileName, new CachedEntry(key, value));
+    } catch (IOException e) {
+      log.warn("Could not write to the shared store: " + e.getMessage());
+      nearCache.invalidate(fileName);
+    }
+    notifyListeners(key);
+  }
+
+  @Override
+  public void remove(String key) {
+    String fileName = getFileName(key);
+    try {
+      Files.deleteIfExists(folder.resolve(fileName));
+      nearCache.put(fileName, new CachedEntry(key, null));
+    } catch (IOException e) {
+      log.warn("Could not remove from the shared store: " + e.getMessage());
+      nearCache.invalidate(fileName);
+    }
+    notifyListeners(key);
+  }
+
+  @Override
+  public void removeAll(String keyPrefix) {
+    removeIf(keyPrefix, value -> true);
+  }
+
+  @Override
+  public void removeIf(String keyPrefix, Predicate<String> valueFilter) {
+    try (DirectoryStream<Path> entries = Files.newDirectoryStream(folder, "*" + ENTRY_EXTENSION)) {
+      for (Path entry : entries) {
+        String content = readContent(entry);
+        int separatorIndex = content != null ? content.indexOf('\n') : -1;
+        if (separatorIndex != -1) {
+          String key = content.substring(0, separatorIndex);
+          if (key.startsWith(keyPrefix) && valueFilter.test(content.substring(separatorIndex + 1))) {
+            remove(key);
+          }
+        }
+      }
+    } catch (IOException e) {
+      log.warn("Could not remove from the shared store: " + e.getMessage());
+    }
+  }
+
+  @Override
+  public void addChangeListener(ChangeListener listener) {
+    listeners.add(listener);
+  }
+
+  /**
+   * Stops the folder watcher.
+   *
+   * @throws IOException If the watch service cannot be closed.
+   */
+  @Override
+  public void close() throws IOException {
+    watchService.close();
+  }
+
+  /**
+   * Reads an entry from its file.
+   *
+   * @param fileName The name of the file.
+   * @param key The key of the entry.
+   *
+   * @return The value of the entry, or <code>null</code> if there is none.
+   *
+   * @throws IOException If the file cannot be read.
+   */
+  private String read(String fileName, String key) throws IOException {
+    String content;
+    try {
+      content = new String(Files.readAllBytes(folder.resolve(fileName)), StandardCharsets.UTF_8);
+    } catch (NoSuchFileException e) {
+      return null;
+    }
+    int separatorIndex = content.indexOf('\n');
+    if (separatorIndex == -1 || !key.equals(content.substring(0, separatorIndex))) {
+      return null;
+    }
+    return content.substring(separatorIndex + 1);
+  }
+
+  /**
+   * @param entry The file of an entry.
+   * @return The key and the value of the entry, separated by a new line, or <code>null</code> 
+   * if it cannot be read.
+   */
+  private static String readContent(Path entry) {
+    try {
+      return new String(Files.readAllBytes(entry), StandardCharsets.UTF_8);
+    } catch (IOException e) {
+      return null;
+    }
+  }
+
+  /**
+   * Notifies the listeners that an entry changed.
+   *
+   * @param key The key of the entry.
+   */
+  private void notifyListeners(String key) {
+    for (ChangeListener listener : listeners) {
+      try {
+        listener.changed(key);
+      } catch (RuntimeException e) {
+        log.warn(e.getMessage(), e);
+      }
+    }
+  }
+
+  /**
+   * Starts the thread that invalidates the cached entries changed by other nodes.
+   *
+   * @throws IOException If the folder cannot be watched.
+   */
+  private void startWatcher() throws IOException {
+    try {
+      folder.register(watchService, StandardWatchEventKinds.ENTRY_CREATE,
+          StandardWatchEventKinds.ENTRY_MODIFY, StandardWatchEventKinds.ENTRY_DELETE);
+    } catch (IOException e) {
+      watchService.close();
+      throw e;
+    }
+    Thread watcher = new Thread(() -> {
+      try {
+        while (true) {
+          WatchKey watchKey = watchService.take();
+          for (WatchEvent<?> event : watchKey.pollEvents()) {
+            if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+              nearCache.invalidateAll();
+            } else {
+              String fileName = event.context().toString();
+              CachedEntry cachedEntry = nearCache.getIfPresent(fileName);
+              nearCache.invalidate(fileName);
+              if (cachedEntry != null) {
+                notifyListeners(cachedEntry.key);
+              }
+            }
+          }
+          watchKey.reset();
+        }
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      } catch (ClosedWatchServiceException e) {
+        // Stopped.
+      }
+    }, "webdav-shared-store-watcher");
+    watcher.setDaemon(true);
+    watcher.start();
+  }
+
+  /**
+   * @param key The key of an entry.
+   * @return The name of the file that holds the entry.
+   */
+  private static String getFileName(String key) {
+    return Hashing.sha256().hashString(key, StandardCharsets.UTF_8).toString() + ENTRY_EXTENSION;
+  }
+
+  /**
+   * Makes a file readable only by the current user, if the file system supports it.
+   *
+   * @param file The file.
+   */
+  private static void restrictPermissions(Path file) {
+    try {
+      Files.setPosixFilePermissions(file, PosixFilePermissions.fromString("rw-------"));
+    } catch (UnsupportedOperationException | IOException e) {
+      log.debug("Could not restrict the permissions of " + file + ": " + e.getMessage());
+    }
+  }
+}
@@ -0,0 +1,252 @@
+package com.oxygenxml.examples.webdav;
+
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.net.URLConnection;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+import lombok.extern.slf4j.Slf4j;
+import ro.sync.net.protocol.FolderEntryDescriptor;
+
+/**
+ * Short-lived cache of the Depth:1 listings of the collections, keyed by server and path.
+ *
+ * A listing is served only to the sessions that use the same credentials as the one that
+ * obtained it. The listings are invalidated when we change the collections, and the
+ * listings of the child collections are prefetched when a collection is listed.
+ */
+@Slf4j
+final class FolderListingCache {
+
+  /**
+   * The number of seconds for which a listing is cached.
+   */
+  private static final int TTL_SECONDS = 10;
+
+  /**
+   * The maximum number of child collections prefetched after a listing.
+   */
+  private static final int MAX_PREFETCHED_CHILDREN = 10;
+
+  /**
+   * The maximum number of listings prefetched at the same time.
+   */
+  private static final int MAX_CONCURRENT_PREFETCHES = 8;
+
+  /**
+   * A listing of a collection.
+   */
+  private static final class Listing {
+    /**
+     * The members of the collection.
+     */
+    final List<FolderEntryDescriptor> entries;
+    /**
+     * The time when the listing expires, as reported by {@link System#nanoTime()}.
+     */
+    final long expiresAt;
+
+    /**
+     * Constructor.
+     *
+     * @param entries The members of the collection.
+     */
+    Listing(List<FolderEntryDescriptor> entries) {
+      this.entries = Collections.unmodifiableList(new ArrayList<>(entries));
+      this.expiresAt = System.nanoTime() + TimeUnit.SECONDS.toNanos(TTL_SECONDS);
+    }
+  }
+
+  /**
+   * The listings of each collection, keyed by server and path, then by principal.
+   */
+  private static final Cache<String, Map<String, Listing>> listings = CacheBuilder.newBuilder()
+      .maximumSize(1000)
+      .expireAfterWrite(TTL_SECONDS, TimeUnit.SECONDS)
+      .build();
+
+  /**
+   * The number of listings served from the cache.
+   */
+  private static final AtomicLong servedCount = new AtomicLong();
+
+  /**
+   * The keys of the listings being prefetched.
+   */
+  private static final Set<String> prefetching = ConcurrentHashMap.newKeySet();
+
+  /**
+   * Limits the number of listings prefetched at the same time.
+   */
+  private static final Semaphore prefetchPermits = new Semaphore(MAX_CONCURRENT_PREFETCHES);
+
+  /**
+   * Private constructor.
+   */
+  private FolderListingCache() {
+  }
+
+  /**
+   * Returns the cached listing of a collection.
+   *
+   * @param contextId The context id.
+   * @param httpUrl The HTTP URL of the collection.
+   *
+   * @return The members of the collection, or <code>null</code> if the listing is not cached.
+   */
+  static List<FolderEntryDescriptor> get(String contextId, URL httpUrl) {
+    Map<String, Listing> collectionListings = listings.getIfPresent(getKey(httpUrl));
+    Listing listing = collectionListings != null 
+        ? collectionListings.get(WebdavUrlStreamHandler.computePrincipal(contextId, httpUrl)) : null;
+    if (listing == null || System.nanoTime() - listing.expiresAt > 0) {
+      return null;
+    }
+    servedCount.incrementAndGet();
+    return new ArrayList<>(listing.entries);
+  }
+
+  /**
+   * Caches the listing of a collection.
+   *
+   * @param contextId The context id used to obtain the listing.
+   * @param httpUrl The HTTP URL of the collection.
+   * @param entries The members of the collection.
+   */
+  static void put(String contextId, URL httpUrl, List<FolderEntryDescriptor> entries) {
+    try {
+      listings.get(getKey(httpUrl), ConcurrentHashMap::new)
+        .put(WebdavUrlStreamHandler.computePrincipal(contextId, httpUrl), new Listing(entries));
+    } catch (ExecutionException e) {
+      log.debug(e.getMessage(), e);
+    }
+  }
+
+  /**
+   * Removes the listings affected by a change of a resource: the listing of the resource
+   * itself, if it is a collection, and the listing of its parent.
+   *
+   * @param httpUrl The HTTP URL of the changed resource.
+   */
+  static void invalidate(URL httpUrl) {
+    listings.invalidate(getKey(httpUrl));
+    String path = WebdavPropfind.normalizePath(httpUrl.getPath());
+    int lastSlash = path.lastIndexOf('/');
+    if (lastSlash != -1) {
+      try {
+        listings.invalidate(getKey(new URL(httpUrl, path.substring(0, lastSlash + 1))));
+      } catch (MalformedURLException e) {
+        log.debug(e.getMessage(), e);
+      }
+    }
+  }
+
+  /**
+   * Lists in background the child collections of a collection that was just listed,
+   * since the user is likely to open one of them next.
+   *
+   * @param contextId The context id.
+   * @param httpUrl The HTTP URL of the listed collection.
+   * @param entries The members of the collection.
+   */
+  static void prefetchChildren(String contextId, URL httpUrl, List<FolderEntryDescriptor> entries) {
+    int prefetched = 0;
+    for (FolderEntryDescriptor entry : entries) {
+      if (prefetched == MAX_PREFETCHED_CHILDREN) {
+        break;
+      }
+      String location = entry.getAbsoluteLocation();
+      if (location == null || !location.endsWith("/")) {
+        continue;
+      }
+      try {
+        URL childUrl = new URL(httpUrl, new URL(location.substring(WebdavURLHandlerExtension.WEBDAV.length())).getFile());
+        if (prefetch(contextId, childUrl)) {
+          prefetched++;
+        }
+      } catch (MalformedURLException e) {
+        log.debug(e.getMessage(), e);
+      }
+    }
+  }
+
+  /**
+   * Removes the listings obtained with the credentials of a session that logs out.
+   *
+   * @param contextId The context id, while its credentials are still known.
+   */
+  static void invalidateSession(String contextId) {
+    Map<String, String> principals = new HashMap<>();
+    for (Map.Entry<String, Map<String, Listing>> entry : listings.asMap().entrySet()) {
+      String key = entry.getKey();
+      String serverId = key.indexOf('/') != -1 ? key.substring(0, key.indexOf('/')) : key;
+      String principal = principals.computeIfAbsent(serverId,
+          id -> WebdavUrlStreamHandler.computeStoredPrincipal(contextId, id));
+      if (!principal.isEmpty()) {
+        entry.getValue().remove(principal);
+      }
+    }
+  }
+
+  /**
+   * @return The number of listings served from the cache.
+   */
+  static long getHitCount() {
+    return servedCount.get();
+  }
+
+  /**
+   * Lists a collection in background, if the listing is not already cached.
+   *
+   * @param contextId The context id.
+   * @param httpUrl The HTTP URL of the collection.
+   *
+   * @return <code>true</code> if the listing was started.
+   */
+  private static boolean prefetch(final String contextId, final URL httpUrl) {
+    final String prefetchKey = getKey(httpUrl) + "|" + WebdavUrlStreamHandler.computePrincipal(contextId, httpUrl);
+    if (get(contextId, httpUrl) != null || !prefetching.add(prefetchKey)) {
+      return false;
+    }
+    if (!prefetchPermits.tryAcquire()) {
+      // Prefetching is best-effort, do not pile up work on a busy server.
+      prefetching.remove(prefetchKey);
+      return false;
+    }
+    WebdavExecutors.callAsync(() -> {
+      URLConnection connection = WebdavUrlStreamHandler.openHttpConnection(httpUrl);
+      new WebdavUrlConnection(contextId, connection).prefetchFolder();
+      return null;
+    }).whenComplete((result, e) -> {
+      if (e != null) {
+        log.debug("Could not prefetch the listing of " + httpUrl.getPath() + ": " + e.getMessage());
+      }
+      prefetchPermits.release();
+      prefetching.remove(prefetchKey);
+    });
+    return true;
+  }
+
+  /**
+   * @param httpUrl The HTTP URL of a collection.
+   *
+   * @return The key of the collection listings.
+   */
+  private static String getKey(URL httpUrl) {
+    String serverId = WebdavUrlStreamHandler.computeServerId(
+        WebdavURLHandlerExtension.WEBDAV + httpUrl.toExternalForm());
+    return serverId + WebdavPropfind.normalizePath(httpUrl.getPath());
+  }
+}
@@ -0,0 +1,547 @@
+package com.oxygenxml.examples.webdav;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.HttpURLConnection;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.io.IOUtils;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Sends again the idempotent requests that are slow to get an answer, for the servers
+ * with a long latency tail.
+ *
+ * When hedging is enabled for a server, a request that did not receive the response headers
+ * within a percentile of the recent response times of the same operation is duplicated,
+ * and the first successful response is used. The other request is cancelled. The original
+ * request is sent in the caller thread, only the duplicate is sent in background.
+ *
+ * The duplicates are paid from a budget that grows with each request, so that only a small
+ * fraction of the requests are duplicated, and they need a free place in the bulkhead of the server.
+ */
+@Slf4j
+final class HedgedRequests {
+
+  /**
+   * Whether the slow requests are duplicated. Off by default.
+   */
+  static final String HEDGING = "hedging";
+
+  /**
+   * The percentile of the recent response times after which a request is duplicated.
+   */
+  static final String HEDGING_PERCENTILE = "hedging-percentile";
+
+  /**
+   * The maximum percentage of the requests that are duplicated.
+   */
+  static final String HEDGING_BUDGET = "hedging-budget";
+
+  /**
+   * The default percentile of the recent response times after which a request is duplicated.
+   */
+  private static final int DEFAULT_PERCENTILE = 95;
+
+  /**
+   * The default maximum percentage of the requests that are duplicated.
+   */
+  private static final int DEFAULT_BUDGET = 10;
+
+  /**
+   * The number of recent response times tracked for each operation.
+   */
+  private static final int SAMPLE_COUNT = 100;
+
+  /**
+   * The number of response times needed before the requests are duplicated.
+   */
+  private static final int MIN_SAMPLES = 20;
+
+  /**
+   * The minimum number of nanoseconds to wait before duplicating a request.
+   */
+  private static final long MIN_DELAY_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+
+  /**
+   * The maximum number of duplicates that can be sent in a burst.
+   */
+  private static final int MAX_TOKENS = 10;
+
+  /**
+   * The share of the budget needed to send a duplicate.
+   */
+  private static final int TOKEN = 100;
+
+  /**
+   * Sends a request.
+   */
+  interface Sender {
+    /**
+     * @param connection The connection, not yet connected.
+     *
+     * @return The stream of the response, obtained after the response headers were received.
+     *
+     * @throws IOException If the request fails.
+     */
+    InputStream send(HttpURLConnection connection) throws IOException;
+  }
+
+  /**
+   * Opens the connections used to duplicate a request.
+   */
+  interface ConnectionFactory {
+    /**
+     * @return A new connection with the same URL and headers as the original request.
+     *
+     * @throws IOException If the connection cannot be opened.
+     */
+    HttpURLConnection open() throws IOException;
+  }
+
+  /**
+   * The response used for a request.
+   */
+  static final class Response {
+    /**
+     * The connection that received the response.
+     */
+    private final HttpURLConnection connection;
+    /**
+     * The stream of the response.
+     */
+    private final InputStream body;
+
+    /**
+     * Constructor.
+     *
+     * @param connection The connection that received the response.
+     * @param body The stream of the response.
+     */
+    private Response(HttpURLConnection connection, InputStream body) {
+      this.connection = connection;
+      this.body = body;
+    }
+
+    /**
+     * @return The connection that received the response, either the original or the duplicate one.
+     */
+    HttpURLConnection getConnection() {
+      return connection;
+    }
+
+    /**
+     * @return The stream of the response.
+     */
+    InputStream getBody() {
+      return body;
+    }
+  }
+
+  /**
+   * The recent response times and the duplication budget of an operation on a server.
+   */
+  static final class OperationStats {
+    /**
+     * The recent response times, in nanoseconds.
+     */
+    private final long[] samples = new long[SAMPLE_COUNT];
+    /**
+     * The number of response times recorded, at most {@link #SAMPLE_COUNT}.
+     */
+    private int count;
+    /**
+     * The position of the next response time.
+     */
+    private int position;
+    /**
+     * The number of duplicates that can be sent, in hundredths of a duplicate, so that the
+     * shares of the requests add up exactly.
+     */
+    private int tokens;
+
+    /**
+     * @param nanos The time after which a response started.
+     */
+    synchronized void record(long nanos) {
+      samples[position] = nanos;
+      position = (position + 1) % SAMPLE_COUNT;
+      count = Math.min(count + 1, SAMPLE_COUNT);
+    }
+
+    /**
+     * Adds to the budget the share of a new request.
+     *
+     * @param percentage The maximum percentage of the requests that are duplicated.
+     *
+     * @return <code>true</code> if a duplicate could be sent now.
+     */
+    synchronized boolean earn(int percentage) {
+      tokens = Math.min(MAX_TOKENS * TOKEN, tokens + Math.max(0, percentage));
+      return tokens >= TOKEN;
+    }
+
+    /**
+     * Takes a duplicate from the budget.
+     *
+     * @return <code>true</code> if the budget allowed it.
+     */
+    synchronized boolean spend() {
+      if (tokens < TOKEN) {
+        return false;
+      }
+      tokens -= TOKEN;
+      return true;
+    }
+
+    /**
+     * @param percentile The percentile.
+     *
+     * @return The number of nanoseconds to wait before duplicating a request,
+     * or -1 if there are not enough response times to tell.
+     */
+    synchronized long getDelay(int percentile) {
+      if (count < MIN_SAMPLES) {
+        return -1;
+      }
+      long[] sorted = Arrays.copyOf(samples, count);
+      Arrays.sort(sorted);
+      int index = (int) Math.ceil(Math.max(1, Math.min(100, percentile)) / 100.0 * count) - 1;
+      return Math.max(MIN_DELAY_NANOS, sorted[Math.max(0, index)]);
+    }
+  }
+
+  /**
+   * A request in flight.
+   */
+  private static final class Attempt {
+    /**
+     * The connection of the request.
+     */
+    final HttpURLConnection connection;
+    /**
+     * The future stream of the response.
+     */
+    final CompletableFuture<InputStream> response;
+
+    /**
+     * Sends the request in background.
+     *
+     * @param connection The connection of the request.
+     * @param sender Sends the request.
+     * @param stats The stats that receive the response time.
+     */
+    Attempt(final HttpURLConnection connection, final Sender sender, final OperationStats stats) {
+      this.connection = connection;
+      final long start = System.nanoTime();
+      this.response = WebdavExecutors.callAsync(() -> {
+        InputStream body = sender.send(connection);
+        stats.record(System.nanoTime() - start);
+        return body;
+      });
+    }
+
+    /**
+     * Cancels the request and discards its response.
+     */
+    void cancel() {
+      response.whenComplete((body, e) -> IOUtils.closeQuietly(body));
+      // Closing the socket unblocks the thread waiting for the response.
+      connection.disconnect();
+    }
+  }
+
+  /**
+   * A request sent in the caller thread, duplicated from the timer thread if it is slow.
+   */
+  private static final class HedgedCall {
+    /**
+     * The connection of the original request.
+     */
+    private final HttpURLConnection connection;
+    /**
+     * Sends the request.
+     */
+    private final Sender sender;
+    /**
+     * Opens the connection of the duplicate request.
+     */
+    private final ConnectionFactory duplicates;
+    /**
+     * The stats of the operation.
+     */
+    private final OperationStats operationStats;
+    /**
+     * The duplicate request, <code>null</code> if it was not sent. Guarded by this.
+     */
+    private Attempt hedge;
+    /**
+     * <code>true</code> after the original request completed or the duplicate one succeeded. Guarded by this.
+     */
+    private boolean decided;
+    /**
+     * <code>true</code> if the duplicate request succeeded first. Guarded by this.
+     */
+    private boolean hedgeWon;
+
+    /**
+     * Constructor.
+     *
+     * @param connection The connection of the original request.
+     * @param sender Sends the request.
+     * @param duplicates Opens the connection of the duplicate request.
+     * @param operationStats The stats of the operation.
+     */
+    HedgedCall(HttpURLConnection connection, Sender sender, ConnectionFactory duplicates,
+        OperationStats operationStats) {
+      this.connection = connection;
+      this.sender = sender;
+      this.duplicates = duplicates;
+      this.operationStats = operationStats;
+    }
+
+    /**
+     * Sends the original request and duplicates it if it did not get an answer in time.
+     *
+     * @param delay The number of nanoseconds to wait before duplicating the request.
+     *
+     * @return The first successful response. If both requests fail, the failure of the original one is thrown.
+     *
+     * @throws IOException If the request fails.
+     */
+    Response send(long delay) throws IOException {
+      ScheduledFuture<?> hedgeStart = timer.schedule(this::startHedge, delay, TimeUnit.NANOSECONDS);
+      long start = System.nanoTime();
+      InputStream body = null;
+      IOException failure = null;
+      try {
+        body = sender.send(connection);
+        operationStats.record(System.nanoTime() - start);
+      } catch (IOException e) {
+        failure = e;
+      } finally {
+        hedgeStart.cancel(false);
+      }
+
+      Attempt sentHedge;
+      boolean lost;
+      synchronized (this) {
+        sentHedge = hedge;
+        lost = hedgeWon;
+        decided = true;
+      }
+      if (lost) {
+        IOUtils.closeQuietly(body);
+        hedgeWinCount.incrementAndGet();
+        return new Response(sentHedge.connection, getBody(sentHedge));
+      }
+      if (failure == null) {
+        if (sentHedge != null) {
+          sentHedge.cancel();
+        }
+        return new Response(connection, body);
+      }
+      if (sentHedge != null) {
+        // The duplicate request may still succeed.
+        try {
+          InputStream hedgeBody = getBody(sentHedge);
+          hedgeWinCount.incrementAndGet();
+          return new Response(sentHedge.connection, hedgeBody);
+        } catch (IOException e) {
+          log.debug("The duplicate request failed too", e);
+        }
+      }
+      throw failure;
+    }
+
+    /**
+     * Sends the duplicate request, unless the original one already completed.
+     */
+    private void startHedge() {
+      final Attempt startedHedge;
+      synchronized (this) {
+        if (decided) {
+          return;
+        }
+        hedge = HedgedRequests.startHedge(connection, sender, duplicates, operationStats);
+        startedHedge = hedge;
+      }
+      if (startedHedge != null) {
+        startedHedge.response.thenAccept(body -> hedgeSucceeded());
+      }
+    }
+
+    /**
+     * Uses the response of the duplicate request, unless the original one already completed.
+     */
+    private void hedgeSucceeded() {
+      synchronized (this) {
+        if (decided) {
+          // The caller cancels the duplicate request.
+          return;
+        }
+        decided = true;
+        hedgeWon = true;
+      }
+      // Closing the socket unblocks the caller waiting for the original response.
+      connection.disconnect();
+    }
+  }
+
+  /**
+   * Starts the duplicate requests.
+   */
+  private static final ScheduledThreadPoolExecutor timer = createTimer();
+
+  /**
+   * The stats keyed by server id and operation.
+   */
+  private static final Map<String, OperationStats> stats = new ConcurrentHashMap<>();
+
+  /**
+   * The number of duplicate requests sent.
+   */
+  private static final AtomicLong hedgeCount = new AtomicLong();
+
+  /**
+   * The number of duplicate requests whose response was used.
+   */
+  private static final AtomicLong hedgeWinCount = new AtomicLong();
+
+  /**
+   * Private constructor.
+   */
+  private HedgedRequests() {
+  }
+
+  /**
+   * Sends an idempotent request, duplicating it if it is slow and hedging is enabled for the server.
+   *
+   * @param operation The operation, used to compare the request with similar ones, e.g. "GET".
+   * @param connection The connection of the request, not yet connected.
+   * @param sender Sends the request.
+   * @param duplicates Opens the connection of the duplicate request.
+   *
+   * @return The first successful response. If both requests fail, the failure of the original one is thrown.
+   *
+   * @throws IOException If the request fails.
+   */
+  static Response send(String operation, HttpURLConnection connection, Sender sender,
+      ConnectionFactory duplicates) throws IOException {
+    WebdavServerSettings settings = WebdavServerSettings.get(connection.getURL());
+    String serverId = ServerGuard.getServerId(connection.getURL());
+    if (!settings.getBoolean(HEDGING, false) || !WebdavMetrics.isTracked(serverId)) {
+      return new Response(connection, sender.send(connection));
+    }
+    OperationStats operationStats = stats.computeIfAbsent(serverId + " " + operation, key -> new OperationStats());
+    boolean canHedge = operationStats.earn(settings.getInt(HEDGING_BUDGET, DEFAULT_BUDGET));
+    long delay = operationStats.getDelay(settings.getInt(HEDGING_PERCENTILE, DEFAULT_PERCENTILE));
+    if (!canHedge || delay == -1) {
+      long start = System.nanoTime();
+      InputStream body = sender.send(connection);
+      operationStats.record(System.nanoTime() - start);
+      return new Response(connection, body);
+    }
+
+    return new HedgedCall(connection, sender, duplicates, operationStats).send(delay);
+  }
+
+  /**
+   * Sends the duplicate of a request, if the budget and the bulkhead of the server allow it.
+   *
+   * @param connection The connection of the original request.
+   * @param sender Sends the request.
+   * @param duplicates Opens the connection of the duplicate request.
+   * @param operationStats The stats of the operation.
+   *
+   * @return The duplicate request, or <code>null</code> if it was not sent.
+   */
+  private static Attempt startHedge(HttpURLConnection connection, Sender sender, ConnectionFactory duplicates,
+      OperationStats operationStats) {
+    final ServerGuard.Permit permit = ServerGuard.tryAcquire(connection.getURL());
+    if (permit == null) {
+      return null;
+    }
+    if (!operationStats.spend()) {
+      permit.close();
+      return null;
+    }
+    final Attempt hedge;
+    try {
+      hedge = new Attempt(duplicates.open(), sender, operationStats);
+    } catch (IOException e) {
+      log.debug("Could not duplicate the request", e);
+      permit.close();
+      return null;
+    }
+    hedgeCount.incrementAndGet();
+    hedge.response.whenComplete((body, e) -> permit.close());
+    return hedge;
+  }
+
+  /**
+   * Waits for the response of a request.
+   *
+   * @param attempt The request.
+   *
+   * @return The stream of the response.
+   *
+   * @throws IOException If the request failed.
+   */
+  private static InputStream getBody(Attempt attempt) throws IOException {
+    try {
+      return attempt.response.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      attempt.cancel();
+      throw new InterruptedIOException();
+    } catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      if (cause instanceof IOException) {
+        throw (IOException) cause;
+      } else if (cause instanceof RuntimeException) {
+        throw (RuntimeException) cause;
+      } else if (cause instanceof Error) {
+        throw (Error) cause;
+      }
+      throw new IOException(cause);
+    }
+  }
+
+  /**
+   * @return The timer that starts the duplicate requests. The requests themselves are sent on the I/O executor.
+   */
+  private static ScheduledThreadPoolExecutor createTimer() {
+    ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(1,
+        new ThreadFactoryBuilder().setNameFormat("webdav-hedging-timer").setDaemon(true).build());
+    // Most of the requests answer in time and cancel their duplicate.
+    executor.setRemoveOnCancelPolicy(true);
+    return executor;
+  }
+
+  /**
+   * @return The number of duplicate requests sent.
+   */
+  static long getHedgeCount() {
+    return hedgeCount.get();
+  }
+
+  /**
+   * @return The number of duplicate requests whose response was used.
+   */
+  static long getHedgeWinCount() {
+    return hedgeWinCount.get();
+  }
+}
@@ -0,0 +1,64 @@
+package com.oxygenxml.examples.webdav;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLConnection;
+
+import org.apache.commons.io.IOUtils;
+
+import lombok.extern.slf4j.Slf4j;
+import ro.sync.basic.util.URLUtil;
+
+/**
+ * Transport that lets the HTTP stack reuse the connections to the WebDAV servers.
+ * 
+ * The HTTP stack may keep the socket of a request for a later request to the same 
+ * server only if the response was fully consumed, so this transport drains the short 
+ * responses instead of closing the sockets. 
+ * 
+ * It does not pool the connections itself: it neither limits their number nor evicts 
+ * the idle ones. The number of concurrent requests to a server is limited by {@link ServerGuard}.
+ */
+@Slf4j
+public class KeepAliveTransport implements WebdavTransport {
+
+  /**
+   * The maximum number of bytes that we read from a response in order to be able to reuse the connection.
+   * If the response is larger, it is cheaper to open a new connection.
+   */
+  private static final int MAX_DRAINED_BYTES = 64 * 1024;
+
+  @Override
+  public URLConnection openConnection(URL url) throws IOException {
+    return url.openConnection();
+  }
+
+  @Override
+  public void release(URLConnection connection) throws IOException {
+    boolean reusable = false;
+    if (connection instanceof HttpURLConnection) {
+      InputStream responseStream;
+      try {
+        // Fails if the server rejected the request.
+        responseStream = connection.getInputStream();
+      } catch (IOException e) {
+        URLUtil.disconnect(connection);
+        throw e;
+      }
+      // Consume the rest of the response so that the HTTP stack can reuse the connection.
+      try {
+        reusable = IOUtils.skip(responseStream, MAX_DRAINED_BYTES) < MAX_DRAINED_BYTES 
+            && responseStream.read() == -1;
+      } catch (IOException e) {
+        log.debug("Could not drain the response", e);
+      } finally {
+        IOUtils.closeQuietly(responseStream);
+      }
+    }
+    if (!reusable) {
+      URLUtil.disconnect(connection);
+    }
+  }
+}
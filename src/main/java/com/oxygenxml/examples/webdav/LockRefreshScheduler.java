@@ -0,0 +1,532 @@
+package com.oxygenxml.examples.webdav;
+
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import lombok.extern.slf4j.Slf4j;
+import ro.sync.basic.util.URLUtil;
+import ro.sync.exml.plugin.lock.LockException;
+
+/**
+ * Keeps the WebDAV locks held by the editing sessions alive.
+ *
+ * The lock refreshes and save checks requested by the editors are answered locally while the lock 
+ * is far from its expiry. The locks are refreshed in the background, just before they expire, with a limited
+ * number of concurrent requests for each server.
+ */
+@Slf4j
+final class LockRefreshScheduler {
+
+  /**
+   * Refreshes a lock on the server.
+   */
+  interface Refresher {
+    /**
+     * Refreshes the lock.
+     *
+     * @param timeoutSeconds The requested lock timeout.
+     *
+     * @throws LockException If the lock could not be refreshed.
+     */
+    void refresh(int timeoutSeconds) throws LockException;
+  }
+
+  /**
+   * A lock held by an editing session.
+   */
+  static final class HeldLock {
+    /**
+     * The WebDAV URL of the locked resource, without user info.
+     */
+    final URL url;
+    /**
+     * The id of the server.
+     */
+    final String serverId;
+    /**
+     * The lock timeout.
+     */
+    final int timeoutSeconds;
+    /**
+     * The owner of the lock.
+     */
+    final String owner;
+    /**
+     * Refreshes the lock on the server.
+     */
+    final Refresher refresher;
+    /**
+     * The {@link System#nanoTime()} when the lock expires on the server.
+     */
+    volatile long expiresAt;
+    /**
+     * The {@link System#nanoTime()} when the editor last asked to keep the lock.
+     */
+    volatile long requestedAt;
+    /**
+     * <code>false</code> if the server rejected a request because of the lock.
+     */
+    volatile boolean confirmed = true;
+    /**
+     * The number of failed refresh attempts since the last successful one.
+     */
+    int failedAttempts;
+    /**
+     * The next scheduled refresh.
+     */
+    ScheduledFuture<?> nextRefresh;
+
+    /**
+     * Constructor.
+     *
+     * @param url The WebDAV URL of the locked resource, without user info.
+     * @param serverId The id of the server.
+     * @param timeoutSeconds The lock timeout.
+     * @param lockedAt The {@link System#nanoTime()} when the lock request was sent.
+     * @param owner The owner of the lock.
+     * @param refresher Refreshes the lock on the server.
+     */
+    HeldLock(URL url, String serverId, int timeoutSeconds, long lockedAt, String owner, Refresher refresher) {
+      this.url = url;
+      this.serverId = serverId;
+      this.timeoutSeconds = timeoutSeconds;
+      this.owner = owner;
+      this.refresher = refresher;
+      this.expiresAt = lockedAt + TimeUnit.SECONDS.toNanos(timeoutSeconds);
+      this.requestedAt = System.nanoTime();
+    }
+
+    /**
+     * @return <code>true</code> if the lock is known to be valid and is not about to expire.
+     */
+    boolean isValid() {
+      return confirmed && expiresAt - System.nanoTime() > getLeadTime();
+    }
+
+    /**
+     * @return The number of nanoseconds before the lock is refreshed in the background.
+     */
+    long getLeadTime() {
+      long leadTime = TimeUnit.SECONDS.toNanos(timeoutSeconds) / 5;
+      return Math.max(MIN_LEAD_TIME, Math.min(MAX_LEAD_TIME, leadTime));
+    }
+  }
+
+  /**
+   * The statistics of the lock refreshes for a server.
+   */
+  static final class RefreshStats {
+    /**
+     * The number of successful refreshes.
+     */
+    final AtomicLong refreshCount = new AtomicLong();
+    /**
+     * The number of failed refresh attempts.
+     */
+    final AtomicLong failureCount = new AtomicLong();
+    /**
+     * The number of locks that expired because they could not be refreshed.
+     */
+    final AtomicLong lostCount = new AtomicLong();
+    /**
+     * The smallest time left before expiry when a lock was refreshed, in milliseconds.
+     */
+    final AtomicLong minHeadroomMillis = new AtomicLong(Long.MAX_VALUE);
+
+    @Override
+    public String toString() {
+      return "refreshes=" + refreshCount + ", failures=" + failureCount + ", lost=" + lostCount
+          + ", minHeadroomMillis=" + minHeadroomMillis;
+    }
+  }
+
+  /**
+   * The minimum time before expiry at which a lock is refreshed.
+   */
+  private static final long MIN_LEAD_TIME = TimeUnit.SECONDS.toNanos(2);
+
+  /**
+   * The maximum time before expiry at which a lock is refreshed.
+   */
+  private static final long MAX_LEAD_TIME = TimeUnit.SECONDS.toNanos(60);
+
+  /**
+   * The maximum number of concurrent refreshes for a server.
+   */
+  private static final int MAX_CONCURRENT_REFRESHES_PER_SERVER = 4;
+
+  /**
+   * The delay before the first retry of a failed refresh.
+   */
+  private static final long INITIAL_RETRY_DELAY = TimeUnit.SECONDS.toNanos(1);
+
+  /**
+   * The maximum delay between the retries of a failed refresh.
+   */
+  private static final long MAX_RETRY_DELAY = TimeUnit.SECONDS.toNanos(30);
+
+  /**
+   * The delay after which a refresh that waits for other refreshes to the same server is retried.
+   */
+  private static final long BUSY_SERVER_DELAY = TimeUnit.MILLISECONDS.toNanos(200);
+
+  /**
+   * The locks held by the editing sessions, keyed by context id and URL.
+   */
+  private static final Map<String, HeldLock> heldLocks = new ConcurrentHashMap<>();
+
+  /**
+   * The permits for concurrent refreshes, keyed by server id.
+   */
+  private static final Map<String, Semaphore> refreshPermits = new ConcurrentHashMap<>();
+
+  /**
+   * The refresh statistics, keyed by server id.
+   */
+  private static final Map<String, RefreshStats> refreshStats = new ConcurrentHashMap<>();
+
+  /**
+   * Matches the status codes of the responses that reject a lock token in an error message.
+   */
+  private static final Pattern LOCK_LOST_STATUS = Pattern.compile("\\b(412|423)\\b");
+
+  /**
+   * The timer that triggers the refreshes.
+   */
+  private static final ScheduledThreadPoolExecutor timer = createTimer();
+
+  /**
+   * Private constructor.
+   */
+  private LockRefreshScheduler() {
+  }
+
+  /**
+   * Records that the editor asked to keep a lock.
+   *
+   * @param contextId The context id.
+   * @param url The URL of the locked resource.
+   * @param timeoutSeconds The requested lock timeout.
+   *
+   * @return <code>true</code> if the lock is kept alive in the background, <code>false</code> if
+   * it should be refreshed on the server by the caller.
+   */
+  static boolean keepAlive(String contextId, URL url, int timeoutSeconds) {
+    HeldLock lock = heldLocks.get(getKey(contextId, url));
+    if (lock == null || lock.timeoutSeconds != timeoutSeconds || !lock.isValid()) {
+      return false;
+    }
+    lock.requestedAt = System.nanoTime();
+    return true;
+  }
+
+  /**
+   * Checks whether we hold a valid lock on a resource, without contacting the server.
+   *
+   * @param contextId The context id.
+   * @param url The URL of the resource.
+   * @param owner The current user.
+   *
+   * @return <code>true</code> if the given user holds a lock that is known to be valid.
+   */
+  static boolean isHeld(String contextId, URL url, String owner) {
+    HeldLock lock = heldLocks.get(getKey(contextId, url));
+    return lock != null && lock.owner.equals(owner) && lock.isValid();
+  }
+
+  /**
+   * Checks whether the session holds a valid lock on a resource, without contacting the server.
+   *
+   * @param contextId The context id.
+   * @param url The WebDAV or HTTP URL of the resource.
+   *
+   * @return <code>true</code> if the session holds a lock that is known to be valid.
+   */
+  static boolean isHeld(String contextId, URL url) {
+    HeldLock lock = heldLocks.get(getKey(contextId, url));
+    return lock != null && lock.isValid();
+  }
+
+  /**
+   * Records that the server rejected a request because of the lock on a resource, 
+   * with 412 Precondition Failed or 423 Locked. The lock state is then checked on the server.
+   *
+   * @param contextId The context id.
+   * @param url The URL of the resource.
+   */
+  static void lockRejected(String contextId, URL url) {
+    HeldLock lock = heldLocks.get(getKey(contextId, url));
+    if (lock != null) {
+      lock.confirmed = false;
+    }
+  }
+
+  /**
+   * Starts refreshing a lock that was just obtained or refreshed on the server.
+   *
+   * @param contextId The context id.
+   * @param url The WebDAV URL of the locked resource.
+   * @param timeoutSeconds The lock timeout.
+   * @param lockedAt The {@link System#nanoTime()} when the lock request was sent. The lock 
+   * expires on the server at the latest after the timeout counted from then.
+   * @param owner The owner of the lock.
+   * @param refresher Refreshes the lock on the server.
+   */
+  static void locked(String contextId, URL url, int timeoutSeconds, long lockedAt, String owner, 
+      Refresher refresher) {
+    URL webdavUrl = URLUtil.clearUserInfo(url);
+    String serverId = WebdavUrlStreamHandler.computeServerId(webdavUrl.toExternalForm());
+    HeldLock lock = new HeldLock(webdavUrl, serverId, timeoutSeconds, lockedAt, owner, refresher);
+    HeldLock previousLock = heldLocks.put(getKey(contextId, url), lock);
+    if (previousLock != null) {
+      cancel(previousLock);
+    }
+    scheduleRefresh(getKey(contextId, url), lock);
+  }
+
+  /**
+   * Stops refreshing a lock.
+   *
+   * @param contextId The context id.
+   * @param url The URL of the locked resource.
+   */
+  static void released(String contextId, URL url) {
+    HeldLock lock = heldLocks.remove(getKey(contextId, url));
+    if (lock != null) {
+      cancel(lock);
+    }
+  }
+
+  /**
+   * Stops refreshing all the locks held by a session.
+   *
+   * @param contextId The context id.
+   *
+   * @return The WebDAV URLs of the locked resources, grouped by server id.
+   */
+  static Map<String, List<URL>> releasedAll(String contextId) {
+    String keyPrefix = contextId + "|";
+    Map<String, List<URL>> releasedLocks = new HashMap<>();
+    for (String key : heldLocks.keySet()) {
+      if (key.startsWith(keyPrefix)) {
+        HeldLock lock = heldLocks.remove(key);
+        if (lock != null) {
+          cancel(lock);
+          releasedLocks.computeIfAbsent(lock.serverId, serverId -> new ArrayList<>()).add(lock.url);
+        }
+      }
+    }
+    return releasedLocks;
+  }
+
+  /**
+   * @return The refresh statistics, keyed by server id.
+   */
+  static Map<String, RefreshStats> getStats() {
+    return refreshStats;
+  }
+
+  /**
+   * Schedules the next refresh of a lock, shortly before it expires.
+   *
+   * @param key The key of the lock.
+   * @param lock The lock.
+   */
+  private static void scheduleRefresh(String key, HeldLock lock) {
+    long leadTime = lock.getLeadTime();
+    // Spread the refreshes of the locks obtained at the same time.
+    long jitter = ThreadLocalRandom.current().nextLong(leadTime / 2 + 1);
+    long delay = lock.expiresAt - System.nanoTime() - leadTime - jitter;
+    schedule(key, lock, delay);
+  }
+
+  /**
+   * Schedules an attempt to refresh a lock.
+   *
+   * @param key The key of the lock.
+   * @param lock The lock.
+   * @param delay The delay in nanoseconds.
+   */
+  private static void schedule(final String key, final HeldLock lock, long delay) {
+    synchronized (lock) {
+      if (heldLocks.get(key) == lock) {
+        lock.nextRefresh = timer.schedule(() -> refresh(key, lock), Math.max(0, delay), TimeUnit.NANOSECONDS);
+      }
+    }
+  }
+
+  /**
+   * Refreshes a lock if the editor still uses it.
+   *
+   * @param key The key of the lock.
+   * @param lock The lock.
+   */
+  private static void refresh(final String key, final HeldLock lock) {
+    if (heldLocks.get(key) != lock) {
+      return;
+    }
+    long now = System.nanoTime();
+    if (now - lock.requestedAt > TimeUnit.SECONDS.toNanos(lock.timeoutSeconds)) {
+      // The editor no longer asks for the lock, let it expire.
+      heldLocks.remove(key, lock);
+      return;
+    }
+
+    final Semaphore permits = refreshPermits.computeIfAbsent(lock.serverId,
+        serverId -> new Semaphore(MAX_CONCURRENT_REFRESHES_PER_SERVER));
+    if (!permits.tryAcquire()) {
+      schedule(key, lock, BUSY_SERVER_DELAY + ThreadLocalRandom.current().nextLong(BUSY_SERVER_DELAY));
+      return;
+    }
+    try {
+      WebdavExecutors.getLockRefreshExecutor().execute(() -> {
+        try {
+          doRefresh(key, lock);
+        } finally {
+          permits.release();
+        }
+      });
+    } catch (RejectedExecutionException e) {
+      permits.release();
+      retry(key, lock, e.getMessage());
+    }
+  }
+
+  /**
+   * Makes the refresh request and schedules the next one.
+   *
+   * @param key The key of the lock.
+   * @param lock The lock.
+   */
+  private static void doRefresh(String key, HeldLock lock) {
+    RefreshStats stats = refreshStats.computeIfAbsent(lock.serverId, serverId -> new RefreshStats());
+    long start = System.nanoTime();
+    try {
+      lock.refresher.refresh(lock.timeoutSeconds);
+    } catch (LockException e) {
+      stats.failureCount.incrementAndGet();
+      WebdavMetrics.recordError(lock.url, WebdavMetrics.LOCK_REFRESH, WebdavMetrics.ERROR);
+      if (isLockLost(e)) {
+        // Retrying cannot bring the lock back.
+        lost(key, lock, e.getMessage());
+      } else {
+        retry(key, lock, e.getMessage());
+      }
+      return;
+    } finally {
+      WebdavMetrics.record(lock.url, WebdavMetrics.LOCK_REFRESH, start);
+    }
+
+    long now = System.nanoTime();
+    long headroomMillis = TimeUnit.NANOSECONDS.toMillis(lock.expiresAt - now);
+    stats.refreshCount.incrementAndGet();
+    stats.minHeadroomMillis.accumulateAndGet(headroomMillis, Math::min);
+    if (log.isDebugEnabled()) {
+      log.debug("Lock refreshed " + headroomMillis + " ms before it expired on " + lock.serverId);
+    }
+
+    // The server started the new timeout at some point after the request was sent.
+    lock.expiresAt = start + TimeUnit.SECONDS.toNanos(lock.timeoutSeconds);
+    lock.confirmed = true;
+    lock.failedAttempts = 0;
+    scheduleRefresh(key, lock);
+  }
+
+  /**
+   * Retries a failed refresh with exponential backoff, as long as the lock did not expire.
+   *
+   * @param key The key of the lock.
+   * @param lock The lock.
+   * @param reason The reason of the failure.
+   */
+  private static void retry(String key, HeldLock lock, String reason) {
+    lock.failedAttempts++;
+    long backoff = Math.min(MAX_RETRY_DELAY, INITIAL_RETRY_DELAY << Math.min(lock.failedAttempts - 1, 16));
+    backoff += ThreadLocalRandom.current().nextLong(backoff / 2 + 1);
+    if (System.nanoTime() + backoff < lock.expiresAt) {
+      log.debug("Failed to refresh lock on " + lock.serverId + ": " + reason);
+      schedule(key, lock, backoff);
+    } else {
+      lost(key, lock, reason);
+    }
+  }
+
+  /**
+   * Stops refreshing a lock that no longer exists on the server.
+   *
+   * @param key The key of the lock.
+   * @param lock The lock.
+   * @param reason The reason why the lock was lost.
+   */
+  private static void lost(String key, HeldLock lock, String reason) {
+    if (heldLocks.remove(key, lock)) {
+      refreshStats.computeIfAbsent(lock.serverId, serverId -> new RefreshStats()).lostCount.incrementAndGet();
+      log.warn("Lost the lock on " + lock.serverId + ": " + reason);
+    }
+  }
+
+  /**
+   * @param e The failure of a lock refresh.
+   *
+   * @return <code>true</code> if the server rejected the lock token with 412 Precondition Failed
+   * or 423 Locked, so the lock expired or was taken by somebody else.
+   */
+  private static boolean isLockLost(LockException e) {
+    if (e instanceof SharedLockTokens.TokenRejectedException) {
+      return true;
+    }
+    String message = e.getMessage();
+    return message != null && LOCK_LOST_STATUS.matcher(message).find();
+  }
+
+  /**
+   * Cancels the scheduled refresh of a lock.
+   *
+   * @param lock The lock.
+   */
+  private static void cancel(HeldLock lock) {
+    synchronized (lock) {
+      if (lock.nextRefresh != null) {
+        lock.nextRefresh.cancel(false);
+      }
+    }
+  }
+
+  /**
+   * @param contextId The context id.
+   * @param url The WebDAV or HTTP URL of the locked resource.
+   *
+   * @return The key of the lock.
+   */
+  private static String getKey(String contextId, URL url) {
+    String urlString = URLUtil.clearUserInfo(url).toExternalForm();
+    if (urlString.startsWith(WebdavURLHandlerExtension.WEBDAV)) {
+      urlString = urlString.substring(WebdavURLHandlerExtension.WEBDAV.length());
+    }
+    return contextId + "|" + urlString;
+  }
+
+  /**
+   * @return The timer that triggers the refreshes.
+   */
+  private static ScheduledThreadPoolExecutor createTimer() {
+    ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(1,
+        new ThreadFactoryBuilder().setNameFormat("webdav-lock-refresh-%d").setDaemon(true).build());
+    executor.setRemoveOnCancelPolicy(true);
+    return executor;
+  }
+}
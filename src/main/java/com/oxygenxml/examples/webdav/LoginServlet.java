@@ -24,7 +24,7 @@ public class LoginServlet extends ServletPluginExtension {
     String action = httpRequest.getParameter("action");
     
     if ("logout".equals(action)) {
-      CredentialsStore.invalidate(sessionId);
+      SessionTeardown.teardown(sessionId);
     } else {
       String serverId = WebdavUrlStreamHandler
           .computeServerId(httpRequest.getParameter("server"));
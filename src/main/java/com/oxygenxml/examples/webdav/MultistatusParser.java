@@ -0,0 +1,259 @@
+package com.oxygenxml.examples.webdav;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+/**
+ * Streaming parser for the multistatus responses of PROPFIND requests.
+ * 
+ * The responses are reported one by one, as soon as they are parsed, so that 
+ * large listings do not have to be held in memory and the parsing can stop 
+ * as soon as the caller found what it was looking for.
+ */
+final class MultistatusParser {
+  
+  /**
+   * The WebDAV namespace.
+   */
+  private static final String DAV_NS = "DAV:";
+  
+  /**
+   * The body of a PROPFIND request for the properties reported by this parser.
+   */
+  static final String PROPFIND_BODY = "<?xml version=\"1.0\"?>\r\n" + 
+      "<a:propfind xmlns:a=\"DAV:\">\r\n" + 
+      "<a:prop><a:resourcetype/><a:getetag/><a:getlastmodified/><a:getcontentlength/></a:prop>\r\n" + 
+      "</a:propfind>";
+  
+  /**
+   * The factory used to create parsers. It is thread-safe once configured.
+   */
+  private static final XMLInputFactory inputFactory = createInputFactory();
+  
+  /**
+   * The properties of a resource, as reported in a multistatus response.
+   */
+  static final class Entry {
+    /**
+     * The URL of the resource, as sent by the server.
+     */
+    private String href;
+    /**
+     * <code>true</code> if the server reported the resource type.
+     */
+    private boolean resourceTypeReported;
+    /**
+     * <code>true</code> if the resource is a collection.
+     */
+    private boolean collection;
+    /**
+     * The entity tag, may be <code>null</code>.
+     */
+    private String etag;
+    /**
+     * The value of the getlastmodified property, may be <code>null</code>.
+     */
+    private String lastModified;
+    /**
+     * The length of the resource, -1 if not reported.
+     */
+    private long contentLength = -1;
+    
+    /**
+     * @return The URL of the resource, as sent by the server.
+     */
+    String getHref() {
+      return href;
+    }
+    
+    /**
+     * @return <code>true</code> if the server reported the resource type.
+     */
+    boolean isResourceTypeReported() {
+      return resourceTypeReported;
+    }
+    
+    /**
+     * @return <code>true</code> if the resource is a collection.
+     */
+    boolean isCollection() {
+      return collection;
+    }
+    
+    /**
+     * @return The entity tag, may be <code>null</code>.
+     */
+    String getEtag() {
+      return etag;
+    }
+    
+    /**
+     * @return The value of the getlastmodified property, may be <code>null</code>.
+     */
+    String getLastModified() {
+      return lastModified;
+    }
+    
+    /**
+     * @return The length of the resource, -1 if not reported.
+     */
+    long getContentLength() {
+      return contentLength;
+    }
+  }
+  
+  /**
+   * Receives the entries of a multistatus response.
+   */
+  interface EntryHandler {
+    /**
+     * Called for each entry of the response.
+     * 
+     * @param entry The entry.
+     * 
+     * @return <code>false</code> to stop parsing.
+     * 
+     * @throws IOException If the entry cannot be handled.
+     */
+    boolean handle(Entry entry) throws IOException;
+  }
+  
+  /**
+   * Private constructor.
+   */
+  private MultistatusParser() {
+  }
+  
+  /**
+   * @return A factory for parsers that do not resolve DTDs or external entities.
+   */
+  private static XMLInputFactory createInputFactory() {
+    XMLInputFactory factory = XMLInputFactory.newInstance();
+    factory.setProperty(XMLInputFactory.IS_NAMESPACE_AWARE, Boolean.TRUE);
+    factory.setProperty(XMLInputFactory.SUPPORT_DTD, Boolean.FALSE);
+    factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, Boolean.FALSE);
+    factory.setProperty(XMLInputFactory.IS_COALESCING, Boolean.TRUE);
+    return factory;
+  }
+  
+  /**
+   * Parses a multistatus response.
+   * 
+   * @param inputStream The response body.
+   * @param handler The handler that receives the entries.
+   * 
+   * @throws IOException If the response is not a well-formed multistatus document.
+   */
+  static void parse(InputStream inputStream, EntryHandler handler) throws IOException {
+    XMLStreamReader reader = null;
+    try {
+      reader = inputFactory.createXMLStreamReader(inputStream);
+      Entry entry = null;
+      // The properties from the current propstat, applied only if their status is 200.
+      Entry propstat = null;
+      boolean propstatOk = true;
+      while (reader.hasNext()) {
+        int event = reader.next();
+        if (event == XMLStreamConstants.START_ELEMENT && DAV_NS.equals(reader.getNamespaceURI())) {
+          String name = reader.getLocalName();
+          if ("response".equals(name)) {
+            entry = new Entry();
+          } else if (entry == null) {
+            // Outside of a response.
+          } else if ("href".equals(name) && propstat == null) {
+            entry.href = reader.getElementText().trim();
+          } else if ("propstat".equals(name)) {
+            propstat = new Entry();
+            propstatOk = true;
+          } else if (propstat == null) {
+            // Outside of a propstat.
+          } else if ("status".equals(name)) {
+            propstatOk = isOkStatus(reader.getElementText());
+          } else if ("resourcetype".equals(name)) {
+            propstat.resourceTypeReported = true;
+          } else if ("collection".equals(name)) {
+            propstat.collection = true;
+          } else if ("getetag".equals(name)) {
+            propstat.etag = reader.getElementText().trim();
+          } else if ("getlastmodified".equals(name)) {
+            propstat.lastModified = reader.getElementText().trim();
+          } else if ("getcontentlength".equals(name)) {
+            propstat.contentLength = parseLength(reader.getElementText());
+          }
+        } else if (event == XMLStreamConstants.END_ELEMENT && DAV_NS.equals(reader.getNamespaceURI())) {
+          String name = reader.getLocalName();
+          if ("propstat".equals(name) && entry != null && propstat != null) {
+            if (propstatOk) {
+              mergeProperties(propstat, entry);
+            }
+            propstat = null;
+          } else if ("response".equals(name) && entry != null) {
+            boolean shouldContinue = handler.handle(entry);
+            entry = null;
+            if (!shouldContinue) {
+              break;
+            }
+          }
+        }
+      }
+    } catch (XMLStreamException e) {
+      throw new IOException("Error parsing server response", e);
+    } finally {
+      if (reader != null) {
+        try {
+          reader.close();
+        } catch (XMLStreamException e) {
+          // Ignore.
+        }
+      }
+    }
+  }
+  
+  /**
+   * Copies the properties found in a propstat element to the entry.
+   * 
+   * @param propstat The properties from the propstat element.
+   * @param entry The entry.
+   */
+  private static void mergeProperties(Entry propstat, Entry entry) {
+    if (propstat.resourceTypeReported) {
+      entry.resourceTypeReported = true;
+      entry.collection = propstat.collection;
+    }
+    if (propstat.etag != null) {
+      entry.etag = propstat.etag;
+    }
+    if (propstat.lastModified != null) {
+      entry.lastModified = propstat.lastModified;
+    }
+    if (propstat.contentLength != -1) {
+      entry.contentLength = propstat.contentLength;
+    }
+  }
+  
+  /**
+   * @param statusLine The status line of a propstat element, e.g. "HTTP/1.1 200 OK".
+   * @return <code>true</code> if the status is 200.
+   */
+  private static boolean isOkStatus(String statusLine) {
+    String[] parts = statusLine.trim().split("\\s+");
+    return parts.length > 1 && "200".equals(parts[1]);
+  }
+  
+  /**
+   * @param length The text of the getcontentlength property.
+   * @return The length or -1 if it is not a number.
+   */
+  private static long parseLength(String length) {
+    try {
+      return Long.parseLong(length.trim());
+    } catch (NumberFormatException e) {
+      return -1;
+    }
+  }
+}
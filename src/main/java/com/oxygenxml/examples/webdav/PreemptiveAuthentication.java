@@ -0,0 +1,360 @@
+package com.oxygenxml.examples.webdav;
+
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLConnection;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+import lombok.extern.slf4j.Slf4j;
+import ro.sync.exml.workspace.api.PluginWorkspaceProvider;
+
+/**
+ * Computes the Authorization header sent with the first request to a server, so 
+ * that authenticated requests complete in a single round trip.
+ * 
+ * If the server previously challenged us with the Digest scheme, the last nonce 
+ * received from that server for the same credentials is reused with an increasing 
+ * nonce count. The Basic scheme is used over HTTPS, or over HTTP once the server 
+ * asked for it, so that the password is never sent in clear text to a server that 
+ * may only accept Digest. Otherwise, or if the server asked for a Digest algorithm 
+ * that we do not support, no header is sent and the credentials go through the usual 
+ * challenge flow.
+ */
+@Slf4j
+final class PreemptiveAuthentication {
+  
+  /**
+   * The name of the Authorization header.
+   */
+  static final String AUTHORIZATION = "Authorization";
+  
+  /**
+   * Pattern that matches a parameter of an authentication challenge.
+   */
+  private static final Pattern CHALLENGE_PARAM = Pattern.compile("([\\w-]+)\\s*=\\s*(\"([^\"]*)\"|[^,\\s]*)");
+
+  /**
+   * Source of client nonces.
+   */
+  private static final SecureRandom random = new SecureRandom();
+  
+  /**
+   * The maximum number of servers and credentials for which challenges are remembered.
+   */
+  private static final int MAX_CHALLENGES = 10000;
+  
+  /**
+   * The time after which an unused challenge is forgotten, in minutes.
+   */
+  private static final int CHALLENGE_TTL_MINUTES = 60;
+  
+  /**
+   * The last Digest challenge received from each server, keyed by server and credentials.
+   */
+  private static final Cache<String, DigestChallenge> digestChallenges = CacheBuilder.newBuilder()
+      .maximumSize(MAX_CHALLENGES)
+      .expireAfterAccess(CHALLENGE_TTL_MINUTES, TimeUnit.MINUTES)
+      .build();
+  
+  /**
+   * The servers that challenged us with the Basic scheme, keyed by server and credentials.
+   */
+  private static final Cache<String, Boolean> basicChallenges = CacheBuilder.newBuilder()
+      .maximumSize(MAX_CHALLENGES)
+      .expireAfterAccess(CHALLENGE_TTL_MINUTES, TimeUnit.MINUTES)
+      .build();
+  
+  /**
+   * A Digest challenge received from a server.
+   */
+  private static final class DigestChallenge {
+    /**
+     * The protection space.
+     */
+    final String realm;
+    /**
+     * The server nonce.
+     */
+    final String nonce;
+    /**
+     * The opaque value that has to be sent back to the server, may be <code>null</code>.
+     */
+    final String opaque;
+    /**
+     * The quality of protection, "auth" or <code>null</code> if the server does not support it.
+     */
+    final String qop;
+    /**
+     * The algorithm name as sent by the server.
+     */
+    final String algorithm;
+    /**
+     * The name of the hash algorithm, <code>null</code> if the algorithm is not supported.
+     */
+    final String digestAlgorithm;
+    /**
+     * The number of requests made with this nonce.
+     */
+    final AtomicInteger nonceCount = new AtomicInteger();
+    
+    /**
+     * Constructor.
+     * 
+     * @param params The parameters of the challenge.
+     */
+    DigestChallenge(Map<String, String> params) {
+      this.realm = params.get("realm");
+      this.nonce = params.get("nonce");
+      this.opaque = params.get("opaque");
+      String offeredQop = params.get("qop");
+      this.qop = offeredQop != null && offeredQop.matches("(?i).*\\bauth\\b(?!-).*") ? "auth" : null;
+      this.algorithm = params.containsKey("algorithm") ? params.get("algorithm") : "MD5";
+      if ("MD5".equalsIgnoreCase(algorithm)) {
+        this.digestAlgorithm = "MD5";
+      } else if ("SHA-256".equalsIgnoreCase(algorithm)) {
+        this.digestAlgorithm = "SHA-256";
+      } else {
+        // The session variants need the client nonce of the first request.
+        this.digestAlgorithm = null;
+      }
+    }
+  }
+  
+  /**
+   * Private constructor.
+   */
+  private PreemptiveAuthentication() {
+  }
+  
+  /**
+   * @return <code>true</code> if the credentials should be sent in the Authorization header 
+   * instead of the URL.
+   */
+  static boolean isEnabled() {
+    String optionValue = PluginWorkspaceProvider.getPluginWorkspace().getOptionsStorage()
+        .getOption(WebdavPluginConfigExtension.PREEMPTIVE_AUTH, "off");
+    return "on".equals(optionValue);
+  }
+  
+  /**
+   * Computes the value of the Authorization header for a request.
+   * 
+   * @param credentials The credentials of the user.
+   * @param httpUrl The URL of the request, without the "webdav-" prefix.
+   * @param method The HTTP method of the request.
+   * 
+   * @return The value of the Authorization header, <code>null</code> if the credentials 
+   * cannot be sent preemptively.
+   */
+  static String computeAuthorization(ResolvedCredentials credentials, URL httpUrl, String method) {
+    String challengeKey = getChallengeKey(httpUrl, credentials);
+    DigestChallenge challenge = digestChallenges.getIfPresent(challengeKey);
+    if (challenge == null) {
+      return canUseBasic(challengeKey, httpUrl) ? credentials.getBasicAuthorization() : null;
+    }
+    if (challenge.digestAlgorithm == null) {
+      // Never send the password in clear text to a server that asked for Digest.
+      return null;
+    }
+    try {
+      return computeDigestAuthorization(challenge, credentials, httpUrl, method);
+    } catch (NoSuchAlgorithmException e) {
+      log.debug("Unsupported digest algorithm " + challenge.algorithm, e);
+      return null;
+    }
+  }
+  
+  /**
+   * @param credentials The credentials of the user.
+   * @param httpUrl The URL of a request, without the "webdav-" prefix.
+   * 
+   * @return <code>false</code> if the credentials cannot be sent in the Authorization header: 
+   * the server asked for a Digest algorithm that we do not support, or we do not know that it 
+   * accepts Basic over a connection that is not encrypted.
+   */
+  static boolean canAuthorize(ResolvedCredentials credentials, URL httpUrl) {
+    String challengeKey = getChallengeKey(httpUrl, credentials);
+    DigestChallenge challenge = digestChallenges.getIfPresent(challengeKey);
+    if (challenge == null) {
+      return canUseBasic(challengeKey, httpUrl);
+    }
+    return challenge.digestAlgorithm != null;
+  }
+  
+  /**
+   * @param challengeKey The key of the challenges of the server and credentials.
+   * @param httpUrl The URL of a request, without the "webdav-" prefix.
+   * 
+   * @return <code>true</code> if the Basic scheme can be used preemptively: the connection 
+   * is encrypted or the server asked for Basic.
+   */
+  private static boolean canUseBasic(String challengeKey, URL httpUrl) {
+    return "https".equalsIgnoreCase(httpUrl.getProtocol()) 
+        || basicChallenges.getIfPresent(challengeKey) != null;
+  }
+  
+  /**
+   * Remembers the authentication challenge sent by the server in a 401 response.
+   * 
+   * @param connection The connection that received the 401 response.
+   * @param credentials The credentials of the user.
+   * @param sentAuthorization The Authorization header sent preemptively with the request, 
+   * <code>null</code> if none.
+   * 
+   * @return <code>true</code> if the request may succeed if repeated with the new challenge: 
+   * the server reported that our nonce is stale, or it asked for Digest while we did not 
+   * use the nonce it sent.
+   */
+  static boolean recordChallenge(URLConnection connection, ResolvedCredentials credentials, 
+      String sentAuthorization) {
+    if (!(connection instanceof HttpURLConnection) || credentials == null) {
+      return false;
+    }
+    List<String> challenges = connection.getHeaderFields().get("WWW-Authenticate");
+    if (challenges == null) {
+      return false;
+    }
+    String challengeKey = getChallengeKey(connection.getURL(), credentials);
+    boolean basic = false;
+    for (String challenge : challenges) {
+      if (challenge.regionMatches(true, 0, "Digest", 0, "Digest".length())) {
+        Map<String, String> params = parseChallengeParams(challenge.substring("Digest".length()));
+        if (params.get("nonce") != null) {
+          DigestChallenge digestChallenge = new DigestChallenge(params);
+          digestChallenges.put(challengeKey, digestChallenge);
+          basicChallenges.invalidate(challengeKey);
+          if (sentAuthorization == null || digestChallenge.digestAlgorithm == null) {
+            return false;
+          }
+          return "true".equalsIgnoreCase(params.get("stale")) 
+              || !sentAuthorization.contains("nonce=\"" + digestChallenge.nonce + "\"");
+        }
+      } else if (challenge.regionMatches(true, 0, "Basic", 0, "Basic".length())) {
+        basic = true;
+      }
+    }
+    // The server does not use the Digest scheme (anymore).
+    digestChallenges.invalidate(challengeKey);
+    if (basic) {
+      basicChallenges.put(challengeKey, Boolean.TRUE);
+    } else {
+      basicChallenges.invalidate(challengeKey);
+    }
+    return false;
+  }
+  
+  /**
+   * Parses the parameters of an authentication challenge.
+   * 
+   * @param params The comma-separated list of parameters.
+   * 
+   * @return The parameters, with lower-case names.
+   */
+  private static Map<String, String> parseChallengeParams(String params) {
+    Map<String, String> result = new HashMap<>();
+    Matcher matcher = CHALLENGE_PARAM.matcher(params);
+    while (matcher.find()) {
+      String value = matcher.group(3) != null ? matcher.group(3) : matcher.group(2);
+      result.put(matcher.group(1).toLowerCase(Locale.ENGLISH), value);
+    }
+    return result;
+  }
+  
+  /**
+   * Computes the Authorization header for the Digest scheme, as described in RFC 7616.
+   * 
+   * @param challenge The challenge received from the server.
+   * @param credentials The credentials of the user.
+   * @param httpUrl The URL of the request.
+   * @param method The HTTP method of the request.
+   * 
+   * @return The value of the Authorization header.
+   * 
+   * @throws NoSuchAlgorithmException If the digest algorithm is not supported.
+   */
+  private static String computeDigestAuthorization(DigestChallenge challenge, ResolvedCredentials credentials, 
+      URL httpUrl, String method) throws NoSuchAlgorithmException {
+    String digestAlgorithm = challenge.digestAlgorithm;
+    String uri = httpUrl.getFile().isEmpty() ? "/" : httpUrl.getFile();
+    String ha1 = hash(digestAlgorithm, credentials.getUserName() + ":" + challenge.realm + ":" + credentials.getPassword());
+    String ha2 = hash(digestAlgorithm, method + ":" + uri);
+    
+    StringBuilder authorization = new StringBuilder("Digest ");
+    authorization.append("username=\"").append(credentials.getUserName()).append("\"")
+      .append(", realm=\"").append(challenge.realm).append("\"")
+      .append(", nonce=\"").append(challenge.nonce).append("\"")
+      .append(", uri=\"").append(uri).append("\"")
+      .append(", algorithm=").append(challenge.algorithm);
+    if (challenge.qop != null) {
+      String nonceCount = String.format("%08x", challenge.nonceCount.incrementAndGet());
+      byte[] cnonceBytes = new byte[8];
+      random.nextBytes(cnonceBytes);
+      String cnonce = toHex(cnonceBytes);
+      String response = hash(digestAlgorithm, 
+          ha1 + ":" + challenge.nonce + ":" + nonceCount + ":" + cnonce + ":" + challenge.qop + ":" + ha2);
+      authorization.append(", qop=").append(challenge.qop)
+        .append(", nc=").append(nonceCount)
+        .append(", cnonce=\"").append(cnonce).append("\"")
+        .append(", response=\"").append(response).append("\"");
+    } else {
+      String response = hash(digestAlgorithm, ha1 + ":" + challenge.nonce + ":" + ha2);
+      authorization.append(", response=\"").append(response).append("\"");
+    }
+    if (challenge.opaque != null) {
+      authorization.append(", opaque=\"").append(challenge.opaque).append("\"");
+    }
+    return authorization.toString();
+  }
+  
+  /**
+   * Computes the hex-encoded hash of a string.
+   * 
+   * @param algorithm The hash algorithm.
+   * @param value The value to hash.
+   * 
+   * @return The hex-encoded hash.
+   * 
+   * @throws NoSuchAlgorithmException If the algorithm is not supported.
+   */
+  private static String hash(String algorithm, String value) throws NoSuchAlgorithmException {
+    MessageDigest digest = MessageDigest.getInstance(algorithm);
+    return toHex(digest.digest(value.getBytes(StandardCharsets.UTF_8)));
+  }
+  
+  /**
+   * @param bytes The bytes to encode.
+   * @return The lower-case hex encoding of the bytes.
+   */
+  private static String toHex(byte[] bytes) {
+    StringBuilder hex = new StringBuilder(bytes.length * 2);
+    for (byte b : bytes) {
+      hex.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+    }
+    return hex.toString();
+  }
+  
+  /**
+   * @param url The URL.
+   * @param credentials The credentials of the user.
+   * 
+   * @return The key used to store the challenges of the server that serves the given URL, 
+   * received for the given credentials.
+   */
+  private static String getChallengeKey(URL url, ResolvedCredentials credentials) {
+    return url.getProtocol() + "://" + url.getHost() + ":" + url.getPort() + "|" + credentials.getDigest();
+  }
+}
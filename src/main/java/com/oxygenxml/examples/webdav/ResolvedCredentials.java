@@ -0,0 +1,108 @@
+package com.oxygenxml.examples.webdav;
+
+import java.net.PasswordAuthentication;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+
+import com.google.common.hash.Hashing;
+
+import ro.sync.basic.util.URLUtil;
+
+/**
+ * Decrypted credentials of a user for a server, together with their encoded forms 
+ * used when making requests. 
+ * 
+ * Instances are immutable, so they can be shared between the requests of a session.
+ */
+final class ResolvedCredentials {
+  
+  /**
+   * The user name.
+   */
+  private final String userName;
+  
+  /**
+   * The decrypted password.
+   */
+  private final String password;
+  
+  /**
+   * The user info part of an URL, with the user name and password URL-encoded.
+   */
+  private final String encodedUserInfo;
+  
+  /**
+   * The value of the Authorization header for the basic authentication scheme.
+   */
+  private final String basicAuthorization;
+  
+  /**
+   * The hex-encoded SHA-256 digest of the user name and password.
+   */
+  private final String digest;
+
+  /**
+   * Constructor.
+   * 
+   * @param userName The user name.
+   * @param password The decrypted password.
+   */
+  ResolvedCredentials(String userName, String password) {
+    this.userName = userName;
+    this.password = password;
+    this.encodedUserInfo = URLUtil.encodeURIComponent(userName) + ":" + URLUtil.encodeURIComponent(password);
+    this.basicAuthorization = "Basic " + Base64.getEncoder().encodeToString(
+        (userName + ":" + password).getBytes(StandardCharsets.UTF_8));
+    this.digest = Hashing.sha256().hashString(userName + ":" + password, StandardCharsets.UTF_8).toString();
+  }
+  
+  /**
+   * @return The user name.
+   */
+  String getUserName() {
+    return userName;
+  }
+  
+  /**
+   * @return The decrypted password.
+   */
+  String getPassword() {
+    return password;
+  }
+  
+  /**
+   * @return <code>true</code> if the password is not empty.
+   */
+  boolean hasPassword() {
+    return !password.isEmpty();
+  }
+  
+  /**
+   * @return The user info part of an URL, with the user name and password URL-encoded.
+   */
+  String getEncodedUserInfo() {
+    return encodedUserInfo;
+  }
+  
+  /**
+   * @return The value of the Authorization header for the basic authentication scheme.
+   */
+  String getBasicAuthorization() {
+    return basicAuthorization;
+  }
+  
+  /**
+   * @return The hex-encoded SHA-256 digest of the user name and password, used to key the state 
+   * kept for these credentials without keeping the password.
+   */
+  String getDigest() {
+    return digest;
+  }
+  
+  /**
+   * @return A new password authentication object.
+   */
+  PasswordAuthentication toPasswordAuthentication() {
+    return new PasswordAuthentication(userName, password.toCharArray());
+  }
+}
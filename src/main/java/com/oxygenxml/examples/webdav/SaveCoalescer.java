@@ -0,0 +1,238 @@
+package com.oxygenxml.examples.webdav;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+import ro.sync.exml.workspace.api.PluginWorkspaceProvider;
+import ro.sync.exml.workspace.api.options.WSOptionsStorage;
+
+/**
+ * Coalesces the saves of a document, so that at most one request is in flight for each resource.
+ *
+ * While a save is in flight, only the latest save that arrives waits for its turn. The saves that
+ * it replaces are not sent and report the result of the save that replaced them, since its
+ * content is newer.
+ */
+final class SaveCoalescer {
+
+  /**
+   * Sends a save to the server.
+   */
+  interface Sender {
+    /**
+     * Sends the save.
+     *
+     * @throws IOException If the save failed.
+     */
+    void send() throws IOException;
+  }
+
+  /**
+   * A save that waits for its turn.
+   */
+  private static final class PendingSave {
+    /**
+     * Completed with <code>true</code> when the save should be sent, or with <code>false</code>
+     * if it was replaced by a newer save or gave up waiting.
+     */
+    final CompletableFuture<Boolean> turn = new CompletableFuture<>();
+    /**
+     * The result of the save.
+     */
+    final CompletableFuture<Void> result = new CompletableFuture<>();
+  }
+
+  /**
+   * The saves of a resource.
+   */
+  private static final class Slot {
+    /**
+     * <code>true</code> while a save is in flight.
+     */
+    boolean inFlight;
+    /**
+     * The latest save that waits for its turn.
+     */
+    PendingSave waiting;
+  }
+
+  /**
+   * The number of minutes a save waits for the previous ones.
+   */
+  private static final int SAVE_WAIT_TIMEOUT = 5;
+
+  /**
+   * The slots of the resources being saved, keyed by session and URL. The idle ones are garbage collected.
+   */
+  private static final Cache<String, Slot> slots = CacheBuilder.newBuilder()
+      .weakValues()
+      .build();
+
+  /**
+   * Private constructor.
+   */
+  private SaveCoalescer() {
+  }
+
+  /**
+   * Forgets the slots of a session that logs out. The saves in progress complete normally.
+   *
+   * @param contextId The context id.
+   */
+  static void invalidateSession(String contextId) {
+    String prefix = contextId + "|";
+    slots.asMap().keySet().removeIf(key -> key.startsWith(prefix));
+  }
+
+  /**
+   * @return <code>true</code> if the saves should be coalesced.
+   */
+  static boolean isEnabled() {
+    WSOptionsStorage optionsStorage = PluginWorkspaceProvider.getPluginWorkspace().getOptionsStorage();
+    return "on".equals(optionsStorage.getOption(WebdavPluginConfigExtension.SAVE_COALESCING, "off"));
+  }
+
+  /**
+   * Saves a resource once the previous save completed, unless a newer save arrives meanwhile.
+   *
+   * @param key The key of the resource.
+   * @param sender Sends the save.
+   *
+   * @throws IOException If the save, or the newer save that replaced it, failed.
+   */
+  static void save(String key, Sender sender) throws IOException {
+    Slot slot;
+    try {
+      slot = slots.get(key, Slot::new);
+    } catch (ExecutionException e) {
+      throw new IOException(e.getCause());
+    }
+
+    PendingSave save = new PendingSave();
+    boolean myTurn;
+    synchronized (slot) {
+      myTurn = !slot.inFlight;
+      if (myTurn) {
+        slot.inFlight = true;
+      } else {
+        PendingSave replacedSave = slot.waiting;
+        if (replacedSave != null && replacedSave.turn.complete(false)) {
+          // The replaced save reports the result of this one.
+          save.result.whenComplete((result, e) -> {
+            if (e != null) {
+              replacedSave.result.completeExceptionally(e);
+            } else {
+              replacedSave.result.complete(null);
+            }
+          });
+        }
+        slot.waiting = save;
+      }
+    }
+
+    if (!myTurn) {
+      myTurn = awaitTurn(slot, save);
+      if (!myTurn) {
+        await(save.result);
+        return;
+      }
+    }
+
+    try {
+      sender.send();
+      save.result.complete(null);
+    } catch (IOException | RuntimeException e) {
+      save.result.completeExceptionally(e);
+      throw e;
+    } finally {
+      handOver(slot);
+    }
+  }
+
+  /**
+   * Waits until the save should be sent.
+   *
+   * @param slot The slot of the resource.
+   * @param save The save.
+   *
+   * @return <code>true</code> if the save should be sent, <code>false</code> if it was replaced.
+   *
+   * @throws IOException If the wait timed out.
+   */
+  private static boolean awaitTurn(Slot slot, PendingSave save) throws IOException {
+    try {
+      return save.turn.get(SAVE_WAIT_TIMEOUT, TimeUnit.MINUTES);
+    } catch (TimeoutException e) {
+      if (save.turn.complete(false)) {
+        synchronized (slot) {
+          if (slot.waiting == save) {
+            slot.waiting = null;
+          }
+        }
+        save.result.completeExceptionally(new IOException("The previous save did not complete in time."));
+        throw new IOException("The previous save did not complete in time.", e);
+      }
+      // The turn came just now.
+      return save.turn.join();
+    } catch (ExecutionException e) {
+      throw new IOException(e.getCause());
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException();
+    }
+  }
+
+  /**
+   * Lets the waiting save be sent, if any.
+   *
+   * @param slot The slot of the resource.
+   */
+  private static void handOver(Slot slot) {
+    while (true) {
+      PendingSave next;
+      synchronized (slot) {
+        next = slot.waiting;
+        slot.waiting = null;
+        if (next == null) {
+          slot.inFlight = false;
+          return;
+        }
+      }
+      if (next.turn.complete(true)) {
+        return;
+      }
+      // The waiting save gave up, look for another one.
+    }
+  }
+
+  /**
+   * Waits for the result of a save.
+   *
+   * @param result The result.
+   *
+   * @throws IOException If the save failed.
+   */
+  private static void await(Future<Void> result) throws IOException {
+    try {
+      result.get(SAVE_WAIT_TIMEOUT, TimeUnit.MINUTES);
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof IOException) {
+        throw (IOException) e.getCause();
+      }
+      throw new IOException(e.getCause());
+    } catch (TimeoutException e) {
+      throw new IOException("The save did not complete in time.", e);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException();
+    }
+  }
+}
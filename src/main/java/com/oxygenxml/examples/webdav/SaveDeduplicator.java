@@ -0,0 +1,148 @@
+package com.oxygenxml.examples.webdav;
+
+import java.net.URL;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+
+import ro.sync.basic.util.URLUtil;
+
+/**
+ * Remembers the hash of the content last saved by each session, so that saves that
+ * do not change the resource can be skipped.
+ */
+final class SaveDeduplicator {
+
+  /**
+   * The maximum size of the content that is hashed. Larger resources are always saved.
+   */
+  static final int MAX_HASHED_BYTES = 8 * 1024 * 1024;
+
+  /**
+   * The maximum number of remembered hashes.
+   */
+  private static final int MAX_HASHES = 10000;
+
+  /**
+   * The number of minutes after which an unused hash is forgotten.
+   */
+  private static final int HASH_TTL = 60;
+
+  /**
+   * The hash function, fast and with a negligible collision probability.
+   */
+  private static final HashFunction hashFunction = Hashing.murmur3_128();
+
+  /**
+   * The hash of the content last saved, keyed by session and URL.
+   */
+  private static final Cache<String, HashCode> savedHashes = CacheBuilder.newBuilder()
+      .maximumSize(MAX_HASHES)
+      .expireAfterAccess(HASH_TTL, TimeUnit.MINUTES)
+      .build();
+
+  /**
+   * The number of skipped saves.
+   */
+  private static final AtomicLong skippedSaveCount = new AtomicLong();
+
+  /**
+   * The number of bytes not sent because of the skipped saves.
+   */
+  private static final AtomicLong skippedBytes = new AtomicLong();
+
+  /**
+   * Private constructor.
+   */
+  private SaveDeduplicator() {
+  }
+
+  /**
+   * @return The hash function used for the saved content.
+   */
+  static HashFunction getHashFunction() {
+    return hashFunction;
+  }
+
+  /**
+   * @param contextId The context id.
+   * @param url The URL of the resource.
+   *
+   * @return The key of the resource.
+   */
+  static String getKey(String contextId, URL url) {
+    return contextId + "|" + URLUtil.clearUserInfo(url).toExternalForm();
+  }
+
+  /**
+   * @param key The key of the resource.
+   * @param hash The hash of the content to save.
+   *
+   * @return <code>true</code> if the content is the same as the last one saved.
+   */
+  static boolean isUnchanged(String key, HashCode hash) {
+    return hash.equals(savedHashes.getIfPresent(key));
+  }
+
+  /**
+   * Records a successful save.
+   *
+   * @param key The key of the resource.
+   * @param hash The hash of the saved content, <code>null</code> if it is unknown.
+   */
+  static void saved(String key, HashCode hash) {
+    if (hash != null) {
+      savedHashes.put(key, hash);
+    } else {
+      savedHashes.invalidate(key);
+    }
+  }
+
+  /**
+   * Forgets the content saved for a resource, for example after a failed save.
+   *
+   * @param key The key of the resource.
+   */
+  static void invalidate(String key) {
+    savedHashes.invalidate(key);
+  }
+
+  /**
+   * Forgets the content saved by a session that logs out.
+   *
+   * @param contextId The context id.
+   */
+  static void invalidateSession(String contextId) {
+    String prefix = contextId + "|";
+    savedHashes.asMap().keySet().removeIf(key -> key.startsWith(prefix));
+  }
+
+  /**
+   * Records a skipped save.
+   *
+   * @param length The length of the content that was not sent.
+   */
+  static void recordSkipped(long length) {
+    skippedSaveCount.incrementAndGet();
+    skippedBytes.addAndGet(length);
+  }
+
+  /**
+   * @return The number of skipped saves.
+   */
+  static long getSkippedSaveCount() {
+    return skippedSaveCount.get();
+  }
+
+  /**
+   * @return The number of bytes not sent because of the skipped saves.
+   */
+  static long getSkippedBytes() {
+    return skippedBytes.get();
+  }
+}
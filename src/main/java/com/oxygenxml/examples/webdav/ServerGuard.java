@@ -0,0 +1,484 @@
+package com.oxygenxml.examples.webdav;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.HttpURLConnection;
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
+import java.net.URL;
+import java.net.UnknownHostException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import lombok.extern.slf4j.Slf4j;
+import ro.sync.ecss.extensions.api.webapp.access.WebappPluginWorkspace;
+import ro.sync.exml.workspace.api.PluginResourceBundle;
+import ro.sync.exml.workspace.api.PluginWorkspaceProvider;
+
+/**
+ * Protects the plugin from a WebDAV server that hangs or fails.
+ *
+ * For each server, a bulkhead limits the number of requests in flight, so that a hanging server
+ * cannot use all the threads. A circuit breaker stops sending requests to a server for a while
+ * when most of the recent requests failed or were too slow, then lets a single probe request
+ * through to find out whether the server recovered.
+ */
+@Slf4j
+final class ServerGuard {
+
+  /**
+   * The maximum number of requests in flight to a server, unless configured otherwise.
+   */
+  static final String MAX_CONCURRENT_REQUESTS = "max-concurrent-requests";
+
+  /**
+   * The number of seconds after which a request is considered too slow.
+   */
+  static final String SLOW_REQUEST_THRESHOLD = "slow-request-threshold";
+
+  /**
+   * Whether the circuit breaker is enabled. On by default.
+   */
+  static final String CIRCUIT_BREAKER = "circuit-breaker";
+
+  /**
+   * The default maximum number of requests in flight to a server.
+   */
+  private static final int DEFAULT_MAX_CONCURRENT_REQUESTS = 32;
+
+  /**
+   * The default number of seconds after which a request is considered too slow.
+   */
+  private static final int DEFAULT_SLOW_REQUEST_THRESHOLD = 10;
+
+  /**
+   * The number of milliseconds a request waits for a place in the bulkhead.
+   */
+  private static final int BULKHEAD_WAIT_MILLIS = 2000;
+
+  /**
+   * The number of recent requests considered by the circuit breaker.
+   */
+  private static final int WINDOW_SIZE = 20;
+
+  /**
+   * The minimum number of recent requests before the circuit breaker opens.
+   */
+  private static final int MIN_REQUESTS = 10;
+
+  /**
+   * The ratio of failed or slow recent requests that opens the circuit breaker.
+   */
+  private static final double FAILURE_RATE_THRESHOLD = 0.5;
+
+  /**
+   * The number of seconds during which the requests fail fast after the circuit breaker opened.
+   */
+  private static final int OPEN_SECONDS = 30;
+
+  /**
+   * The states of a circuit breaker.
+   */
+  private enum State {
+    /**
+     * The requests are sent.
+     */
+    CLOSED,
+    /**
+     * The requests fail fast.
+     */
+    OPEN,
+    /**
+     * A single probe request is sent.
+     */
+    HALF_OPEN
+  }
+
+  /**
+   * The guard of a server.
+   */
+  static final class Guard {
+    /**
+     * The bulkhead.
+     */
+    private Semaphore bulkhead;
+    /**
+     * The number of places in the bulkhead.
+     */
+    private int bulkheadSize;
+    /**
+     * The state of the circuit breaker.
+     */
+    State state = State.CLOSED;
+    /**
+     * The time when the open circuit breaker lets a probe through, as reported by {@link System#nanoTime()}.
+     */
+    long openUntil;
+    /**
+     * <code>true</code> while the probe request is in flight.
+     */
+    boolean probeInFlight;
+    /**
+     * The outcomes of the recent requests, <code>true</code> for the failed or slow ones.
+     */
+    final boolean[] window = new boolean[WINDOW_SIZE];
+    /**
+     * The number of outcomes in the window.
+     */
+    int windowCount;
+    /**
+     * The position of the next outcome in the window.
+     */
+    int windowPosition;
+    /**
+     * The number of failed or slow requests in the window.
+     */
+    int failureCount;
+
+    /**
+     * Returns the bulkhead, rebuilt if the maximum number of requests in flight was changed
+     * in the server settings. The requests in flight hold places in the previous bulkhead,
+     * so for a while the server may receive more requests than the new limit.
+     *
+     * @param maxConcurrentRequests The maximum number of requests in flight.
+     *
+     * @return The bulkhead.
+     */
+    synchronized Semaphore getBulkhead(int maxConcurrentRequests) {
+      if (bulkhead == null || bulkheadSize != maxConcurrentRequests) {
+        bulkhead = new Semaphore(maxConcurrentRequests);
+        bulkheadSize = maxConcurrentRequests;
+      }
+      return bulkhead;
+    }
+
+    /**
+     * Decides whether a request can be sent.
+     *
+     * @return <code>true</code> if the request is the probe of a half-open circuit breaker.
+     *
+     * @throws ServerUnavailableException If the circuit breaker is open.
+     */
+    synchronized boolean allowRequest() throws ServerUnavailableException {
+      if (state == State.OPEN && System.nanoTime() - openUntil >= 0) {
+        state = State.HALF_OPEN;
+      }
+      if (state == State.CLOSED) {
+        return false;
+      }
+      if (state == State.HALF_OPEN && !probeInFlight) {
+        probeInFlight = true;
+        return true;
+      }
+      throw new ServerUnavailableException(getMessage(TranslationTags.SERVER_NOT_RESPONDING));
+    }
+
+    /**
+     * Lets another request be the probe, when the probe was abandoned before it reached the server.
+     */
+    synchronized void releaseProbe() {
+      probeInFlight = false;
+    }
+
+    /**
+     * @return <code>true</code> if the circuit breaker lets the requests through.
+     */
+    synchronized boolean isClosed() {
+      return state == State.CLOSED;
+    }
+
+    /**
+     * Records the outcome of a request.
+     *
+     * @param probe <code>true</code> if the request was the probe.
+     * @param failed <code>true</code> if the request failed or was too slow.
+     * @param serverId The server id, used for logging.
+     */
+    synchronized void record(boolean probe, boolean failed, String serverId) {
+      if (probe) {
+        probeInFlight = false;
+        if (failed) {
+          open(serverId);
+        } else {
+          log.info("The WebDAV server " + serverId + " recovered.");
+          state = State.CLOSED;
+          windowCount = 0;
+          windowPosition = 0;
+          failureCount = 0;
+        }
+        return;
+      }
+      if (state != State.CLOSED) {
+        return;
+      }
+      if (windowCount == WINDOW_SIZE) {
+        if (window[windowPosition]) {
+          failureCount--;
+        }
+      } else {
+        windowCount++;
+      }
+      window[windowPosition] = failed;
+      if (failed) {
+        failureCount++;
+      }
+      windowPosition = (windowPosition + 1) % WINDOW_SIZE;
+      if (windowCount >= MIN_REQUESTS && failureCount >= FAILURE_RATE_THRESHOLD * windowCount) {
+        open(serverId);
+      }
+    }
+
+    /**
+     * Opens the circuit breaker.
+     *
+     * @param serverId The server id, used for logging.
+     */
+    private void open(String serverId) {
+      log.warn("The WebDAV server " + serverId + " is failing, requests are suspended for " + OPEN_SECONDS + "s.");
+      state = State.OPEN;
+      openUntil = System.nanoTime() + TimeUnit.SECONDS.toNanos(OPEN_SECONDS);
+    }
+  }
+
+  /**
+   * A place in the bulkhead of a server, held while a request is in flight.
+   */
+  static final class Permit implements AutoCloseable {
+    /**
+     * The guard of the server.
+     */
+    private final Guard guard;
+    /**
+     * The bulkhead in which the place is held.
+     */
+    private final Semaphore bulkhead;
+    /**
+     * The server id.
+     */
+    private final String serverId;
+    /**
+     * <code>true</code> if the request is the probe of a half-open circuit breaker.
+     */
+    private final boolean probe;
+    /**
+     * The number of nanoseconds after which the request is considered too slow.
+     */
+    private final long slowThresholdNanos;
+    /**
+     * The time when the request started, as reported by {@link System#nanoTime()}.
+     */
+    private long start = System.nanoTime();
+    /**
+     * The number of nanoseconds the server took to start the response, <code>-1</code> if 
+     * not measured, in which case the request is timed until the permit is closed.
+     */
+    private long responseDelay = -1;
+    /**
+     * <code>true</code> if the server failed to answer the request.
+     */
+    private boolean failed;
+    /**
+     * <code>true</code> after the permit was released.
+     */
+    private boolean closed;
+
+    /**
+     * Constructor.
+     *
+     * @param guard The guard of the server.
+     * @param bulkhead The bulkhead in which the place is held.
+     * @param serverId The server id.
+     * @param probe <code>true</code> if the request is the probe of a half-open circuit breaker.
+     * @param slowThresholdNanos The number of nanoseconds after which the request is considered too slow.
+     */
+    private Permit(Guard guard, Semaphore bulkhead, String serverId, boolean probe, long slowThresholdNanos) {
+      this.guard = guard;
+      this.bulkhead = bulkhead;
+      this.serverId = serverId;
+      this.probe = probe;
+      this.slowThresholdNanos = slowThresholdNanos;
+    }
+
+    /**
+     * Marks the end of the upload of the request body, so that the time it took is not 
+     * attributed to the server.
+     */
+    void requestSent() {
+      start = System.nanoTime();
+    }
+
+    /**
+     * Marks the start of the response, so that the time it takes to read it is not 
+     * attributed to the server.
+     */
+    void responseStarted() {
+      responseDelay = System.nanoTime() - start;
+    }
+
+    /**
+     * Marks the request as failed because of the server.
+     */
+    void failed() {
+      failed = true;
+    }
+
+    /**
+     * Records the outcome of the request and releases the place in the bulkhead.
+     */
+    @Override
+    public void close() {
+      if (closed) {
+        return;
+      }
+      closed = true;
+      long delay = responseDelay >= 0 ? responseDelay : System.nanoTime() - start;
+      boolean slow = delay > slowThresholdNanos;
+      if (guard != null) {
+        bulkhead.release();
+        guard.record(probe, failed || slow, serverId);
+      }
+    }
+  }
+
+  /**
+   * The guards keyed by server id.
+   */
+  private static final Map<String, Guard> guards = new ConcurrentHashMap<>();
+
+  /**
+   * Private constructor.
+   */
+  private ServerGuard() {
+  }
+
+  /**
+   * Obtains the permission to send a request.
+   *
+   * @param httpUrl The HTTP or WebDAV URL of the request.
+   *
+   * @return The permit, which should be closed when the response headers were received or the request failed.
+   *
+   * @throws ServerUnavailableException If the server is failing or too busy.
+   * @throws InterruptedIOException If the thread was interrupted while waiting.
+   */
+  static Permit acquire(URL httpUrl) throws ServerUnavailableException, InterruptedIOException {
+    WebdavServerSettings settings = WebdavServerSettings.get(httpUrl);
+    long slowThresholdNanos = TimeUnit.SECONDS.toNanos(
+        settings.getInt(SLOW_REQUEST_THRESHOLD, DEFAULT_SLOW_REQUEST_THRESHOLD));
+    if (!settings.getBoolean(CIRCUIT_BREAKER, true)) {
+      return new Permit(null, null, null, false, slowThresholdNanos);
+    }
+    String serverId = getServerId(httpUrl);
+    Guard guard = guards.computeIfAbsent(serverId, key -> new Guard());
+    boolean probe = guard.allowRequest();
+    Semaphore bulkhead = guard.getBulkhead(settings.getInt(MAX_CONCURRENT_REQUESTS, DEFAULT_MAX_CONCURRENT_REQUESTS));
+    try {
+      if (!bulkhead.tryAcquire(BULKHEAD_WAIT_MILLIS, TimeUnit.MILLISECONDS)) {
+        if (probe) {
+          guard.record(true, true, serverId);
+        }
+        throw new ServerUnavailableException(getMessage(TranslationTags.SERVER_TOO_BUSY));
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      if (probe) {
+        // The probe did not reach the server, so it tells nothing about it.
+        guard.releaseProbe();
+      }
+      throw new InterruptedIOException();
+    }
+    return new Permit(guard, bulkhead, serverId, probe, slowThresholdNanos);
+  }
+
+  /**
+   * Obtains the permission to send an optional request, without waiting.
+   *
+   * @param httpUrl The HTTP or WebDAV URL of the request.
+   *
+   * @return The permit, or <code>null</code> if the server is failing or has no free place in the bulkhead.
+   */
+  static Permit tryAcquire(URL httpUrl) {
+    WebdavServerSettings settings = WebdavServerSettings.get(httpUrl);
+    long slowThresholdNanos = TimeUnit.SECONDS.toNanos(
+        settings.getInt(SLOW_REQUEST_THRESHOLD, DEFAULT_SLOW_REQUEST_THRESHOLD));
+    if (!settings.getBoolean(CIRCUIT_BREAKER, true)) {
+      return new Permit(null, null, null, false, slowThresholdNanos);
+    }
+    String serverId = getServerId(httpUrl);
+    Guard guard = guards.get(serverId);
+    if (guard == null || !guard.isClosed()) {
+      return null;
+    }
+    Semaphore bulkhead = guard.getBulkhead(settings.getInt(MAX_CONCURRENT_REQUESTS, DEFAULT_MAX_CONCURRENT_REQUESTS));
+    if (!bulkhead.tryAcquire()) {
+      return null;
+    }
+    return new Permit(guard, bulkhead, serverId, false, slowThresholdNanos);
+  }
+
+  /**
+   * @param connection The connection of a failed request.
+   * @param e The exception thrown by the request.
+   *
+   * @return <code>true</code> if the request failed because of the server, not because of the request.
+   */
+  static boolean isServerFailure(HttpURLConnection connection, IOException e) {
+    if (e instanceof ServerUnavailableException) {
+      return false;
+    }
+    if (isConnectivityFailure(e)) {
+      // Asking for the response code would connect again.
+      return true;
+    }
+    try {
+      int responseCode = connection.getResponseCode();
+      return responseCode == -1 || responseCode >= HttpURLConnection.HTTP_INTERNAL_ERROR;
+    } catch (IOException ex) {
+      return true;
+    }
+  }
+
+  /**
+   * @param e An exception thrown while making a request.
+   *
+   * @return <code>true</code> if the exception shows that the server could not be reached
+   * or did not answer in time.
+   */
+  static boolean isConnectivityFailure(Throwable e) {
+    for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+      if (cause instanceof SocketTimeoutException || cause instanceof SocketException
+          || cause instanceof UnknownHostException) {
+        return true;
+      }
+      if (cause.getCause() == cause) {
+        break;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * @param httpUrl The HTTP or WebDAV URL of a request.
+   *
+   * @return The server id.
+   */
+  static String getServerId(URL httpUrl) {
+    String url = httpUrl.toExternalForm();
+    if (!url.startsWith(WebdavURLHandlerExtension.WEBDAV)) {
+      url = WebdavURLHandlerExtension.WEBDAV + url;
+    }
+    return WebdavUrlStreamHandler.computeServerId(url);
+  }
+
+  /**
+   * @param key The translation key.
+   *
+   * @return The translated message.
+   */
+  private static String getMessage(String key) {
+    PluginResourceBundle rb = ((WebappPluginWorkspace)PluginWorkspaceProvider.getPluginWorkspace()).getResourceBundle();
+    return rb.getMessage(key);
+  }
+}
@@ -0,0 +1,23 @@
+package com.oxygenxml.examples.webdav;
+
+import java.io.IOException;
+
+/**
+ * Thrown when a request is not sent because the server is failing or too busy.
+ */
+class ServerUnavailableException extends IOException {
+
+  /**
+   * Serial version UID.
+   */
+  private static final long serialVersionUID = 1L;
+
+  /**
+   * Constructor.
+   *
+   * @param message The message shown to the user.
+   */
+  ServerUnavailableException(String message) {
+    super(message);
+  }
+}
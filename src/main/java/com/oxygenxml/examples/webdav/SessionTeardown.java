@@ -0,0 +1,125 @@
+package com.oxygenxml.examples.webdav;
+
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import lombok.extern.slf4j.Slf4j;
+import ro.sync.exml.plugin.lock.LockException;
+
+/**
+ * Releases the resources held by a session when the user logs out.
+ */
+@Slf4j
+final class SessionTeardown {
+
+  /**
+   * The maximum number of concurrent unlock requests for a server.
+   */
+  private static final int MAX_CONCURRENT_UNLOCKS_PER_SERVER = 4;
+
+  /**
+   * Private constructor.
+   */
+  private SessionTeardown() {
+  }
+
+  /**
+   * Releases the locks held by the session and forgets its credentials and the state kept for it.
+   *
+   * The locks are released in background, in parallel, with a bounded number of concurrent requests
+   * for each server. The credentials are forgotten after all the unlock requests completed.
+   *
+   * @param sessionId The session id.
+   */
+  static void teardown(final String sessionId) {
+    final long start = System.nanoTime();
+    // The cached responses are keyed by the principal, computed from the credentials still known here.
+    FolderListingCache.invalidateSession(sessionId);
+    UrlInfoCache.invalidateSession(sessionId);
+    SaveDeduplicator.invalidateSession(sessionId);
+    SaveCoalescer.invalidateSession(sessionId);
+    WebdavFolderListing.closeSession(sessionId);
+
+    final WebdavLockHandler lockHandler = new WebdavLockHandler();
+    final AtomicInteger releasedCount = new AtomicInteger();
+    final AtomicInteger failedCount = new AtomicInteger();
+
+    final List<Callable<Void>> unlockers = new ArrayList<>();
+    List<CompletableFuture<Void>> unlocks = new ArrayList<>();
+    final Map<String, List<URL>> heldLocks = LockRefreshScheduler.releasedAll(sessionId);
+    for (List<URL> serverLocks : heldLocks.values()) {
+      final Queue<URL> pendingLocks = new ConcurrentLinkedQueue<>(serverLocks);
+      Callable<Void> unlocker = () -> {
+        URL url;
+        while ((url = pendingLocks.poll()) != null) {
+          try {
+            lockHandler.unlock(sessionId, url);
+            releasedCount.incrementAndGet();
+          } catch (LockException e) {
+            failedCount.incrementAndGet();
+            log.debug(e.getMessage(), e);
+          }
+        }
+        return null;
+      };
+      unlockers.add(unlocker);
+      int workers = Math.min(MAX_CONCURRENT_UNLOCKS_PER_SERVER, serverLocks.size());
+      for (int i = 0; i < workers; i++) {
+        unlocks.add(WebdavExecutors.callAsync(unlocker));
+      }
+    }
+
+    CompletableFuture.allOf(unlocks.toArray(new CompletableFuture[0]))
+      .handle((result, e) -> e)
+      .thenCompose(e -> {
+        if (e == null) {
+          return CompletableFuture.<Void>completedFuture(null);
+        }
+        // The executor is saturated, release the remaining locks in a thread of their own.
+        log.debug(e.getMessage(), e);
+        return CompletableFuture.runAsync(() -> runAll(unlockers), SessionTeardown::startThread);
+      })
+      .whenComplete((result, e) -> {
+        // The credentials are needed to release the locks, so they are forgotten last.
+        CredentialsStore.invalidate(sessionId);
+        if (!heldLocks.isEmpty()) {
+          log.info("Session teardown released " + releasedCount + " locks (" + failedCount + " failed) in "
+              + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) + " ms");
+        }
+      });
+  }
+
+  /**
+   * Runs the unlockers one after the other.
+   *
+   * @param unlockers The unlockers.
+   */
+  private static void runAll(List<Callable<Void>> unlockers) {
+    for (Callable<Void> unlocker : unlockers) {
+      try {
+        unlocker.call();
+      } catch (Exception e) {
+        log.debug(e.getMessage(), e);
+      }
+    }
+  }
+
+  /**
+   * Runs a task in a new daemon thread.
+   *
+   * @param task The task.
+   */
+  private static void startThread(Runnable task) {
+    Thread thread = new Thread(task, "webdav-session-teardown");
+    thread.setDaemon(true);
+    thread.start();
+  }
+}
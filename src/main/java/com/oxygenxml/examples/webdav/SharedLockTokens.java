@@ -0,0 +1,324 @@
+package com.oxygenxml.examples.webdav;
+
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import ro.sync.basic.util.URLUtil;
+import ro.sync.exml.plugin.lock.LockException;
+import ro.sync.net.protocol.http.WebdavLockHelper;
+
+/**
+ * Publishes the lock tokens of this node in the {@link SharedStore}, so that the other nodes
+ * of the cluster can save, refresh and release the locked resources.
+ */
+final class SharedLockTokens {
+
+  /**
+   * The prefix of the keys of the lock tokens in the shared store.
+   */
+  private static final String SHARED_LOCK_PREFIX = "webdav.lock|";
+
+  /**
+   * The header that carries the lock token.
+   */
+  private static final String IF_HEADER = "If";
+
+  /**
+   * Matches the lock token in an If header.
+   */
+  private static final Pattern LOCK_TOKEN_PATTERN = Pattern.compile("\\(\\s*<([^>]+)>");
+
+  /**
+   * The status code of the responses that reject a request because of a lock.
+   */
+  private static final int LOCKED = 423;
+
+  /**
+   * Thrown when the server rejects a lock token, because the lock expired or was released.
+   */
+  static final class TokenRejectedException extends LockException {
+    /**
+     * Version for serialization.
+     */
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Constructor.
+     *
+     * @param message The error message.
+     */
+    TokenRejectedException(String message) {
+      super(message);
+    }
+  }
+
+  /**
+   * Connection that is never opened, used to find out the header added by {@link WebdavLockHelper}.
+   */
+  private static final class LockHeaderCapture extends HttpURLConnection {
+    /**
+     * The value of the If header.
+     */
+    private String ifHeader;
+
+    /**
+     * Constructor.
+     *
+     * @param url The URL of the locked resource.
+     */
+    LockHeaderCapture(URL url) {
+      super(url);
+    }
+
+    @Override
+    public void setRequestProperty(String key, String value) {
+      if (IF_HEADER.equalsIgnoreCase(key)) {
+        ifHeader = value;
+      }
+    }
+
+    @Override
+    public void addRequestProperty(String key, String value) {
+      setRequestProperty(key, value);
+    }
+
+    @Override
+    public void connect() {
+      // Never connected.
+    }
+
+    @Override
+    public void disconnect() {
+      // Never connected.
+    }
+
+    @Override
+    public boolean usingProxy() {
+      return false;
+    }
+  }
+
+  /**
+   * Private constructor.
+   */
+  private SharedLockTokens() {
+  }
+
+  /**
+   * Publishes the lock token held for a resource.
+   *
+   * @param contextId The context id.
+   * @param url The WebDAV URL of the resource.
+   * @param lockHelper The helper that holds the lock token.
+   */
+  static void publish(String contextId, URL url, WebdavLockHelper lockHelper) {
+    SharedStore sharedStore = SharedStores.getStore();
+    if (sharedStore == null) {
+      return;
+    }
+    LockHeaderCapture capture = new LockHeaderCapture(WebdavUrlStreamHandler.getRequestUrl(contextId, url));
+    lockHelper.addLockHeader(contextId, capture);
+    if (capture.ifHeader != null) {
+      publish(sharedStore, contextId, url, capture.ifHeader);
+    }
+  }
+
+  /**
+   * Publishes the If header that carries the lock token of a resource.
+   *
+   * @param sharedStore The shared store.
+   * @param contextId The context id.
+   * @param url The WebDAV URL of the resource.
+   * @param ifHeader The If header.
+   */
+  static void publish(SharedStore sharedStore, String contextId, URL url, String ifHeader) {
+    sharedStore.put(getKey(contextId, url), ifHeader);
+  }
+
+  /**
+   * Removes the published lock token of a resource.
+   *
+   * @param contextId The context id.
+   * @param url The WebDAV URL of the resource.
+   */
+  static void unpublish(String contextId, URL url) {
+    SharedStore sharedStore = SharedStores.getStore();
+    if (sharedStore != null) {
+      sharedStore.remove(getKey(contextId, url));
+    }
+  }
+
+  /**
+   * Adds the lock token published by another node, if this node does not know the lock.
+   *
+   * @param contextId The context id.
+   * @param connection The connection to the resource, not yet connected.
+   */
+  static void addLockHeader(String contextId, HttpURLConnection connection) {
+    SharedStore sharedStore = SharedStores.getStore();
+    if (sharedStore == null || connection.getRequestProperty(IF_HEADER) != null) {
+      return;
+    }
+    String ifHeader = sharedStore.get(getKey(contextId, connection.getURL()));
+    if (ifHeader != null) {
+      connection.setRequestProperty(IF_HEADER, ifHeader);
+    }
+  }
+
+  /**
+   * Returns the lock token published by another node for a resource that this node did not lock.
+   *
+   * @param contextId The context id.
+   * @param url The WebDAV URL of the resource.
+   * @param lockHelper The helper that holds the lock tokens of this node.
+   *
+   * @return The If header that carries the lock token, <code>null</code> if this node knows the lock
+   * or no lock token is published.
+   */
+  static String getForeignIfHeader(String contextId, URL url, WebdavLockHelper lockHelper) {
+    SharedStore sharedStore = SharedStores.getStore();
+    if (sharedStore == null) {
+      return null;
+    }
+    String ifHeader = sharedStore.get(getKey(contextId, url));
+    if (ifHeader == null) {
+      return null;
+    }
+    LockHeaderCapture capture = new LockHeaderCapture(WebdavUrlStreamHandler.getRequestUrl(contextId, url));
+    lockHelper.addLockHeader(contextId, capture);
+    return capture.ifHeader == null ? ifHeader : null;
+  }
+
+  /**
+   * Refreshes a lock obtained by another node.
+   *
+   * @param httpUrl The HTTP URL of the resource.
+   * @param ifHeader The If header that carries the lock token.
+   * @param timeoutSeconds The lock timeout.
+   * @param headerKeys The names of the other headers of the request.
+   * @param headerValues The values of the other headers of the request.
+   *
+   * @throws LockException If the lock could not be refreshed.
+   */
+  static void refresh(URL httpUrl, String ifHeader, int timeoutSeconds,
+      List<String> headerKeys, List<String> headerValues) throws LockException {
+    HttpURLConnection connection = openConnection(httpUrl, "LOCK", headerKeys, headerValues);
+    connection.setRequestProperty(IF_HEADER, ifHeader);
+    connection.setRequestProperty("Timeout", "Second-" + timeoutSeconds);
+    send(connection);
+  }
+
+  /**
+   * Releases a lock obtained by another node.
+   *
+   * @param httpUrl The HTTP URL of the resource.
+   * @param ifHeader The If header that carries the lock token.
+   * @param headerKeys The names of the other headers of the request.
+   * @param headerValues The values of the other headers of the request.
+   *
+   * @throws LockException If the lock could not be released.
+   */
+  static void unlock(URL httpUrl, String ifHeader, List<String> headerKeys, List<String> headerValues)
+      throws LockException {
+    String lockToken = getLockToken(ifHeader);
+    if (lockToken == null) {
+      throw new LockException("Invalid lock token: " + ifHeader);
+    }
+    HttpURLConnection connection = openConnection(httpUrl, "UNLOCK", headerKeys, headerValues);
+    connection.setRequestProperty("Lock-Token", "<" + lockToken + ">");
+    send(connection);
+  }
+
+  /**
+   * @param ifHeader An If header.
+   *
+   * @return The first lock token of the header, <code>null</code> if there is none.
+   */
+  static String getLockToken(String ifHeader) {
+    Matcher matcher = LOCK_TOKEN_PATTERN.matcher(ifHeader);
+    return matcher.find() ? matcher.group(1) : null;
+  }
+
+  /**
+   * Opens the connection of a lock request.
+   *
+   * @param httpUrl The HTTP URL of the resource.
+   * @param method The method of the request.
+   * @param headerKeys The names of the headers of the request.
+   * @param headerValues The values of the headers of the request.
+   *
+   * @return The connection, not yet connected.
+   *
+   * @throws LockException If the connection cannot be opened.
+   */
+  private static HttpURLConnection openConnection(URL httpUrl, String method,
+      List<String> headerKeys, List<String> headerValues) throws LockException {
+    try {
+      HttpURLConnection connection = (HttpURLConnection) WebdavUrlStreamHandler.getTransport().openConnection(httpUrl);
+      WebdavServerSettings settings = WebdavServerSettings.get(httpUrl);
+      connection.setConnectTimeout(settings.getConnectTimeoutMillis());
+      connection.setReadTimeout(settings.getReadTimeoutMillis());
+      connection.setRequestMethod(method);
+      for (int i = 0; i < headerKeys.size(); i++) {
+        connection.setRequestProperty(headerKeys.get(i), headerValues.get(i));
+      }
+      return connection;
+    } catch (IOException e) {
+      throw toLockException(e);
+    }
+  }
+
+  /**
+   * Sends a lock request.
+   *
+   * @param connection The connection of the request.
+   *
+   * @throws LockException If the server rejected the request, a {@link TokenRejectedException} 
+   * if it rejected the lock token.
+   */
+  private static void send(HttpURLConnection connection) throws LockException {
+    try {
+      int responseCode = connection.getResponseCode();
+      if (responseCode >= 300) {
+        connection.disconnect();
+        String message = connection.getRequestMethod() + " failed with HTTP " + responseCode;
+        if (responseCode == HttpURLConnection.HTTP_PRECON_FAILED || responseCode == LOCKED) {
+          throw new TokenRejectedException(message);
+        }
+        throw new LockException(message);
+      }
+      WebdavUrlStreamHandler.getTransport().release(connection);
+    } catch (IOException e) {
+      throw toLockException(e);
+    }
+  }
+
+  /**
+   * @param e The failure of a lock request.
+   *
+   * @return The lock exception, caused by the failure.
+   */
+  private static LockException toLockException(IOException e) {
+    LockException lockException = new LockException(e.getMessage());
+    lockException.initCause(e);
+    return lockException;
+  }
+
+  /**
+   * @param contextId The context id.
+   * @param url The WebDAV or HTTP URL of the resource.
+   *
+   * @return The key of the lock token in the shared store.
+   */
+  private static String getKey(String contextId, URL url) {
+    String urlString = URLUtil.clearUserInfo(url).toExternalForm();
+    if (urlString.startsWith(WebdavURLHandlerExtension.WEBDAV)) {
+      urlString = urlString.substring(WebdavURLHandlerExtension.WEBDAV.length());
+    }
+    return SHARED_LOCK_PREFIX + contextId + "|" + urlString;
+  }
+}
@@ -0,0 +1,67 @@
+package com.oxygenxml.examples.webdav;
+
+import java.util.function.Predicate;
+
+/**
+ * Store shared by the nodes of a cluster, used to keep the credentials and the lock tokens 
+ * of the users available when a request is served by a different node.
+ * 
+ * Implementations are expected to answer reads from memory as much as possible and 
+ * to notify the listeners when an entry is changed by any node. Failures should be logged
+ * and treated as missing entries.
+ */
+public interface SharedStore {
+  
+  /**
+   * Listener notified when an entry changes.
+   */
+  interface ChangeListener {
+    /**
+     * Called when an entry was changed or removed.
+     * 
+     * @param key The key of the entry.
+     */
+    void changed(String key);
+  }
+  
+  /**
+   * @param key The key.
+   * @return The value, or <code>null</code> if there is none.
+   */
+  String get(String key);
+  
+  /**
+   * Stores a value.
+   * 
+   * @param key The key.
+   * @param value The value.
+   */
+  void put(String key, String value);
+  
+  /**
+   * Removes a value.
+   * 
+   * @param key The key.
+   */
+  void remove(String key);
+  
+  /**
+   * Removes all the values whose key starts with the given prefix.
+   * 
+   * @param keyPrefix The prefix.
+   */
+  void removeAll(String keyPrefix);
+  
+  /**
+   * Removes the values whose key starts with the given prefix and that match a filter.
+   * 
+   * @param keyPrefix The prefix.
+   * @param valueFilter Returns <code>true</code> for the values to remove.
+   */
+  void removeIf(String keyPrefix, Predicate<String> valueFilter);
+  
+  /**
+   * @param listener Listener notified when an entry changes.
+   */
+  void addChangeListener(ChangeListener listener);
+}
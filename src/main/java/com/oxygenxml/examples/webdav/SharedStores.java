@@ -0,0 +1,76 @@
+package com.oxygenxml.examples.webdav;
+
+import java.io.IOException;
+import java.nio.file.InvalidPathException;
+import java.nio.file.Paths;
+
+import lombok.extern.slf4j.Slf4j;
+import ro.sync.exml.workspace.api.PluginWorkspaceProvider;
+import ro.sync.exml.workspace.api.options.WSOptionsStorage;
+
+/**
+ * Provides the {@link SharedStore} used by the plugin.
+ */
+@Slf4j
+public final class SharedStores {
+
+  /**
+   * The store shared by the nodes of the cluster.
+   */
+  private static volatile SharedStore store;
+
+  /**
+   * <code>true</code> after the store was configured.
+   */
+  private static volatile boolean configured;
+
+  /**
+   * Private constructor.
+   */
+  private SharedStores() {
+  }
+
+  /**
+   * @return The store shared by the nodes of the cluster, or <code>null</code> if none is configured.
+   */
+  static SharedStore getStore() {
+    if (!configured) {
+      synchronized (SharedStores.class) {
+        if (!configured) {
+          store = createConfiguredStore();
+          configured = true;
+        }
+      }
+    }
+    return store;
+  }
+
+  /**
+   * Sets the store shared by the nodes of the cluster.
+   *
+   * @param sharedStore The store, <code>null</code> to keep the credentials and lock tokens only on this node.
+   */
+  public static void setStore(SharedStore sharedStore) {
+    synchronized (SharedStores.class) {
+      store = sharedStore;
+      configured = true;
+    }
+  }
+
+  /**
+   * @return The store in the folder set in the plugin options, or <code>null</code> if none is set.
+   */
+  private static SharedStore createConfiguredStore() {
+    WSOptionsStorage optionsStorage = PluginWorkspaceProvider.getPluginWorkspace().getOptionsStorage();
+    String folder = optionsStorage.getOption(WebdavPluginConfigExtension.SHARED_STORE_FOLDER, "");
+    if (folder == null || folder.trim().isEmpty()) {
+      return null;
+    }
+    try {
+      return new FileSharedStore(Paths.get(folder.trim()));
+    } catch (IOException | InvalidPathException e) {
+      log.warn("Could not use the shared store folder " + folder + ": " + e.getMessage());
+      return null;
+    }
+  }
+}
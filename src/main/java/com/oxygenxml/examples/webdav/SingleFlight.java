@@ -0,0 +1,179 @@
+package com.oxygenxml.examples.webdav;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Lets identical requests made at the same time share the result of a single request.
+ *
+ * The first caller for a key becomes the leader and makes the request, the others wait for its
+ * result. If the leader cannot share its result, the waiters make their own requests. The leader
+ * can check whether anybody waits for it before preparing a result to share.
+ *
+ * @param <T> The type of the shared result.
+ */
+final class SingleFlight<T> {
+
+  /**
+   * The number of seconds a waiter waits for the leader before making its own request.
+   */
+  private static final int WAIT_TIMEOUT = 60;
+
+  /**
+   * A call for a key.
+   *
+   * @param <T> The type of the shared result.
+   */
+  static final class Call<T> {
+    /**
+     * The key of the call.
+     */
+    private final String key;
+    /**
+     * The result of the leader, <code>null</code> if it cannot be shared.
+     */
+    private final CompletableFuture<T> result;
+    /**
+     * The number of callers waiting for the result of the leader.
+     */
+    private final AtomicInteger waiterCount;
+    /**
+     * <code>true</code> if this caller should make the request.
+     */
+    private final boolean leader;
+
+    /**
+     * Constructor.
+     *
+     * @param key The key of the call.
+     * @param flight The request in flight.
+     * @param leader <code>true</code> if this caller should make the request.
+     */
+    private Call(String key, Flight<T> flight, boolean leader) {
+      this.key = key;
+      this.result = flight.result;
+      this.waiterCount = flight.waiterCount;
+      this.leader = leader;
+    }
+
+    /**
+     * @return <code>true</code> if this caller should make the request and share its result.
+     */
+    boolean isLeader() {
+      return leader;
+    }
+  }
+
+  /**
+   * A request in flight.
+   *
+   * @param <T> The type of the shared result.
+   */
+  private static final class Flight<T> {
+    /**
+     * The result of the leader.
+     */
+    private final CompletableFuture<T> result = new CompletableFuture<>();
+    /**
+     * The number of callers waiting for the result.
+     */
+    private final AtomicInteger waiterCount = new AtomicInteger();
+  }
+
+  /**
+   * The requests in flight, keyed by request.
+   */
+  private final ConcurrentMap<String, Flight<T>> inFlight = new ConcurrentHashMap<>();
+
+  /**
+   * The number of requests made.
+   */
+  private final AtomicLong leaderCount = new AtomicLong();
+
+  /**
+   * The number of requests answered with the result of another request.
+   */
+  private final AtomicLong coalescedCount = new AtomicLong();
+
+  /**
+   * Joins the request in flight for a key, or starts a new one.
+   *
+   * @param key The key of the request. It should identify the request and the credentials used.
+   *
+   * @return The call.
+   */
+  Call<T> join(String key) {
+    Flight<T> newFlight = new Flight<>();
+    Flight<T> existingFlight = inFlight.putIfAbsent(key, newFlight);
+    if (existingFlight != null) {
+      existingFlight.waiterCount.incrementAndGet();
+      return new Call<>(key, existingFlight, false);
+    }
+    leaderCount.incrementAndGet();
+    return new Call<>(key, newFlight, true);
+  }
+
+  /**
+   * @param call The call of the leader.
+   *
+   * @return <code>true</code> if other callers joined the call so far.
+   */
+  boolean hasWaiters(Call<T> call) {
+    return call.waiterCount.get() > 0;
+  }
+
+  /**
+   * Publishes the result of the leader. Subsequent callers will make a new request.
+   *
+   * @param call The call of the leader.
+   * @param result The result, <code>null</code> if it cannot be shared.
+   */
+  void complete(Call<T> call, T result) {
+    if (call.leader) {
+      inFlight.computeIfPresent(call.key, (key, flight) -> flight.result == call.result ? null : flight);
+      call.result.complete(result);
+    }
+  }
+
+  /**
+   * Waits for the result of the leader.
+   *
+   * @param call The call of a waiter.
+   *
+   * @return The result, or <code>null</code> if the waiter should make its own request.
+   */
+  T await(Call<T> call) {
+    try {
+      T result = call.result.get(WAIT_TIMEOUT, TimeUnit.SECONDS);
+      if (result != null) {
+        coalescedCount.incrementAndGet();
+      }
+      return result;
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return null;
+    } catch (ExecutionException | TimeoutException e) {
+      return null;
+    }
+  }
+
+  /**
+   * @return The number of requests made by leaders.
+   */
+  long getLeaderCount() {
+    return leaderCount.get();
+  }
+
+  /**
+   * @return The number of requests answered with the result of another request.
+   */
+  long getCoalescedCount() {
+    return coalescedCount.get();
+  }
+}
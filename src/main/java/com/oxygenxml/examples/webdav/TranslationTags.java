@@ -55,4 +55,82 @@ public interface TranslationTags {
    * en: Anonymous
    */
   String ANONYMOUS = "Anonymous";
+  
+  /**
+   * Label for checkbox. Used in WebDAV plugin configuration.
+   * 
+   * en: Send credentials with every request
+   */
+  String SEND_CREDENTIALS_PREEMPTIVELY = "Send_credentials_preemptively";
+  
+  /**
+   * Label for input. Used in WebDAV plugin configuration.
+   * 
+   * en: Disk cache size
+   */
+  String DISK_CACHE_SIZE = "Disk_cache_size";
+  
+  /**
+   * Label for input. Used in WebDAV plugin configuration.
+   * 
+   * en: Folder shared by the cluster nodes
+   */
+  String SHARED_STORE_FOLDER = "Shared_store_folder";
+  
+  /**
+   * Label for checkbox. Used in WebDAV plugin configuration.
+   * 
+   * en: Send only the latest content when saves overlap
+   */
+  String COALESCE_OVERLAPPING_SAVES = "Coalesce_overlapping_saves";
+  
+  /**
+   * Label for checkbox. Used in WebDAV plugin configuration.
+   * 
+   * en: Adapt the auto-save interval to the server response time
+   */
+  String ADAPT_AUTOSAVE_INTERVAL = "Adapt_autosave_interval";
+  
+  /**
+   * Label for input. Used in WebDAV plugin configuration.
+   * 
+   * en: Minimum auto-save interval
+   */
+  String MIN_AUTOSAVE_INTERVAL = "Min_autosave_interval";
+  
+  /**
+   * Label for input. Used in WebDAV plugin configuration.
+   * 
+   * en: Maximum auto-save interval
+   */
+  String MAX_AUTOSAVE_INTERVAL = "Max_autosave_interval";
+  
+  /**
+   * Label for text area. Used in WebDAV plugin configuration.
+   * 
+   * en: Server settings
+   */
+  String SERVER_SETTINGS = "Server_settings";
+  
+  /**
+   * Explains the 'Server settings' text area. Used in WebDAV plugin configuration.
+   * 
+   * en: One server per line: the server URL followed by settings such as compress-responses=off 
+   * or compress-uploads=on.
+   */
+  String SERVER_SETTINGS_NOTE = "Server_settings_note";
+  
+  /**
+   * Error shown when the requests to a failing server are suspended.
+   * 
+   * en: The WebDAV server is not responding. Please try again in a few moments.
+   */
+  String SERVER_NOT_RESPONDING = "Server_not_responding";
+  
+  /**
+   * Error shown when too many requests are in progress for a server.
+   * 
+   * en: The WebDAV server is too busy. Please try again in a few moments.
+   */
+  String SERVER_TOO_BUSY = "Server_too_busy";
 }
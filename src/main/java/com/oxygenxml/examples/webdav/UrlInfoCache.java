@@ -0,0 +1,230 @@
+package com.oxygenxml.examples.webdav;
+
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+import com.oxygenxml.examples.webdav.WebdavUrlInfo.ResourceType;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Short-lived cache of the information computed by the "webdav-url-info" servlet, 
+ * keyed by server id and path.
+ * 
+ * The information is served only to the sessions that use the same credentials as 
+ * the one that obtained it, since it tells whether a resource exists.
+ */
+@Slf4j
+final class UrlInfoCache {
+  
+  /**
+   * The number of seconds for which the information about a WebDAV resource is cached.
+   */
+  private static final int TTL_SECONDS = 30;
+  
+  /**
+   * The number of seconds for which we remember that a resource is not served by WebDAV.
+   */
+  private static final int NEGATIVE_TTL_SECONDS = 10;
+  
+  /**
+   * The cached information, keyed by server id and path, then by principal.
+   */
+  private static final Cache<String, Map<String, UrlInfo>> infos = CacheBuilder.newBuilder()
+      .maximumSize(10000)
+      .expireAfterWrite(TTL_SECONDS, TimeUnit.SECONDS)
+      .build();
+  
+  /**
+   * The keys of the members of each collection that are cached or have cached members, keyed by 
+   * the key of the collection. 
+   * 
+   * A collection is accessed each time information about one of its descendants is cached, so it 
+   * expires only after all the information about its descendants expired.
+   */
+  private static final Cache<String, Set<String>> members = CacheBuilder.newBuilder()
+      .maximumSize(10000)
+      .expireAfterAccess(TTL_SECONDS, TimeUnit.SECONDS)
+      .build();
+  
+  /**
+   * The number of requests answered from the cache.
+   */
+  private static final AtomicLong servedCount = new AtomicLong();
+  
+  /**
+   * Information about an URL.
+   */
+  static final class UrlInfo {
+    /**
+     * The type of the resource.
+     */
+    final ResourceType type;
+    /**
+     * The root URL of the server, without credentials.
+     */
+    final String rootUrl;
+    /**
+     * The time when the information expires, as reported by {@link System#nanoTime()}.
+     */
+    final long expiresAt;
+    
+    /**
+     * Constructor.
+     * 
+     * @param type The type of the resource.
+     * @param rootUrl The root URL of the server, without credentials.
+     */
+    UrlInfo(ResourceType type, String rootUrl) {
+      this.type = type;
+      this.rootUrl = rootUrl;
+      int ttl = type == ResourceType.NON_WEBDAV ? NEGATIVE_TTL_SECONDS : TTL_SECONDS;
+      this.expiresAt = System.nanoTime() + TimeUnit.SECONDS.toNanos(ttl);
+    }
+  }
+  
+  /**
+   * Private constructor.
+   */
+  private UrlInfoCache() {
+  }
+  
+  /**
+   * Returns the cached information about an URL.
+   * 
+   * @param sessionId The session id.
+   * @param webdavUrl The WebDAV URL.
+   * 
+   * @return The information or <code>null</code> if it is not cached or the session 
+   * should not see it.
+   */
+  static UrlInfo get(String sessionId, URL webdavUrl) {
+    String serverId = WebdavUrlStreamHandler.computeServerId(webdavUrl.toExternalForm());
+    Map<String, UrlInfo> resourceInfos = infos.getIfPresent(getKey(serverId, webdavUrl));
+    String principal = resourceInfos != null ? getPrincipal(sessionId, webdavUrl) : null;
+    UrlInfo info = principal != null ? resourceInfos.get(principal) : null;
+    if (info == null || System.nanoTime() - info.expiresAt > 0) {
+      return null;
+    }
+    servedCount.incrementAndGet();
+    return info;
+  }
+  
+  /**
+   * Caches the information about an URL.
+   * 
+   * @param sessionId The session id used to obtain the information.
+   * @param webdavUrl The WebDAV URL.
+   * @param type The type of the resource.
+   * @param rootUrl The root URL of the server, without credentials.
+   */
+  static void put(String sessionId, URL webdavUrl, ResourceType type, String rootUrl) {
+    String principal = getPrincipal(sessionId, webdavUrl);
+    if (principal == null) {
+      return;
+    }
+    String serverId = WebdavUrlStreamHandler.computeServerId(webdavUrl.toExternalForm());
+    String key = getKey(serverId, webdavUrl);
+    try {
+      infos.get(key, ConcurrentHashMap::new).put(principal, new UrlInfo(type, rootUrl));
+      // Index the key under each of its ancestors.
+      String memberKey = key;
+      for (int slash = key.lastIndexOf('/'); slash != -1; slash = key.lastIndexOf('/', slash - 1)) {
+        String collectionKey = key.substring(0, slash);
+        members.get(collectionKey, ConcurrentHashMap::newKeySet).add(memberKey);
+        memberKey = collectionKey;
+      }
+    } catch (ExecutionException e) {
+      log.debug(e.getMessage(), e);
+    }
+  }
+  
+  /**
+   * Removes the information about a resource that we changed, created, moved or deleted, 
+   * and about its members if it is a collection.
+   * 
+   * @param httpUrl The HTTP URL of the resource.
+   */
+  static void invalidate(URL httpUrl) {
+    String serverId = WebdavUrlStreamHandler.computeServerId(
+        WebdavURLHandlerExtension.WEBDAV + httpUrl.toExternalForm());
+    Deque<String> keys = new ArrayDeque<>();
+    keys.push(getKey(serverId, httpUrl));
+    while (!keys.isEmpty()) {
+      String key = keys.pop();
+      infos.invalidate(key);
+      Set<String> memberKeys = members.getIfPresent(key);
+      if (memberKeys != null) {
+        members.invalidate(key);
+        keys.addAll(memberKeys);
+      }
+    }
+  }
+  
+  /**
+   * Removes the information obtained with the credentials of a session that logs out.
+   * 
+   * @param sessionId The session id, while its credentials are still known.
+   */
+  static void invalidateSession(String sessionId) {
+    Map<String, String> principals = new HashMap<>();
+    for (Map.Entry<String, Map<String, UrlInfo>> entry : infos.asMap().entrySet()) {
+      String key = entry.getKey();
+      String serverId = key.indexOf('/') != -1 ? key.substring(0, key.indexOf('/')) : key;
+      String principal = principals.computeIfAbsent(serverId,
+          id -> WebdavUrlStreamHandler.computeStoredPrincipal(sessionId, id));
+      if (!principal.isEmpty()) {
+        entry.getValue().remove(principal);
+      }
+    }
+  }
+  
+  /**
+   * @return The number of requests answered from the cache.
+   */
+  static long getHitCount() {
+    return servedCount.get();
+  }
+  
+  /**
+   * @param sessionId The session id.
+   * @param webdavUrl The WebDAV URL.
+   * 
+   * @return The principal on behalf of which the session accesses the URL, <code>null</code> 
+   * if the URL is invalid.
+   */
+  private static String getPrincipal(String sessionId, URL webdavUrl) {
+    try {
+      URL httpUrl = new URL(webdavUrl.toExternalForm().substring(WebdavURLHandlerExtension.WEBDAV.length()));
+      return WebdavUrlStreamHandler.computePrincipal(sessionId, httpUrl);
+    } catch (MalformedURLException e) {
+      log.debug(e.getMessage(), e);
+      return null;
+    }
+  }
+  
+  /**
+   * @param serverId The server id.
+   * @param url The URL.
+   * @return The cache key.
+   */
+  private static String getKey(String serverId, URL url) {
+    String file = url.getFile();
+    if (file.endsWith("/")) {
+      file = file.substring(0, file.length() - 1);
+    }
+    return serverId + file;
+  }
+}
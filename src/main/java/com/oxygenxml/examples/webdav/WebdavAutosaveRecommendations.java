@@ -0,0 +1,31 @@
+package com.oxygenxml.examples.webdav;
+
+import java.io.IOException;
+
+import ro.sync.ecss.extensions.api.webapp.plugin.ServletPluginExtension;
+import ro.sync.ecss.extensions.api.webapp.plugin.servlet.ServletException;
+import ro.sync.ecss.extensions.api.webapp.plugin.servlet.http.HttpServletRequest;
+import ro.sync.ecss.extensions.api.webapp.plugin.servlet.http.HttpServletResponse;
+
+/**
+ * Servlet that returns the current auto-save intervals recommended for each server,
+ * so that the editors that stay open adapt to the changes of the server latency.
+ */
+public class WebdavAutosaveRecommendations extends ServletPluginExtension {
+
+  /**
+   * Writes the recommended intervals as a JSON object keyed by <code>protocol://host[:port]</code>.
+   */
+  @Override
+  public void doGet(HttpServletRequest req, HttpServletResponse resp) throws ServletException, IOException {
+    resp.setContentType("application/json");
+    resp.setHeader("Cache-Control", "no-cache");
+    WebdavUrlInfo.objectMapper.writeValue(resp.getOutputStream(),
+        WebdavPluginConfigExtension.getAutosaveRecommendations());
+  }
+
+  @Override
+  public String getPath() {
+    return "webdav-autosave-recommendations";
+  }
+}
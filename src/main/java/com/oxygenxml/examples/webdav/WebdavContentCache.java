@@ -0,0 +1,425 @@
+package com.oxygenxml.examples.webdav;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URL;
+import java.net.URLConnection;
+import java.nio.file.Files;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.io.IOUtils;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import com.google.common.cache.RemovalListener;
+
+import lombok.extern.slf4j.Slf4j;
+import ro.sync.basic.util.URLUtil;
+import ro.sync.exml.workspace.api.PluginWorkspaceProvider;
+
+/**
+ * Cache of the resources downloaded from the WebDAV servers, shared by all users.
+ * 
+ * The cached bodies are never served without asking the server: each request is 
+ * made with the credentials of the current user and with the If-None-Match and 
+ * If-Modified-Since headers, and the body is served from the cache only if the 
+ * server answers with 304 Not Modified.
+ * 
+ * Small bodies are kept in memory. Large bodies are spilled to files in a local 
+ * cache folder whose total size is bounded; the least recently used files are 
+ * deleted when the budget is exceeded.
+ */
+@Slf4j
+final class WebdavContentCache {
+  
+  /**
+   * The maximum number of bytes held in memory by the cache.
+   */
+  private static final long MAX_MEMORY_BYTES = 64L * 1024 * 1024;
+  
+  /**
+   * The maximum size of a resource stored in memory.
+   */
+  private static final int MAX_MEMORY_ENTRY_BYTES = 4 * 1024 * 1024;
+  
+  /**
+   * The maximum number of bytes stored on disk by the cache.
+   */
+  private static final long MAX_DISK_BYTES = WebdavPluginConfigExtension.getIntOption(
+      PluginWorkspaceProvider.getPluginWorkspace().getOptionsStorage(),
+      WebdavPluginConfigExtension.DISK_CACHE_SIZE, 
+      WebdavPluginConfigExtension.DEFAULT_DISK_CACHE_SIZE) * 1024L * 1024;
+  
+  /**
+   * The maximum size of a resource stored on disk.
+   */
+  private static final long MAX_DISK_ENTRY_BYTES = Math.min(MAX_DISK_BYTES / 4, Integer.MAX_VALUE);
+  
+  /**
+   * The maximum size of a cached resource.
+   */
+  private static final long MAX_ENTRY_BYTES = Math.max(MAX_MEMORY_ENTRY_BYTES, MAX_DISK_ENTRY_BYTES);
+  
+  /**
+   * The folder where the large resources are stored.
+   */
+  private static final File cacheDir = createCacheDir();
+  
+  /**
+   * The resources cached in memory, keyed by their URL without credentials.
+   */
+  private static final Cache<String, CachedResource> resources = CacheBuilder.newBuilder()
+      .maximumWeight(MAX_MEMORY_BYTES)
+      .weigher((String key, CachedResource resource) -> (int) resource.getLength())
+      .recordStats()
+      .build();
+  
+  /**
+   * The resources cached on disk, keyed by their URL without credentials.
+   */
+  private static final Cache<String, CachedResource> diskResources = CacheBuilder.newBuilder()
+      .maximumWeight(MAX_DISK_BYTES)
+      .weigher((String key, CachedResource resource) -> (int) resource.getLength())
+      .removalListener((RemovalListener<String, CachedResource>) notification -> 
+        deleteBodyFile(notification.getValue().getBodyFile()))
+      .recordStats()
+      .build();
+  
+  /**
+   * The number of downloads avoided because the server answered with 304 Not Modified.
+   */
+  private static final AtomicLong notModifiedResponses = new AtomicLong();
+  
+  /**
+   * Private constructor.
+   */
+  private WebdavContentCache() {
+  }
+  
+  /**
+   * Computes the cache key for an URL.
+   * 
+   * @param httpUrl The URL of the resource, it may contain credentials.
+   * 
+   * @return The cache key.
+   */
+  static String getKey(URL httpUrl) {
+    return URLUtil.clearUserInfo(httpUrl).toExternalForm();
+  }
+  
+  /**
+   * Returns the cached version of a resource.
+   * 
+   * @param key The cache key of the resource.
+   * 
+   * @return The cached resource or <code>null</code>.
+   */
+  static CachedResource get(String key) {
+    CachedResource resource = resources.getIfPresent(key);
+    if (resource == null) {
+      resource = diskResources.getIfPresent(key);
+    }
+    return resource;
+  }
+  
+  /**
+   * Removes a resource from the cache, for example after we changed it.
+   * 
+   * @param key The cache key of the resource.
+   */
+  static void invalidate(String key) {
+    resources.invalidate(key);
+    diskResources.invalidate(key);
+  }
+  
+  /**
+   * Records that a cached resource was served because it was not modified on the server.
+   */
+  static void recordNotModified() {
+    notModifiedResponses.incrementAndGet();
+  }
+  
+  /**
+   * Wraps the response stream of a GET request so that the body is cached once it is 
+   * entirely read.
+   * 
+   * @param key The cache key of the resource.
+   * @param connection The connection that received the response.
+   * @param responseStream The stream of the response body.
+   * 
+   * @return The stream to return to the caller.
+   */
+  static InputStream cacheWhileReading(String key, URLConnection connection, InputStream responseStream) {
+    String etag = connection.getHeaderField("ETag");
+    String lastModified = connection.getHeaderField("Last-Modified");
+    String cacheControl = connection.getHeaderField("Cache-Control");
+    boolean cacheable = (etag != null || lastModified != null) 
+        && (cacheControl == null || !cacheControl.contains("no-store"))
+        && connection.getContentLengthLong() <= MAX_ENTRY_BYTES;
+    // The cached version, if any, is obsolete.
+    invalidate(key);
+    if (!cacheable) {
+      return responseStream;
+    }
+    return new CachingInputStream(responseStream, key, etag, lastModified, connection.getContentType(),
+        connection.getContentLengthLong());
+  }
+  
+  /**
+   * @return The hit/miss statistics of the lookups in memory.
+   */
+  static CacheStats getStats() {
+    return resources.stats();
+  }
+  
+  /**
+   * @return The hit/miss statistics of the lookups on disk.
+   */
+  static CacheStats getDiskStats() {
+    return diskResources.stats();
+  }
+  
+  /**
+   * @return The number of downloads avoided because the server answered with 304 Not Modified.
+   */
+  static long getNotModifiedCount() {
+    return notModifiedResponses.get();
+  }
+  
+  /**
+   * Creates the folder where the large resources are stored.
+   * 
+   * @return The folder.
+   */
+  private static File createCacheDir() {
+    File dir = new File(System.getProperty("java.io.tmpdir"));
+    try {
+      dir = Files.createTempDirectory("webdav-content-cache").toFile();
+      dir.deleteOnExit();
+    } catch (IOException e) {
+      log.warn("Cannot create the WebDAV content cache folder", e);
+    }
+    return dir;
+  }
+  
+  /**
+   * Deletes a file that contained the body of an evicted resource.
+   * 
+   * @param bodyFile The file.
+   */
+  private static void deleteBodyFile(File bodyFile) {
+    if (bodyFile != null && !bodyFile.delete() && bodyFile.exists()) {
+      // It is still being read.
+      bodyFile.deleteOnExit();
+    }
+  }
+  
+  /**
+   * Stream that copies the bytes read from the server and caches them when the end of 
+   * the body is reached.
+   */
+  private static final class CachingInputStream extends FilterInputStream {
+    /**
+     * The cache key.
+     */
+    private final String key;
+    /**
+     * The entity tag of the resource.
+     */
+    private final String etag;
+    /**
+     * The Last-Modified header of the resource.
+     */
+    private final String lastModified;
+    /**
+     * The content type of the resource.
+     */
+    private final String contentType;
+    /**
+     * The length of the body announced by the server, -1 if unknown.
+     */
+    private final long expectedLength;
+    /**
+     * The bytes read so far, when the resource is small.
+     */
+    private ByteArrayOutputStream memoryCopy;
+    /**
+     * The file where the bytes read so far are copied, when the resource is large.
+     */
+    private File fileCopy;
+    /**
+     * The stream used to write to the file copy.
+     */
+    private OutputStream fileCopyStream;
+    /**
+     * The number of bytes copied.
+     */
+    private long copiedBytes;
+    /**
+     * <code>true</code> if we stopped copying the body.
+     */
+    private boolean copyDone;
+
+    /**
+     * Constructor.
+     * 
+     * @param in The response stream.
+     * @param key The cache key.
+     * @param etag The entity tag of the resource.
+     * @param lastModified The Last-Modified header of the resource.
+     * @param contentType The content type of the resource.
+     * @param expectedLength The length of the body announced by the server, -1 if unknown.
+     */
+    CachingInputStream(InputStream in, String key, String etag, String lastModified, String contentType, 
+        long expectedLength) {
+      super(in);
+      this.key = key;
+      this.etag = etag;
+      this.lastModified = lastModified;
+      this.contentType = contentType;
+      this.expectedLength = expectedLength;
+      if (expectedLength > MAX_MEMORY_ENTRY_BYTES) {
+        spillToDisk();
+      } else {
+        memoryCopy = new ByteArrayOutputStream();
+      }
+    }
+    
+    @Override
+    public int read() throws IOException {
+      int b = super.read();
+      if (b == -1) {
+        endOfBody();
+      } else {
+        copy(new byte[] {(byte) b}, 0, 1);
+      }
+      return b;
+    }
+    
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+      int read = super.read(b, off, len);
+      if (read == -1) {
+        endOfBody();
+      } else {
+        copy(b, off, read);
+      }
+      return read;
+    }
+    
+    @Override
+    public long skip(long n) throws IOException {
+      // The skipped bytes are not copied, so we cannot cache the body.
+      abortCopy();
+      return super.skip(n);
+    }
+    
+    @Override
+    public boolean markSupported() {
+      return false;
+    }
+    
+    @Override
+    public void close() throws IOException {
+      try {
+        super.close();
+      } finally {
+        if (copiedBytes == expectedLength) {
+          // The reader stopped right before the end of the stream.
+          endOfBody();
+        } else {
+          // If the body was not read until the end, we cannot cache it.
+          abortCopy();
+        }
+      }
+    }
+    
+    /**
+     * Copies the bytes read.
+     * 
+     * @param b The buffer.
+     * @param off The offset of the bytes read.
+     * @param len The number of bytes read.
+     */
+    private void copy(byte[] b, int off, int len) {
+      if (copyDone) {
+        return;
+      }
+      copiedBytes += len;
+      if (copiedBytes > MAX_ENTRY_BYTES) {
+        abortCopy();
+        return;
+      }
+      if (memoryCopy != null && copiedBytes > MAX_MEMORY_ENTRY_BYTES) {
+        spillToDisk();
+      }
+      if (memoryCopy != null) {
+        memoryCopy.write(b, off, len);
+      } else if (fileCopyStream != null) {
+        try {
+          fileCopyStream.write(b, off, len);
+        } catch (IOException e) {
+          log.debug("Cannot write to the content cache", e);
+          abortCopy();
+        }
+      }
+    }
+    
+    /**
+     * Moves the bytes copied so far to a file.
+     */
+    private void spillToDisk() {
+      try {
+        fileCopy = File.createTempFile("body", ".cache", cacheDir);
+        fileCopyStream = new FileOutputStream(fileCopy);
+        if (memoryCopy != null) {
+          memoryCopy.writeTo(fileCopyStream);
+          memoryCopy = null;
+        }
+      } catch (IOException e) {
+        log.debug("Cannot write to the content cache", e);
+        abortCopy();
+      }
+    }
+    
+    /**
+     * Stops copying the body and discards the copied bytes.
+     */
+    private void abortCopy() {
+      if (!copyDone) {
+        copyDone = true;
+        memoryCopy = null;
+        IOUtils.closeQuietly(fileCopyStream);
+        deleteBodyFile(fileCopy);
+      }
+    }
+    
+    /**
+     * Caches the body after it was entirely read.
+     */
+    private void endOfBody() {
+      if (copyDone) {
+        return;
+      }
+      copyDone = true;
+      if (memoryCopy != null) {
+        resources.put(key, new CachedResource(memoryCopy.toByteArray(), etag, lastModified, contentType));
+        memoryCopy = null;
+      } else if (fileCopyStream != null) {
+        try {
+          fileCopyStream.close();
+          diskResources.put(key, new CachedResource(fileCopy, etag, lastModified, contentType));
+        } catch (IOException e) {
+          log.debug("Cannot write to the content cache", e);
+          deleteBodyFile(fileCopy);
+        }
+      }
+    }
+  }
+}
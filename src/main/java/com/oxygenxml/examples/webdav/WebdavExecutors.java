@@ -0,0 +1,153 @@
+package com.oxygenxml.examples.webdav;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Thread pools shared by the plugin.
+ */
+@Slf4j
+final class WebdavExecutors {
+
+  /**
+   * The maximum number of threads that make requests to the WebDAV servers in the background.
+   */
+  private static final int MAX_IO_THREADS = 32;
+
+  /**
+   * The maximum number of virtual threads that make requests to the WebDAV servers in the background.
+   */
+  private static final int MAX_VIRTUAL_IO_THREADS = 256;
+
+  /**
+   * The maximum number of background requests waiting for a thread.
+   */
+  private static final int MAX_QUEUED_IO_TASKS = 1000;
+
+  /**
+   * The maximum number of threads that refresh the WebDAV locks.
+   */
+  private static final int MAX_LOCK_REFRESH_THREADS = 8;
+
+  /**
+   * The executor used for background requests to the WebDAV servers.
+   */
+  private static final ExecutorService ioExecutor = createIoExecutor();
+
+  /**
+   * The executor used to refresh the WebDAV locks, so that they do not wait behind 
+   * the best-effort background requests.
+   */
+  private static final ExecutorService lockRefreshExecutor = createLockRefreshExecutor();
+
+  /**
+   * Private constructor.
+   */
+  private WebdavExecutors() {
+  }
+
+  /**
+   * @return The executor used for background requests to the WebDAV servers.
+   * Tasks are rejected when too many of them are waiting.
+   */
+  static ExecutorService getIoExecutor() {
+    return ioExecutor;
+  }
+
+  /**
+   * @return The executor used to refresh the WebDAV locks. The number of concurrent refreshes 
+   * is limited by the caller, so the tasks are never rejected.
+   */
+  static ExecutorService getLockRefreshExecutor() {
+    return lockRefreshExecutor;
+  }
+
+  /**
+   * Runs a task on the I/O executor.
+   *
+   * Cancelling the returned future interrupts the task. If the executor is saturated,
+   * the returned future fails with a {@link RejectedExecutionException}.
+   *
+   * @param task The task.
+   *
+   * @return The future result of the task.
+   */
+  static <T> CompletableFuture<T> callAsync(final Callable<T> task) {
+    final CompletableFuture<T> result = new CompletableFuture<>();
+    try {
+      final Future<?> execution = ioExecutor.submit(() -> {
+        try {
+          result.complete(task.call());
+        } catch (Throwable e) { // NOSONAR the error is propagated to the caller.
+          result.completeExceptionally(e);
+        }
+      });
+      result.whenComplete((value, e) -> {
+        if (result.isCancelled()) {
+          execution.cancel(true);
+        }
+      });
+    } catch (RejectedExecutionException e) {
+      result.completeExceptionally(e);
+    }
+    return result;
+  }
+
+  /**
+   * @return A bounded executor whose idle threads are stopped. It uses virtual threads
+   * if the JVM supports them.
+   */
+  private static ExecutorService createIoExecutor() {
+    ThreadFactory threadFactory = createVirtualThreadFactory();
+    int maxThreads = MAX_VIRTUAL_IO_THREADS;
+    if (threadFactory == null) {
+      threadFactory = new ThreadFactoryBuilder().setNameFormat("webdav-io-%d").setDaemon(true).build();
+      maxThreads = MAX_IO_THREADS;
+    }
+    ThreadPoolExecutor executor = new ThreadPoolExecutor(maxThreads, maxThreads,
+        60, TimeUnit.SECONDS,
+        new LinkedBlockingQueue<Runnable>(MAX_QUEUED_IO_TASKS),
+        threadFactory,
+        new ThreadPoolExecutor.AbortPolicy());
+    executor.allowCoreThreadTimeOut(true);
+    return executor;
+  }
+
+  /**
+   * @return An executor whose idle threads are stopped, with an unbounded queue.
+   */
+  private static ExecutorService createLockRefreshExecutor() {
+    ThreadPoolExecutor executor = new ThreadPoolExecutor(MAX_LOCK_REFRESH_THREADS, MAX_LOCK_REFRESH_THREADS,
+        60, TimeUnit.SECONDS,
+        new LinkedBlockingQueue<Runnable>(),
+        new ThreadFactoryBuilder().setNameFormat("webdav-lock-refresh-io-%d").setDaemon(true).build());
+    executor.allowCoreThreadTimeOut(true);
+    return executor;
+  }
+
+  /**
+   * @return A factory of virtual threads, or <code>null</code> if the JVM does not support them.
+   */
+  private static ThreadFactory createVirtualThreadFactory() {
+    try {
+      Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+      Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+      builder = builderClass.getMethod("name", String.class, long.class).invoke(builder, "webdav-io-", 0L);
+      return (ThreadFactory) builderClass.getMethod("factory").invoke(builder);
+    } catch (ReflectiveOperationException | RuntimeException e) {
+      log.debug("Virtual threads are not available: " + e);
+      return null;
+    }
+  }
+}
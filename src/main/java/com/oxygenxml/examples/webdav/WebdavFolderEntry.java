@@ -0,0 +1,66 @@
+package com.oxygenxml.examples.webdav;
+
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+
+import ro.sync.net.protocol.FolderEntryDescriptor;
+
+/**
+ * A member of a collection, with the size and the modification date reported by the server.
+ */
+class WebdavFolderEntry extends FolderEntryDescriptor {
+
+  /**
+   * The size of the resource in bytes, -1 if unknown.
+   */
+  private final long size;
+
+  /**
+   * The modification date of the resource in milliseconds since the epoch, -1 if unknown.
+   */
+  private final long lastModified;
+
+  /**
+   * Constructor.
+   *
+   * @param absoluteLocation The WebDAV URL of the resource.
+   * @param size The size of the resource in bytes, -1 if unknown.
+   * @param lastModified The modification date of the resource in milliseconds since the epoch, -1 if unknown.
+   */
+  WebdavFolderEntry(String absoluteLocation, long size, long lastModified) {
+    super(absoluteLocation, size, lastModified);
+    this.size = size;
+    this.lastModified = lastModified;
+  }
+
+  /**
+   * @return The size of the resource in bytes, -1 if unknown.
+   */
+  long getResourceSize() {
+    return size;
+  }
+
+  /**
+   * @return The modification date of the resource in milliseconds since the epoch, -1 if unknown.
+   */
+  long getResourceLastModified() {
+    return lastModified;
+  }
+
+  /**
+   * @param httpDate The value of the getlastmodified property, may be <code>null</code>.
+   *
+   * @return The date in milliseconds since the epoch, -1 if it is missing or invalid.
+   */
+  static long parseDate(String httpDate) {
+    if (httpDate == null) {
+      return -1;
+    }
+    try {
+      return ZonedDateTime.parse(httpDate, DateTimeFormatter.RFC_1123_DATE_TIME).toInstant().toEpochMilli();
+    } catch (DateTimeParseException e) {
+      return -1;
+    }
+  }
+}
@@ -0,0 +1,417 @@
+package com.oxygenxml.examples.webdav;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.HttpURLConnection;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.net.URLConnection;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.RemovalListener;
+
+import lombok.extern.slf4j.Slf4j;
+import ro.sync.ecss.extensions.api.webapp.plugin.ServletPluginExtension;
+import ro.sync.ecss.extensions.api.webapp.plugin.UserActionRequiredException;
+import ro.sync.ecss.extensions.api.webapp.plugin.servlet.ServletException;
+import ro.sync.ecss.extensions.api.webapp.plugin.servlet.http.HttpServletRequest;
+import ro.sync.ecss.extensions.api.webapp.plugin.servlet.http.HttpServletResponse;
+import ro.sync.net.protocol.FolderEntryDescriptor;
+
+/**
+ * Servlet that lists a collection in pages, as the multistatus response is parsed.
+ *
+ * The first request gives the "url" of the collection, the following ones give the "token"
+ * returned with the previous page. The members are written as soon as they are parsed, and
+ * at most {@link #MAX_BUFFERED_ENTRIES} members of a listing are kept in memory while
+ * the client is not reading them.
+ */
+@Slf4j
+public class WebdavFolderListing extends ServletPluginExtension {
+
+  /**
+   * The number of members in a page, unless the client asks for another size.
+   */
+  private static final int DEFAULT_PAGE_SIZE = 500;
+
+  /**
+   * The maximum number of members in a page.
+   */
+  private static final int MAX_PAGE_SIZE = 2000;
+
+  /**
+   * The maximum number of parsed members waiting for the client.
+   */
+  private static final int MAX_BUFFERED_ENTRIES = 2000;
+
+  /**
+   * The number of seconds after which an unfinished listing is abandoned if the client
+   * does not ask for the next page.
+   */
+  private static final int CURSOR_TIMEOUT = 60;
+
+  /**
+   * The number of seconds after which the listing of a collection stops waiting for the client
+   * to read the buffered members, if the client does not ask for the next page.
+   */
+  private static final int ABANDONED_CURSOR_TIMEOUT = 10;
+
+  /**
+   * The number of seconds after which a page is sent even if it is not full.
+   */
+  private static final int PAGE_TIMEOUT = 30;
+
+  /**
+   * The listings in progress, keyed by their continuation token.
+   */
+  private static final Cache<String, Cursor> cursors = CacheBuilder.newBuilder()
+      .expireAfterAccess(CURSOR_TIMEOUT, TimeUnit.SECONDS)
+      .removalListener((RemovalListener<String, Cursor>) notification -> notification.getValue().close())
+      .build();
+
+  /**
+   * A listing in progress.
+   */
+  private static final class Cursor {
+    /**
+     * Marks the end of the listing in the queue.
+     */
+    private static final FolderEntryDescriptor END = new FolderEntryDescriptor("");
+    /**
+     * The session that started the listing.
+     */
+    final String sessionId;
+    /**
+     * The members parsed and not yet sent to the client.
+     */
+    final BlockingQueue<FolderEntryDescriptor> entries = new ArrayBlockingQueue<>(MAX_BUFFERED_ENTRIES);
+    /**
+     * The failure of the listing, if any.
+     */
+    volatile IOException failure;
+    /**
+     * <code>true</code> after the end of the listing was sent to the client.
+     */
+    boolean done;
+    /**
+     * <code>true</code> if the listing stopped because the client did not read the members.
+     */
+    volatile boolean abandoned;
+    /**
+     * <code>true</code> while a page is written to the client.
+     */
+    volatile boolean reading;
+    /**
+     * The {@link System#nanoTime()} when the client last read a page.
+     */
+    volatile long lastReadAt = System.nanoTime();
+    /**
+     * The task that lists the collection.
+     */
+    CompletableFuture<Void> producer;
+    /**
+     * The connection of the listing request, <code>null</code> if the listing is served from the cache.
+     */
+    volatile URLConnection connection;
+
+    /**
+     * Constructor.
+     *
+     * @param sessionId The session that started the listing.
+     */
+    Cursor(String sessionId) {
+      this.sessionId = sessionId;
+    }
+
+    /**
+     * Adds a member of the collection, waiting for the client to read the previous ones.
+     *
+     * @param entry The member.
+     *
+     * @return <code>false</code> if the client abandoned the listing.
+     *
+     * @throws InterruptedIOException If the listing was cancelled.
+     */
+    boolean offer(FolderEntryDescriptor entry) throws InterruptedIOException {
+      try {
+        return put(entry);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new InterruptedIOException();
+      }
+    }
+
+    /**
+     * Marks the end of the listing.
+     *
+     * @param e The failure of the listing, <code>null</code> if it succeeded.
+     */
+    void finish(IOException e) {
+      failure = e;
+      try {
+        put(END);
+      } catch (InterruptedException ex) {
+        Thread.currentThread().interrupt();
+      }
+    }
+
+    /**
+     * Adds a member of the collection or the end of the listing, waiting while the client reads the pages.
+     *
+     * @param entry The member.
+     *
+     * @return <code>false</code> if the client stopped asking for the next page.
+     *
+     * @throws InterruptedException If the listing was cancelled.
+     */
+    private boolean put(FolderEntryDescriptor entry) throws InterruptedException {
+      while (!entries.offer(entry, 1, TimeUnit.SECONDS)) {
+        if (abandoned || !reading && System.nanoTime() - lastReadAt > TimeUnit.SECONDS.toNanos(ABANDONED_CURSOR_TIMEOUT)) {
+          // Release the thread instead of waiting for the cursor to expire.
+          abandoned = true;
+          return false;
+        }
+      }
+      return true;
+    }
+
+    /**
+     * Stops the listing.
+     */
+    void close() {
+      entries.clear();
+      if (producer != null) {
+        producer.cancel(true);
+      }
+      // Interrupting the producer does not unblock a socket read.
+      URLConnection listingConnection = connection;
+      if (listingConnection instanceof HttpURLConnection) {
+        ((HttpURLConnection) listingConnection).disconnect();
+      }
+    }
+  }
+
+  /**
+   * Writes a page of the listing of a collection as a JSON object with the "entries" array and,
+   * if the listing is not complete, the "token" for the next page.
+   */
+  @Override
+  public void doGet(HttpServletRequest req, HttpServletResponse resp) throws ServletException, IOException {
+    String sessionId = req.getSession().getId();
+    int pageSize = getPageSize(req.getParameter("pageSize"));
+
+    String token = req.getParameter("token");
+    Cursor cursor;
+    if (token != null) {
+      cursor = cursors.getIfPresent(token);
+      if (cursor == null || !cursor.sessionId.equals(sessionId) || cursor.abandoned) {
+        if (cursor != null && cursor.abandoned) {
+          cursors.invalidate(token);
+        }
+        resp.sendError(HttpServletResponse.SC_GONE);
+        return;
+      }
+    } else {
+      try {
+        cursor = startListing(sessionId, new URL(req.getParameter("url")));
+      } catch (MalformedURLException e) {
+        log.debug(e.getMessage(), e);
+        resp.sendError(HttpServletResponse.SC_BAD_REQUEST);
+        return;
+      }
+      token = UUID.randomUUID().toString();
+      cursors.put(token, cursor);
+    }
+
+    synchronized (cursor) {
+      cursor.reading = true;
+      try {
+        writePage(cursor, token, pageSize, resp);
+      } finally {
+        cursor.lastReadAt = System.nanoTime();
+        cursor.reading = false;
+      }
+      if (cursor.done) {
+        cursors.invalidate(token);
+      }
+    }
+  }
+
+  /**
+   * Stops the listings of a session that logs out.
+   *
+   * @param sessionId The session Id.
+   */
+  static void closeSession(String sessionId) {
+    // The removal listener closes the cursors.
+    cursors.asMap().values().removeIf(cursor -> cursor.sessionId.equals(sessionId));
+  }
+
+  /**
+   * Starts listing a collection in background.
+   *
+   * @param sessionId The session Id.
+   * @param webdavUrl The WebDAV URL of the collection.
+   *
+   * @return The listing.
+   */
+  private static Cursor startListing(final String sessionId, URL webdavUrl) {
+    final Cursor cursor = new Cursor(sessionId);
+    final URL httpUrl = WebdavUrlStreamHandler.getRequestUrl(sessionId, webdavUrl);
+    final List<FolderEntryDescriptor> cachedEntries = FolderListingCache.get(sessionId, httpUrl);
+    cursor.producer = WebdavExecutors.callAsync(() -> {
+      try {
+        if (cachedEntries != null) {
+          for (FolderEntryDescriptor entry : cachedEntries) {
+            if (!cursor.offer(entry)) {
+              return null;
+            }
+          }
+        } else {
+          URLConnection connection = WebdavUrlStreamHandler.openHttpConnection(httpUrl);
+          cursor.connection = connection;
+          if (Thread.currentThread().isInterrupted()) {
+            // Closed before the connection was known.
+            return null;
+          }
+          new WebdavUrlConnection(sessionId, connection).listFolder(cursor::offer);
+        }
+        cursor.finish(null);
+      } catch (IOException e) {
+        cursor.finish(e);
+      }
+      return null;
+    });
+    cursor.producer.exceptionally(e -> {
+      if (!cursor.producer.isCancelled()) {
+        Throwable cause = e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+        cursor.finish(cause instanceof IOException ? (IOException) cause : new IOException(cause));
+      }
+      return null;
+    });
+    return cursor;
+  }
+
+  /**
+   * Writes the next page of a listing.
+   *
+   * @param cursor The listing.
+   * @param token The continuation token of the listing.
+   * @param pageSize The maximum number of members in the page.
+   * @param resp The response.
+   *
+   * @throws IOException If the response cannot be written.
+   */
+  private static void writePage(Cursor cursor, String token, int pageSize, HttpServletResponse resp)
+      throws IOException {
+    long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(PAGE_TIMEOUT);
+    FolderEntryDescriptor entry;
+    try {
+      entry = cursor.entries.poll(PAGE_TIMEOUT, TimeUnit.SECONDS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      entry = null;
+    }
+    if (entry == Cursor.END && cursor.failure != null) {
+      cursor.done = true;
+      sendFailure(cursor.failure, resp);
+      return;
+    }
+
+    resp.setContentType("application/json");
+    JsonGenerator generator = WebdavUrlInfo.objectMapper.getFactory().createGenerator(resp.getOutputStream());
+    generator.writeStartObject();
+    generator.writeArrayFieldStart("entries");
+    int written = 0;
+    try {
+      while (entry != null && entry != Cursor.END) {
+        String location = entry.getAbsoluteLocation();
+        generator.writeStartObject();
+        generator.writeStringField("url", location);
+        generator.writeBooleanField("folder", location.endsWith("/"));
+        if (entry instanceof WebdavFolderEntry) {
+          WebdavFolderEntry webdavEntry = (WebdavFolderEntry) entry;
+          if (webdavEntry.getResourceSize() >= 0) {
+            generator.writeNumberField("size", webdavEntry.getResourceSize());
+          }
+          if (webdavEntry.getResourceLastModified() >= 0) {
+            generator.writeNumberField("date", webdavEntry.getResourceLastModified());
+          }
+        }
+        generator.writeEndObject();
+        written++;
+        if (written == pageSize) {
+          break;
+        }
+        entry = cursor.entries.poll();
+        if (entry == null) {
+          // Send what we have while the server sends the rest.
+          generator.flush();
+          entry = cursor.entries.poll(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+        }
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    generator.writeEndArray();
+    cursor.done = entry == Cursor.END;
+    if (cursor.done && cursor.failure != null) {
+      // The members already sent are valid, the client will see the error on the next page.
+      cursor.done = false;
+      cursor.entries.offer(Cursor.END);
+    }
+    if (!cursor.done) {
+      generator.writeStringField("token", token);
+    }
+    generator.writeEndObject();
+    generator.close();
+  }
+
+  /**
+   * Reports the failure of a listing.
+   *
+   * @param failure The failure.
+   * @param resp The response.
+   *
+   * @throws IOException If the response cannot be written.
+   */
+  private static void sendFailure(IOException failure, HttpServletResponse resp) throws IOException {
+    if (failure instanceof UserActionRequiredException) {
+      resp.sendError(HttpServletResponse.SC_UNAUTHORIZED);
+    } else {
+      resp.setContentType("application/json");
+      JsonGenerator generator = WebdavUrlInfo.objectMapper.getFactory().createGenerator(resp.getOutputStream());
+      generator.writeStartObject();
+      generator.writeStringField("errorMessage", String.valueOf(failure.getMessage()));
+      generator.writeEndObject();
+      generator.close();
+    }
+  }
+
+  /**
+   * @param pageSize The page size requested by the client.
+   *
+   * @return The number of members in a page.
+   */
+  private static int getPageSize(String pageSize) {
+    try {
+      return pageSize != null ? Math.max(1, Math.min(MAX_PAGE_SIZE, Integer.parseInt(pageSize))) : DEFAULT_PAGE_SIZE;
+    } catch (NumberFormatException e) {
+      return DEFAULT_PAGE_SIZE;
+    }
+  }
+
+  @Override
+  public String getPath() {
+    return "webdav-list";
+  }
+}
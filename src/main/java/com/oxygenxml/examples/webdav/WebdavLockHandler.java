@@ -1,10 +1,11 @@
 package com.oxygenxml.examples.webdav;
 
-import java.net.PasswordAuthentication;
+import java.io.IOException;
 import java.net.URL;
-import java.util.Collections;
+import java.util.ArrayList;
 import java.util.List;
 
+import lombok.extern.slf4j.Slf4j;
 import ro.sync.ecss.extensions.api.webapp.access.WebappPluginWorkspace;
 import ro.sync.ecss.extensions.api.webapp.plugin.LockHandlerWithContext;
 import ro.sync.exml.plugin.lock.LockException;
@@ -18,6 +19,7 @@ import ro.sync.net.protocol.http.WebdavLockHelper;
  * 
  * @author cristi_talau, mihai_coanda
  */
+@Slf4j
 public class WebdavLockHandler extends LockHandlerWithContext {
   private WebdavLockHelper webdavLockHelper; 
   
@@ -27,37 +29,200 @@ public class WebdavLockHandler extends LockHandlerWithContext {
 
   @Override
   public boolean isSaveAllowed(String contextId, URL url, int timeoutSeconds) {
+    // We do not need to ask the server while we hold a valid lock.
+    if (LockRefreshScheduler.isHeld(contextId, url, getLockOwner(contextId, url))) {
+      return true;
+    }
+    // The lock was obtained by another node of the cluster, that published its token.
+    if (SharedLockTokens.getForeignIfHeader(contextId, url, webdavLockHelper) != null 
+        && adoptForeignLock(contextId, url, timeoutSeconds)) {
+      return true;
+    }
     url = WebdavUrlStreamHandler.addCredentials(contextId, url);
     
-    return webdavLockHelper.isSaveAllowed(contextId, url, timeoutSeconds);
+    try (ServerGuard.Permit permit = ServerGuard.acquire(url)) {
+      return webdavLockHelper.isSaveAllowed(contextId, url, timeoutSeconds);
+    } catch (IOException e) {
+      // The server is not available. Returning false would tell the user that somebody 
+      // else locked the document, so the save goes on and its request reports the failure. 
+      // The server still rejects it if the document is locked.
+      log.debug("Cannot check the lock of " + url.getPath() + ": " + e.getMessage());
+      return true;
+    }
   }
 
   @Override
   public void unlock(String contextId, URL url) throws LockException {
+    LockRefreshScheduler.released(contextId, url);
+    String foreignIfHeader = SharedLockTokens.getForeignIfHeader(contextId, url, webdavLockHelper);
     url = WebdavUrlStreamHandler.addCredentials(contextId, url);
     // headers passed to the server. 
-    List<String> headerKeys = Collections.singletonList("X-Requested-With");
-    List<String> headerValues = Collections.singletonList("x");
+    List<String> headerKeys = new ArrayList<>();
+    List<String> headerValues = new ArrayList<>();
+    addRequestHeaders(contextId, url, "UNLOCK", headerKeys, headerValues);
     
-    webdavLockHelper.unlock(contextId, url, headerKeys, headerValues);
+    long start = System.nanoTime();
+    try (ServerGuard.Permit permit = acquirePermit(url)) {
+      try {
+        if (foreignIfHeader != null) {
+          SharedLockTokens.unlock(url, foreignIfHeader, headerKeys, headerValues);
+        } else {
+          webdavLockHelper.unlock(contextId, url, headerKeys, headerValues);
+        }
+      } catch (LockException e) {
+        recordFailure(permit, url, WebdavMetrics.UNLOCK, e);
+        throw e;
+      }
+    } finally {
+      WebdavMetrics.record(url, WebdavMetrics.UNLOCK, start);
+      SharedLockTokens.unpublish(contextId, url);
+    }
   }
 
   @Override
-  public void updateLock(String contextId, URL url, int timeoutSeconds) throws LockException {
-    url = WebdavUrlStreamHandler.addCredentials(contextId, url);
+  public void updateLock(final String contextId, final URL url, int timeoutSeconds) throws LockException {
+    // While the lock is far from expiring, it is refreshed in the background.
+    if (LockRefreshScheduler.keepAlive(contextId, url, timeoutSeconds)) {
+      return;
+    }
     
-    String serverId = WebdavUrlStreamHandler.computeServerId("webdav-" + url.toExternalForm());
-    PasswordAuthentication passwordAuthentication = CredentialsStore.get(contextId, serverId);
+    long lockedAt = System.nanoTime();
+    refreshLock(contextId, url, timeoutSeconds);
+    SharedLockTokens.publish(contextId, url, webdavLockHelper);
+    LockRefreshScheduler.locked(contextId, url, timeoutSeconds, lockedAt, getLockOwner(contextId, url),
+        timeout -> refreshLock(contextId, url, timeout));
+  }
+  
+  /**
+   * Checks the lock token published by another node of the cluster by refreshing the lock 
+   * with it. If the server accepts it, the lock is held and refreshed by this node from now on.
+   * 
+   * @param contextId The context Id.
+   * @param url The WebDAV URL of the resource.
+   * @param timeoutSeconds The lock timeout.
+   * 
+   * @return <code>true</code> if the server accepted the token.
+   */
+  private boolean adoptForeignLock(final String contextId, final URL url, int timeoutSeconds) {
+    long lockedAt = System.nanoTime();
+    try {
+      refreshLock(contextId, url, timeoutSeconds);
+    } catch (LockException e) {
+      log.debug("The lock token published by another node was rejected: " + e.getMessage());
+      if (e instanceof SharedLockTokens.TokenRejectedException) {
+        // The node that locked the resource stopped and its lock expired.
+        SharedLockTokens.unpublish(contextId, url);
+      }
+      return false;
+    }
+    LockRefreshScheduler.locked(contextId, url, timeoutSeconds, lockedAt, getLockOwner(contextId, url),
+        timeout -> refreshLock(contextId, url, timeout));
+    return true;
+  }
+  
+  /**
+   * @param contextId The context Id.
+   * @param url The WebDAV URL of the resource.
+   * 
+   * @return The name of the user on whose behalf the resource is locked.
+   */
+  private static String getLockOwner(String contextId, URL url) {
+    String serverId = WebdavUrlStreamHandler.computeServerId(url.toExternalForm());
+    ResolvedCredentials credentials = CredentialsStore.resolve(contextId, serverId);
     
     PluginResourceBundle rb = ((WebappPluginWorkspace)PluginWorkspaceProvider.getPluginWorkspace()).getResourceBundle();
-    String userName = passwordAuthentication != null ? passwordAuthentication.getUserName() : rb.getMessage(TranslationTags.ANONYMOUS);
+    return credentials != null ? credentials.getUserName() : rb.getMessage(TranslationTags.ANONYMOUS);
+  }
+  
+  /**
+   * Obtains or refreshes the lock on the server.
+   * 
+   * @param contextId The context Id.
+   * @param url The URL of the resource.
+   * @param timeoutSeconds The lock timeout.
+   * 
+   * @throws LockException If the lock could not be obtained.
+   */
+  private void refreshLock(String contextId, URL url, int timeoutSeconds) throws LockException {
+    String userName = getLockOwner(contextId, url);
+    String foreignIfHeader = SharedLockTokens.getForeignIfHeader(contextId, url, webdavLockHelper);
+    url = WebdavUrlStreamHandler.addCredentials(contextId, url);
     
     // headers passed to the server. 
-    List<String> headerKeys = Collections.singletonList("X-Requested-With");
-    List<String> headerValues = Collections.singletonList("x");
+    List<String> headerKeys = new ArrayList<>();
+    List<String> headerValues = new ArrayList<>();
+    addRequestHeaders(contextId, url, "LOCK", headerKeys, headerValues);
     webdavLockHelper.setLockOwner(contextId, userName);
     
-    webdavLockHelper.updateLock(contextId, url, timeoutSeconds, headerKeys, headerValues);
+    long start = System.nanoTime();
+    try (ServerGuard.Permit permit = acquirePermit(url)) {
+      try {
+        if (foreignIfHeader != null) {
+          SharedLockTokens.refresh(url, foreignIfHeader, timeoutSeconds, headerKeys, headerValues);
+        } else {
+          webdavLockHelper.updateLock(contextId, url, timeoutSeconds, headerKeys, headerValues);
+        }
+      } catch (LockException e) {
+        recordFailure(permit, url, WebdavMetrics.LOCK, e);
+        throw e;
+      }
+    } finally {
+      WebdavMetrics.record(url, WebdavMetrics.LOCK, start);
+    }
+  }
+  
+  /**
+   * Obtains the permission to send a lock request to the server.
+   * 
+   * @param url The URL of the resource.
+   * 
+   * @return The permit.
+   * 
+   * @throws LockException If the server is failing or too busy.
+   */
+  private static ServerGuard.Permit acquirePermit(URL url) throws LockException {
+    try {
+      return ServerGuard.acquire(url);
+    } catch (IOException e) {
+      throw new LockException(e.getMessage());
+    }
+  }
+  
+  /**
+   * Counts a failed lock request and reports it to the circuit breaker if the server could not be reached.
+   * 
+   * @param permit The permit of the request.
+   * @param url The URL of the resource.
+   * @param operation The lock operation.
+   * @param e The exception thrown by the request.
+   */
+  private static void recordFailure(ServerGuard.Permit permit, URL url, String operation, LockException e) {
+    WebdavMetrics.recordError(url, operation, WebdavMetrics.ERROR);
+    // Lock conflicts do not say anything about the health of the server.
+    if (ServerGuard.isConnectivityFailure(e)) {
+      permit.failed();
+    }
+  }
+  
+  /**
+   * Computes the headers passed to the server with a lock request.
+   * 
+   * @param contextId The context Id.
+   * @param url The URL of the request.
+   * @param method The HTTP method of the request.
+   * @param headerKeys The list to which to add the header names.
+   * @param headerValues The list to which to add the header values.
+   */
+  private static void addRequestHeaders(String contextId, URL url, String method, 
+      List<String> headerKeys, List<String> headerValues) {
+    headerKeys.add("X-Requested-With");
+    headerValues.add("x");
+    
+    String authorization = WebdavUrlStreamHandler.getPreemptiveAuthorization(contextId, url, method);
+    if (authorization != null) {
+      headerKeys.add(PreemptiveAuthentication.AUTHORIZATION);
+      headerValues.add(authorization);
+    }
   }
 
   @Override
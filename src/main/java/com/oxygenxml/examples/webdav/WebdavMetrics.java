@@ -0,0 +1,306 @@
+package com.oxygenxml.examples.webdav;
+
+import java.net.URL;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Latency histograms and error counters of the requests made to the WebDAV servers,
+ * keyed by server id and operation.
+ *
+ * Recording a value only increments {@link LongAdder}s, so it does not contend with
+ * the other requests.
+ *
+ * The users can open URLs of any server, so only the first {@link #MAX_TRACKED_SERVERS} servers 
+ * get their own metrics. The requests to the other servers are recorded under {@link #OTHER_SERVERS}.
+ */
+final class WebdavMetrics {
+
+  /**
+   * Opening the connection to the server.
+   */
+  static final String CONNECT = "connect";
+
+  /**
+   * Downloading a resource.
+   */
+  static final String GET = "GET";
+
+  /**
+   * Saving a resource.
+   */
+  static final String PUT = "PUT";
+
+  /**
+   * Listing a collection or reading the properties of a resource.
+   */
+  static final String PROPFIND = "PROPFIND";
+
+  /**
+   * Obtaining or refreshing a lock.
+   */
+  static final String LOCK = "LOCK";
+
+  /**
+   * Releasing a lock.
+   */
+  static final String UNLOCK = "UNLOCK";
+
+  /**
+   * Refreshing a lock in the background, before it expires. The request is also recorded as {@link #LOCK}.
+   */
+  static final String LOCK_REFRESH = "lock-refresh";
+
+  /**
+   * Computing the information about a URL entered by the user.
+   */
+  static final String URL_INFO = "url-info";
+
+  /**
+   * Finding the root of a server.
+   */
+  static final String ROOT_DISCOVERY = "root-discovery";
+
+  /**
+   * Decrypting the stored credentials of a user.
+   */
+  static final String CREDENTIALS_DECRYPTION = "credentials-decryption";
+
+  /**
+   * The server asked for credentials.
+   */
+  static final String UNAUTHORIZED = "unauthorized";
+
+  /**
+   * The request failed for another reason.
+   */
+  static final String ERROR = "error";
+
+  /**
+   * The maximum number of servers for which metrics and statistics are kept separately.
+   */
+  static final int MAX_TRACKED_SERVERS = 100;
+
+  /**
+   * The server id under which the requests to the servers that are not tracked are recorded.
+   */
+  static final String OTHER_SERVERS = "other";
+
+  /**
+   * The upper bounds of the histogram buckets, in milliseconds.
+   */
+  static final long[] BUCKET_BOUNDS_MILLIS = {5, 10, 25, 50, 100, 250, 500, 1000, 2500, 5000, 10000, 30000};
+
+  /**
+   * The latency histogram of an operation on a server.
+   */
+  static final class Histogram {
+    /**
+     * The number of requests in each bucket. The last bucket has no upper bound.
+     */
+    private final LongAdder[] buckets = new LongAdder[BUCKET_BOUNDS_MILLIS.length + 1];
+    /**
+     * The total duration of the requests, in nanoseconds.
+     */
+    private final LongAdder sumNanos = new LongAdder();
+
+    /**
+     * Constructor.
+     */
+    private Histogram() {
+      for (int i = 0; i < buckets.length; i++) {
+        buckets[i] = new LongAdder();
+      }
+    }
+
+    /**
+     * @param nanos The duration of a request.
+     */
+    private void record(long nanos) {
+      long millis = TimeUnit.NANOSECONDS.toMillis(nanos);
+      int bucket = 0;
+      while (bucket < BUCKET_BOUNDS_MILLIS.length && millis > BUCKET_BOUNDS_MILLIS[bucket]) {
+        bucket++;
+      }
+      buckets[bucket].increment();
+      sumNanos.add(nanos);
+    }
+
+    /**
+     * @return The cumulative number of requests for each bucket bound, followed by the total number of requests.
+     */
+    long[] getCumulativeCounts() {
+      long[] counts = new long[buckets.length];
+      long count = 0;
+      for (int i = 0; i < buckets.length; i++) {
+        count += buckets[i].sum();
+        counts[i] = count;
+      }
+      return counts;
+    }
+
+    /**
+     * @return The total duration of the requests, in seconds.
+     */
+    double getSumSeconds() {
+      return sumNanos.sum() / (double) TimeUnit.SECONDS.toNanos(1);
+    }
+  }
+
+  /**
+   * The ids of the servers for which metrics and statistics are kept separately.
+   */
+  private static final Set<String> trackedServers = ConcurrentHashMap.newKeySet();
+
+  /**
+   * The latency histograms keyed by server id and operation.
+   */
+  private static final ConcurrentMap<MetricKey, Histogram> histograms = new ConcurrentHashMap<>();
+
+  /**
+   * The error counters keyed by server id, operation and kind of error.
+   */
+  private static final ConcurrentMap<MetricKey, LongAdder> errors = new ConcurrentHashMap<>();
+
+  /**
+   * The key of a metric.
+   */
+  static final class MetricKey {
+    /**
+     * The server id.
+     */
+    final String serverId;
+    /**
+     * The operation.
+     */
+    final String operation;
+    /**
+     * The kind of error, <code>null</code> for the histograms.
+     */
+    final String kind;
+
+    /**
+     * Constructor.
+     *
+     * @param serverId The server id.
+     * @param operation The operation.
+     * @param kind The kind of error, <code>null</code> for the histograms.
+     */
+    private MetricKey(String serverId, String operation, String kind) {
+      this.serverId = serverId;
+      this.operation = operation;
+      this.kind = kind;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+      if (!(obj instanceof MetricKey)) {
+        return false;
+      }
+      MetricKey other = (MetricKey) obj;
+      return serverId.equals(other.serverId) && operation.equals(other.operation)
+          && (kind == null ? other.kind == null : kind.equals(other.kind));
+    }
+
+    @Override
+    public int hashCode() {
+      return (serverId.hashCode() * 31 + operation.hashCode()) * 31 + (kind != null ? kind.hashCode() : 0);
+    }
+  }
+
+  /**
+   * Private constructor.
+   */
+  private WebdavMetrics() {
+  }
+
+  /**
+   * Records the duration of a request.
+   *
+   * @param url The HTTP or WebDAV URL of the request.
+   * @param operation The operation.
+   * @param startNanos The time when the request started, as reported by {@link System#nanoTime()}.
+   */
+  static void record(URL url, String operation, long startNanos) {
+    record(ServerGuard.getServerId(url), operation, startNanos);
+  }
+
+  /**
+   * Records the duration of an operation.
+   *
+   * @param serverId The id of the server.
+   * @param operation The operation.
+   * @param startNanos The time when the operation started, as reported by {@link System#nanoTime()}.
+   */
+  static void record(String serverId, String operation, long startNanos) {
+    MetricKey key = new MetricKey(getTrackedServerId(serverId), operation, null);
+    Histogram histogram = histograms.get(key);
+    if (histogram == null) {
+      histogram = histograms.computeIfAbsent(key, k -> new Histogram());
+    }
+    histogram.record(System.nanoTime() - startNanos);
+  }
+
+  /**
+   * Counts a failed request.
+   *
+   * @param url The HTTP or WebDAV URL of the request.
+   * @param operation The operation.
+   * @param kind The kind of error, {@link #UNAUTHORIZED} or {@link #ERROR}.
+   */
+  static void recordError(URL url, String operation, String kind) {
+    MetricKey key = new MetricKey(getTrackedServerId(ServerGuard.getServerId(url)), operation, kind);
+    LongAdder counter = errors.get(key);
+    if (counter == null) {
+      counter = errors.computeIfAbsent(key, k -> new LongAdder());
+    }
+    counter.increment();
+  }
+
+  /**
+   * Checks whether a server gets its own metrics and statistics, starting to track it if the 
+   * maximum number of tracked servers was not reached.
+   *
+   * @param serverId The server id.
+   *
+   * @return <code>true</code> if the server is tracked.
+   */
+  static boolean isTracked(String serverId) {
+    if (trackedServers.contains(serverId)) {
+      return true;
+    }
+    if (trackedServers.size() < MAX_TRACKED_SERVERS) {
+      // Concurrent additions may exceed the maximum by a few servers.
+      trackedServers.add(serverId);
+      return true;
+    }
+    return false;
+  }
+
+  /**
+   * @param serverId The server id.
+   *
+   * @return The server id under which the metrics of the server are recorded.
+   */
+  private static String getTrackedServerId(String serverId) {
+    return isTracked(serverId) ? serverId : OTHER_SERVERS;
+  }
+
+  /**
+   * @return The latency histograms keyed by server id and operation.
+   */
+  static Map<MetricKey, Histogram> getHistograms() {
+    return histograms;
+  }
+
+  /**
+   * @return The error counters keyed by server id, operation and kind of error.
+   */
+  static Map<MetricKey, LongAdder> getErrors() {
+    return errors;
+  }
+}
@@ -0,0 +1,206 @@
+package com.oxygenxml.examples.webdav;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.google.common.cache.CacheStats;
+
+import ro.sync.ecss.extensions.api.webapp.plugin.ServletPluginExtension;
+import ro.sync.ecss.extensions.api.webapp.plugin.servlet.ServletException;
+import ro.sync.ecss.extensions.api.webapp.plugin.servlet.http.HttpServletRequest;
+import ro.sync.ecss.extensions.api.webapp.plugin.servlet.http.HttpServletResponse;
+
+/**
+ * Servlet that exposes the metrics of the requests made to the WebDAV servers.
+ *
+ * The metrics are written in the Prometheus text format, or as JSON if the "format"
+ * parameter is "json".
+ */
+public class WebdavMetricsServlet extends ServletPluginExtension {
+
+  /**
+   * The name of the latency histograms.
+   */
+  private static final String DURATION = "webdav_request_duration_seconds";
+
+  /**
+   * The name of the error counters.
+   */
+  private static final String ERRORS = "webdav_request_errors_total";
+
+  /**
+   * Writes the metrics.
+   */
+  @Override
+  public void doGet(HttpServletRequest req, HttpServletResponse resp) throws ServletException, IOException {
+    if ("json".equals(req.getParameter("format"))) {
+      resp.setContentType("application/json");
+      writeJson(resp.getOutputStream());
+    } else {
+      resp.setContentType("text/plain; version=0.0.4; charset=utf-8");
+      OutputStream outputStream = resp.getOutputStream();
+      outputStream.write(getPrometheusText().getBytes(StandardCharsets.UTF_8));
+      outputStream.close();
+    }
+  }
+
+  /**
+   * @return The metrics in the Prometheus text format.
+   */
+  private static String getPrometheusText() {
+    StringBuilder text = new StringBuilder();
+    text.append("# HELP ").append(DURATION).append(" Duration of the requests to the WebDAV servers.\n");
+    text.append("# TYPE ").append(DURATION).append(" histogram\n");
+    for (Map.Entry<WebdavMetrics.MetricKey, WebdavMetrics.Histogram> entry : WebdavMetrics.getHistograms().entrySet()) {
+      String labels = "server=\"" + escape(entry.getKey().serverId)
+          + "\",operation=\"" + escape(entry.getKey().operation) + "\"";
+      long[] counts = entry.getValue().getCumulativeCounts();
+      for (int i = 0; i < counts.length; i++) {
+        String bound = i < WebdavMetrics.BUCKET_BOUNDS_MILLIS.length
+            ? String.valueOf(WebdavMetrics.BUCKET_BOUNDS_MILLIS[i] / 1000.0) : "+Inf";
+        text.append(DURATION).append("_bucket{").append(labels).append(",le=\"").append(bound).append("\"} ")
+          .append(counts[i]).append('\n');
+      }
+      text.append(DURATION).append("_sum{").append(labels).append("} ")
+        .append(entry.getValue().getSumSeconds()).append('\n');
+      text.append(DURATION).append("_count{").append(labels).append("} ")
+        .append(counts[counts.length - 1]).append('\n');
+    }
+
+    text.append("# HELP ").append(ERRORS).append(" Failed requests to the WebDAV servers.\n");
+    text.append("# TYPE ").append(ERRORS).append(" counter\n");
+    for (Map.Entry<WebdavMetrics.MetricKey, LongAdder> entry : WebdavMetrics.getErrors().entrySet()) {
+      text.append(ERRORS).append("{server=\"").append(escape(entry.getKey().serverId))
+        .append("\",operation=\"").append(escape(entry.getKey().operation))
+        .append("\",kind=\"").append(escape(entry.getKey().kind)).append("\"} ")
+        .append(entry.getValue().sum()).append('\n');
+    }
+
+    for (Map.Entry<String, Long> counter : getCounters().entrySet()) {
+      text.append("# TYPE ").append(counter.getKey()).append(" counter\n");
+      text.append(counter.getKey()).append(' ').append(counter.getValue()).append('\n');
+    }
+
+    appendLockCounter(text, "webdav_lock_refreshes_total", stats -> stats.refreshCount);
+    appendLockCounter(text, "webdav_lock_refresh_failures_total", stats -> stats.failureCount);
+    appendLockCounter(text, "webdav_locks_lost_total", stats -> stats.lostCount);
+    return text.toString();
+  }
+
+  /**
+   * Appends a lock refresh counter of each server in the Prometheus text format.
+   *
+   * @param text The text to append to.
+   * @param name The name of the metric.
+   * @param counter Returns the counter from the refresh statistics of a server.
+   */
+  private static void appendLockCounter(StringBuilder text, String name,
+      Function<LockRefreshScheduler.RefreshStats, AtomicLong> counter) {
+    text.append("# TYPE ").append(name).append(" counter\n");
+    for (Map.Entry<String, LockRefreshScheduler.RefreshStats> entry : LockRefreshScheduler.getStats().entrySet()) {
+      text.append(name).append("{server=\"").append(escape(entry.getKey())).append("\"} ")
+        .append(counter.apply(entry.getValue()).get()).append('\n');
+    }
+  }
+
+  /**
+   * Writes the metrics as JSON.
+   *
+   * @param outputStream The stream to write to.
+   *
+   * @throws IOException If the metrics cannot be written.
+   */
+  private static void writeJson(OutputStream outputStream) throws IOException {
+    JsonGenerator generator = WebdavUrlInfo.objectMapper.getFactory().createGenerator(outputStream);
+    generator.writeStartObject();
+    generator.writeArrayFieldStart("durations");
+    for (Map.Entry<WebdavMetrics.MetricKey, WebdavMetrics.Histogram> entry : WebdavMetrics.getHistograms().entrySet()) {
+      long[] counts = entry.getValue().getCumulativeCounts();
+      generator.writeStartObject();
+      generator.writeStringField("server", entry.getKey().serverId);
+      generator.writeStringField("operation", entry.getKey().operation);
+      generator.writeNumberField("count", counts[counts.length - 1]);
+      generator.writeNumberField("sumSeconds", entry.getValue().getSumSeconds());
+      generator.writeObjectFieldStart("buckets");
+      for (int i = 0; i < WebdavMetrics.BUCKET_BOUNDS_MILLIS.length; i++) {
+        generator.writeNumberField(String.valueOf(WebdavMetrics.BUCKET_BOUNDS_MILLIS[i] / 1000.0), counts[i]);
+      }
+      generator.writeEndObject();
+      generator.writeEndObject();
+    }
+    generator.writeEndArray();
+
+    generator.writeArrayFieldStart("errors");
+    for (Map.Entry<WebdavMetrics.MetricKey, LongAdder> entry : WebdavMetrics.getErrors().entrySet()) {
+      generator.writeStartObject();
+      generator.writeStringField("server", entry.getKey().serverId);
+      generator.writeStringField("operation", entry.getKey().operation);
+      generator.writeStringField("kind", entry.getKey().kind);
+      generator.writeNumberField("count", entry.getValue().sum());
+      generator.writeEndObject();
+    }
+    generator.writeEndArray();
+
+    generator.writeObjectFieldStart("counters");
+    for (Map.Entry<String, Long> counter : getCounters().entrySet()) {
+      generator.writeNumberField(counter.getKey(), counter.getValue());
+    }
+    generator.writeEndObject();
+
+    generator.writeObjectFieldStart("locks");
+    for (Map.Entry<String, LockRefreshScheduler.RefreshStats> entry : LockRefreshScheduler.getStats().entrySet()) {
+      generator.writeObjectFieldStart(entry.getKey());
+      generator.writeNumberField("refreshes", entry.getValue().refreshCount.get());
+      generator.writeNumberField("failures", entry.getValue().failureCount.get());
+      generator.writeNumberField("lost", entry.getValue().lostCount.get());
+      generator.writeEndObject();
+    }
+    generator.writeEndObject();
+
+    generator.writeEndObject();
+    generator.close();
+  }
+
+  /**
+   * @return The counters of the caches and the other optimizations, keyed by metric name.
+   */
+  private static Map<String, Long> getCounters() {
+    CacheStats contentCacheStats = WebdavContentCache.getStats();
+    Map<String, Long> counters = new LinkedHashMap<>();
+    counters.put("webdav_content_cache_hits_total", contentCacheStats.hitCount());
+    counters.put("webdav_content_cache_misses_total", contentCacheStats.missCount());
+    counters.put("webdav_not_modified_responses_total", WebdavContentCache.getNotModifiedCount());
+    counters.put("webdav_folder_listing_cache_hits_total", FolderListingCache.getHitCount());
+    counters.put("webdav_url_info_cache_hits_total", UrlInfoCache.getHitCount());
+    counters.put("webdav_coalesced_requests_total", WebdavUrlConnection.getCoalescedRequestCount());
+    counters.put("webdav_hedged_requests_total", HedgedRequests.getHedgeCount());
+    counters.put("webdav_hedged_requests_won_total", HedgedRequests.getHedgeWinCount());
+    counters.put("webdav_skipped_saves_total", SaveDeduplicator.getSkippedSaveCount());
+    counters.put("webdav_response_bytes_received_total", ContentCompression.getReceivedResponseBytes());
+    counters.put("webdav_response_bytes_decoded_total", ContentCompression.getDecodedResponseBytes());
+    counters.put("webdav_upload_bytes_sent_total", ContentCompression.getSentUploadBytes());
+    counters.put("webdav_upload_bytes_uncompressed_total", ContentCompression.getUncompressedUploadBytes());
+    return counters;
+  }
+
+  /**
+   * @param labelValue The value of a label.
+   *
+   * @return The value escaped for the Prometheus text format.
+   */
+  private static String escape(String labelValue) {
+    return labelValue.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+  }
+
+  @Override
+  public String getPath() {
+    return "webdav-metrics";
+  }
+}
@@ -1,12 +1,19 @@
 package com.oxygenxml.examples.webdav;
 
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.Map;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.html.HtmlEscapers;
 
 import ro.sync.ecss.extensions.api.webapp.access.WebappPluginWorkspace;
 import ro.sync.ecss.extensions.api.webapp.plugin.ServletPluginConfigExtension;
 import ro.sync.ecss.extensions.api.webapp.plugin.servlet.ServletException;
 import ro.sync.exml.workspace.api.PluginResourceBundle;
 import ro.sync.exml.workspace.api.PluginWorkspaceProvider;
+import ro.sync.exml.workspace.api.options.WSOptionsStorage;
 
 /**
  * Plugin extension used to handle the configuration of this plugin.
@@ -14,6 +21,11 @@ import ro.sync.exml.workspace.api.PluginWorkspaceProvider;
 public class WebdavPluginConfigExtension extends ServletPluginConfigExtension {
 
   private static final String defaultAutoSaveInterval = "5";
+  
+  /**
+   * The mapper used to serialize the auto-save recommendations.
+   */
+  private static final ObjectMapper objectMapper = new ObjectMapper();
 
   /**
    * Flag indicating whether documents should be locked on open.
@@ -29,6 +41,54 @@ public class WebdavPluginConfigExtension extends ServletPluginConfigExtension {
    */
   final static String AUTOSAVE_INTERVAL = "webdav.autosave_interval";
   
+  /**
+   * Flag indicating whether saves of the same document that overlap should be coalesced, 
+   * so that only the latest content is sent.
+   */
+  final static String SAVE_COALESCING = "webdav.save_coalescing";
+  
+  /**
+   * Flag indicating whether the auto-save interval should be adapted to the save latency and error rate of each server.
+   */
+  final static String AUTOSAVE_ADAPTIVE = "webdav.autosave_adaptive";
+  
+  /**
+   * The minimum adapted auto-save interval (in seconds).
+   */
+  final static String AUTOSAVE_MIN_INTERVAL = "webdav.autosave_min_interval";
+  
+  final static int DEFAULT_AUTOSAVE_MIN_INTERVAL = 5;
+  
+  /**
+   * The maximum adapted auto-save interval (in seconds).
+   */
+  final static String AUTOSAVE_MAX_INTERVAL = "webdav.autosave_max_interval";
+  
+  final static int DEFAULT_AUTOSAVE_MAX_INTERVAL = 60;
+  
+  /**
+   * Flag indicating whether the credentials should be sent in the Authorization header 
+   * of every request instead of waiting for the server to ask for them.
+   */
+  final static String PREEMPTIVE_AUTH = "webdav.preemptive_auth";
+  
+  /**
+   * The maximum size (in MB) of the local folder where large resources are cached.
+   */
+  final static String DISK_CACHE_SIZE = "webdav.content_cache.disk_size";
+  
+  final static int DEFAULT_DISK_CACHE_SIZE = 1024;
+  
+  /**
+   * The folder shared by the nodes of a cluster, where the credentials and the lock tokens are stored.
+   */
+  final static String SHARED_STORE_FOLDER = "webdav.shared_store.folder";
+  
+  /**
+   * The settings of individual servers, one server per line. See {@link WebdavServerSettings}.
+   */
+  final static String SERVER_SETTINGS = "webdav.server_settings";
+  
   @Override
   public void init() throws ServletException {
     super.init();
@@ -36,6 +96,14 @@ public class WebdavPluginConfigExtension extends ServletPluginConfigExtension {
     defaultOptions.put(LOCKING_ENABLED, "on");
     defaultOptions.put(ENFORCED_URL, "");
     defaultOptions.put(AUTOSAVE_INTERVAL, defaultAutoSaveInterval);
+    defaultOptions.put(SAVE_COALESCING, "off");
+    defaultOptions.put(AUTOSAVE_ADAPTIVE, "off");
+    defaultOptions.put(AUTOSAVE_MIN_INTERVAL, String.valueOf(DEFAULT_AUTOSAVE_MIN_INTERVAL));
+    defaultOptions.put(AUTOSAVE_MAX_INTERVAL, String.valueOf(DEFAULT_AUTOSAVE_MAX_INTERVAL));
+    defaultOptions.put(PREEMPTIVE_AUTH, "off");
+    defaultOptions.put(DISK_CACHE_SIZE, String.valueOf(DEFAULT_DISK_CACHE_SIZE));
+    defaultOptions.put(SHARED_STORE_FOLDER, "");
+    defaultOptions.put(SERVER_SETTINGS, "");
     setDefaultOptions(defaultOptions);
   }
   
@@ -53,6 +121,14 @@ public class WebdavPluginConfigExtension extends ServletPluginConfigExtension {
     boolean isLockEnabled = "on".equals(optionValue);
     String enforcedUrl = getOption(ENFORCED_URL, "");
     String autosaveInterval = getOption(AUTOSAVE_INTERVAL, defaultAutoSaveInterval);
+    boolean isSaveCoalescing = "on".equals(getOption(SAVE_COALESCING, "off"));
+    boolean isAutosaveAdaptive = "on".equals(getOption(AUTOSAVE_ADAPTIVE, "off"));
+    String autosaveMinInterval = getOption(AUTOSAVE_MIN_INTERVAL, String.valueOf(DEFAULT_AUTOSAVE_MIN_INTERVAL));
+    String autosaveMaxInterval = getOption(AUTOSAVE_MAX_INTERVAL, String.valueOf(DEFAULT_AUTOSAVE_MAX_INTERVAL));
+    boolean isPreemptiveAuth = "on".equals(getOption(PREEMPTIVE_AUTH, "off"));
+    String diskCacheSize = getOption(DISK_CACHE_SIZE, String.valueOf(DEFAULT_DISK_CACHE_SIZE));
+    String sharedStoreFolder = getOption(SHARED_STORE_FOLDER, "");
+    String serverSettings = getOption(SERVER_SETTINGS, "");
     
     StringBuilder optionsForm = new StringBuilder();
     PluginResourceBundle rb = ((WebappPluginWorkspace)PluginWorkspaceProvider.getPluginWorkspace()).getResourceBundle();
@@ -64,6 +140,11 @@ public class WebdavPluginConfigExtension extends ServletPluginConfigExtension {
       .append("<input name='").append(LOCKING_ENABLED).append("' type=\"checkbox\" value=\"on\"")
       .append((isLockEnabled ? "checked" : "")).append("> ").append(rb.getMessage(TranslationTags.LOCK_RESOURCES_ON_OPEN))
       .append("</label>");
+    // preemptive authentication option
+    optionsForm.append("<label style='margin-top:6px;display:block;overflow:hidden'>")
+      .append("<input name='").append(PREEMPTIVE_AUTH).append("' type=\"checkbox\" value=\"on\"")
+      .append((isPreemptiveAuth ? "checked" : "")).append("> ").append(rb.getMessage(TranslationTags.SEND_CREDENTIALS_PREEMPTIVELY))
+      .append("</label>");
     // autosave interval
     optionsForm.append("<label style='margin-top:6px;display:block;overflow:hidden'>")
       .append(rb.getMessage(TranslationTags.AUTOSAVE_INTERVAL)).append(": ")
@@ -71,6 +152,58 @@ public class WebdavPluginConfigExtension extends ServletPluginConfigExtension {
       .append("style='width: 50px;text-align:center;'/>")
       .append(" ").append(rb.getMessage(TranslationTags.SECONDS))
       .append("</label>");
+    // adaptive autosave interval
+    optionsForm.append("<label style='margin-top:6px;display:block;overflow:hidden'>")
+      .append("<input name='").append(AUTOSAVE_ADAPTIVE).append("' type=\"checkbox\" value=\"on\"")
+      .append((isAutosaveAdaptive ? "checked" : "")).append("> ").append(rb.getMessage(TranslationTags.ADAPT_AUTOSAVE_INTERVAL))
+      .append("</label>");
+    optionsForm.append("<label style='margin-top:6px;display:block;overflow:hidden'>")
+      .append(rb.getMessage(TranslationTags.MIN_AUTOSAVE_INTERVAL)).append(": ")
+      .append("<input min='0' value='").append(autosaveMinInterval).append("'name='").append(AUTOSAVE_MIN_INTERVAL).append("' type='number'")
+      .append("style='width: 50px;text-align:center;'/>")
+      .append(" ").append(rb.getMessage(TranslationTags.SECONDS))
+      .append("</label>");
+    optionsForm.append("<label style='margin-top:6px;display:block;overflow:hidden'>")
+      .append(rb.getMessage(TranslationTags.MAX_AUTOSAVE_INTERVAL)).append(": ")
+      .append("<input min='0' value='").append(autosaveMaxInterval).append("'name='").append(AUTOSAVE_MAX_INTERVAL).append("' type='number'")
+      .append("style='width: 50px;text-align:center;'/>")
+      .append(" ").append(rb.getMessage(TranslationTags.SECONDS))
+      .append("</label>");
+    // save coalescing option
+    optionsForm.append("<label style='margin-top:6px;display:block;overflow:hidden'>")
+      .append("<input name='").append(SAVE_COALESCING).append("' type=\"checkbox\" value=\"on\"")
+      .append((isSaveCoalescing ? "checked" : "")).append("> ").append(rb.getMessage(TranslationTags.COALESCE_OVERLAPPING_SAVES))
+      .append("</label>");
+    // disk cache size
+    optionsForm.append("<label style='margin-top:6px;display:block;overflow:hidden'>")
+      .append(rb.getMessage(TranslationTags.DISK_CACHE_SIZE)).append(": ")
+      .append("<input min='0' value='").append(diskCacheSize).append("'name='").append(DISK_CACHE_SIZE).append("' type='number'")
+      .append("style='width: 70px;text-align:center;'/>")
+      .append(" MB")
+      .append("</label>");
+    // shared store folder
+    optionsForm.append("<label style='margin-top:6px;display:block;'>")
+      .append(rb.getMessage(TranslationTags.SHARED_STORE_FOLDER)).append(": ")
+      .append("<input name='").append(SHARED_STORE_FOLDER)
+      .append("' type='text' style='color:#606060;background-color:#FAFAFA;")
+      .append(
+        "-webkit-box-sizing: border-box;-moz-box-sizing: border-box;box-sizing: border-box;display: inline-block;")
+      .append("width:75%;border-radius:4px;border:1px solid #E4E4E4;padding:6px 4px' value='")
+      .append(sharedStoreFolder).append("'/>")
+      .append("</label>");
+    // per-server settings
+    optionsForm.append("<label style='margin-top:6px;display:block;'>")
+      .append(rb.getMessage(TranslationTags.SERVER_SETTINGS)).append(": ")
+      .append("<textarea name='").append(SERVER_SETTINGS)
+      .append("' rows='3' placeholder='https://dav.example.com compress-uploads=on' style='color:#606060;background-color:#FAFAFA;")
+      .append(
+        "-webkit-box-sizing: border-box;-moz-box-sizing: border-box;box-sizing: border-box;display: block;")
+      .append("width:100%;border-radius:4px;border:1px solid #E4E4E4;padding:6px 4px;font-family:monospace'>")
+      .append(HtmlEscapers.htmlEscaper().escape(serverSettings)).append("</textarea>")
+      .append("</label>");
+    optionsForm.append("<div style='background-color: lightyellow;border: 1px solid #dadab4; padding: 8px;margin-top: 5px;'>")
+      .append(rb.getMessage(TranslationTags.SERVER_SETTINGS_NOTE))
+      .append("</div>");
     // enforced URL
     optionsForm.append("<label style='margin-top:6px;display:block;'>")
       .append(rb.getMessage(TranslationTags.ENFORCED_SERVER)).append(": ")
@@ -100,8 +233,60 @@ public class WebdavPluginConfigExtension extends ServletPluginConfigExtension {
     return "{"
         + "\"hide_connector_tab\":\"" + getOption(HIDE_CONNECTOR_TAB, "") + "\"," 
         + "\"webdav_autosave_interval\":\"" + getOption(AUTOSAVE_INTERVAL, defaultAutoSaveInterval) + "\","
+        + "\"webdav_autosave_recommendations\":" + getAutosaveRecommendationsJson() + ","
+        + "\"webdav_autosave_adaptive\":\"" + getOption(AUTOSAVE_ADAPTIVE, "off") + "\","
+        + "\"webdav_autosave_min_interval\":\"" + getOption(AUTOSAVE_MIN_INTERVAL, String.valueOf(DEFAULT_AUTOSAVE_MIN_INTERVAL)) + "\","
+        + "\"webdav_autosave_max_interval\":\"" + getOption(AUTOSAVE_MAX_INTERVAL, String.valueOf(DEFAULT_AUTOSAVE_MAX_INTERVAL)) + "\","
         + "\"enforced_webdav_server\":\"" + getOption(ENFORCED_URL, "") + "\"," 
         + "\"lock_on_open\":\"" + getOption(LOCKING_ENABLED, "on")
         + "\"}";
   }
+
+  /**
+   * @return The recommended auto-save intervals keyed by server, as a JSON string literal 
+   * that contains a JSON object. It is empty if the interval should not be adapted.
+   */
+  private String getAutosaveRecommendationsJson() {
+    try {
+      return objectMapper.writeValueAsString(objectMapper.writeValueAsString(getAutosaveRecommendations()));
+    } catch (JsonProcessingException e) {
+      return "\"{}\"";
+    }
+  }
+
+  /**
+   * @return The recommended auto-save intervals keyed by server. It is empty if the interval 
+   * should not be adapted.
+   */
+  static Map<String, Integer> getAutosaveRecommendations() {
+    WSOptionsStorage optionsStorage = PluginWorkspaceProvider.getPluginWorkspace().getOptionsStorage();
+    if (!"on".equals(optionsStorage.getOption(AUTOSAVE_ADAPTIVE, "off"))) {
+      return Collections.emptyMap();
+    }
+    int interval = getIntOption(optionsStorage, AUTOSAVE_INTERVAL, Integer.parseInt(defaultAutoSaveInterval));
+    if (interval <= 0) {
+      return Collections.emptyMap();
+    }
+    return AutosaveAdvisor.getRecommendedIntervals(interval, 
+        getIntOption(optionsStorage, AUTOSAVE_MIN_INTERVAL, DEFAULT_AUTOSAVE_MIN_INTERVAL),
+        getIntOption(optionsStorage, AUTOSAVE_MAX_INTERVAL, DEFAULT_AUTOSAVE_MAX_INTERVAL));
+  }
+
+  /**
+   * Reads an integer option.
+   * 
+   * @param optionsStorage The options storage.
+   * @param key The key of the option.
+   * @param defaultValue The value to use if the option is missing or invalid.
+   * 
+   * @return The value of the option.
+   */
+  static int getIntOption(WSOptionsStorage optionsStorage, String key, int defaultValue) {
+    String value = optionsStorage.getOption(key, String.valueOf(defaultValue));
+    try {
+      return value != null ? Integer.parseInt(value.trim()) : defaultValue;
+    } catch (NumberFormatException e) {
+      return defaultValue;
+    }
+  }
 }
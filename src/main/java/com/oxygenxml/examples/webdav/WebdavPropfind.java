@@ -0,0 +1,150 @@
+package com.oxygenxml.examples.webdav;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import ro.sync.basic.util.URLUtil;
+import ro.sync.net.protocol.FolderEntryDescriptor;
+
+/**
+ * Helper for making PROPFIND requests.
+ */
+final class WebdavPropfind {
+  
+  /**
+   * Private constructor.
+   */
+  private WebdavPropfind() {
+  }
+  
+  /**
+   * Sends a PROPFIND request for the properties reported by {@link MultistatusParser}.
+   * 
+   * @param connection The connection, not yet connected.
+   * @param depth The value of the Depth header.
+   * 
+   * @return The stream of the multistatus response.
+   * 
+   * @throws IOException If the request fails.
+   */
+  static InputStream send(HttpURLConnection connection, String depth) throws IOException {
+    connection.setRequestMethod("PROPFIND");
+    connection.setRequestProperty("Depth", depth);
+    connection.setRequestProperty("Content-Type", "application/xml; charset=utf-8");
+    connection.setDoInput(true);
+    connection.setDoOutput(true);
+    
+    OutputStream outputStream = connection.getOutputStream();
+    try {
+      outputStream.write(MultistatusParser.PROPFIND_BODY.getBytes(StandardCharsets.UTF_8));
+    } finally {
+      outputStream.close();
+    }
+    return connection.getInputStream();
+  }
+  
+  /**
+   * Lists the members of a collection.
+   * 
+   * @param connection The connection to the collection, not yet connected.
+   * 
+   * @return The members of the collection, with WebDAV URLs.
+   * 
+   * @throws IOException If the request fails.
+   */
+  static List<FolderEntryDescriptor> listFolder(HttpURLConnection connection) throws IOException {
+    final List<FolderEntryDescriptor> entries = new ArrayList<>();
+    listFolder(connection, entry -> {
+      entries.add(entry);
+      return true;
+    });
+    return entries;
+  }
+  
+  /**
+   * Lists the members of a collection, reporting them as soon as they are parsed.
+   * 
+   * @param connection The connection to the collection, not yet connected.
+   * @param handler Receives the members of the collection, with WebDAV URLs. 
+   * It returns <code>false</code> to stop the listing.
+   * 
+   * @throws IOException If the request fails.
+   */
+  static void listFolder(HttpURLConnection connection, FolderEntryHandler handler) throws IOException {
+    parseFolder(connection.getURL(), send(connection, "1"), handler);
+  }
+  
+  /**
+   * Parses the Depth:1 PROPFIND response of a collection, reporting the members as soon as they are parsed.
+   * 
+   * @param folderUrl The URL of the collection.
+   * @param inputStream The stream of the multistatus response. It is closed at the end.
+   * @param handler Receives the members of the collection, with WebDAV URLs. 
+   * It returns <code>false</code> to stop the listing.
+   * 
+   * @throws IOException If the response cannot be read.
+   */
+  static void parseFolder(final URL folderUrl, InputStream inputStream, FolderEntryHandler handler) 
+      throws IOException {
+    final String folderPath = normalizePath(folderUrl.getPath());
+    try {
+      MultistatusParser.parse(inputStream, entry -> {
+        URL entryUrl = new URL(folderUrl, entry.getHref());
+        if (normalizePath(entryUrl.getPath()).equals(folderPath)) {
+          // The collection itself.
+          return true;
+        }
+        String location = WebdavURLHandlerExtension.WEBDAV + URLUtil.clearUserInfo(entryUrl).toExternalForm();
+        if (entry.isCollection() && !location.endsWith("/")) {
+          location += "/";
+        }
+        long size = entry.isCollection() ? -1 : entry.getContentLength();
+        return handler.handle(new WebdavFolderEntry(location, size,
+            WebdavFolderEntry.parseDate(entry.getLastModified())));
+      });
+    } finally {
+      inputStream.close();
+    }
+  }
+  
+  /**
+   * Receives the members of a collection.
+   */
+  interface FolderEntryHandler {
+    /**
+     * Called for each member of the collection.
+     * 
+     * @param entry The member.
+     * 
+     * @return <code>false</code> to stop the listing.
+     * 
+     * @throws IOException If the entry cannot be handled.
+     */
+    boolean handle(FolderEntryDescriptor entry) throws IOException;
+  }
+  
+  /**
+   * Normalizes a path, so that differently encoded paths of the same resource can be compared.
+   * 
+   * @param path The path.
+   * 
+   * @return The decoded path, without the trailing slash.
+   */
+  static String normalizePath(String path) {
+    String decoded = path;
+    try {
+      decoded = URLDecoder.decode(path.replace("+", "%2B"), "UTF-8");
+    } catch (UnsupportedEncodingException | IllegalArgumentException e) {
+      // Compare the raw path.
+    }
+    return decoded.endsWith("/") ? decoded.substring(0, decoded.length() - 1) : decoded;
+  }
+}
@@ -0,0 +1,239 @@
+package com.oxygenxml.examples.webdav;
+
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import lombok.extern.slf4j.Slf4j;
+import ro.sync.exml.workspace.api.PluginWorkspaceProvider;
+import ro.sync.exml.workspace.api.options.WSOptionsStorage;
+
+/**
+ * The settings configured by the administrator for a WebDAV server.
+ *
+ * The settings are read from the {@link WebdavPluginConfigExtension#SERVER_SETTINGS} option,
+ * which has one line for each server: the URL of the server followed by <code>name=value</code>
+ * pairs, for example:
+ * <pre>https://dav.example.com compress-uploads=on</pre>
+ */
+@Slf4j
+final class WebdavServerSettings {
+
+  /**
+   * Whether the server is asked to compress the responses. On by default.
+   */
+  static final String COMPRESS_RESPONSES = "compress-responses";
+
+  /**
+   * Whether the saved content is compressed. Off by default, since not all servers support it.
+   */
+  static final String COMPRESS_UPLOADS = "compress-uploads";
+
+  /**
+   * The number of seconds to wait for a connection to the server.
+   */
+  static final String CONNECT_TIMEOUT = "connect-timeout";
+
+  /**
+   * The number of seconds to wait for data from the server.
+   */
+  static final String READ_TIMEOUT = "read-timeout";
+
+  /**
+   * The default number of seconds to wait for a connection to the server.
+   */
+  private static final int DEFAULT_CONNECT_TIMEOUT = 20;
+
+  /**
+   * The default number of seconds to wait for data from the server.
+   */
+  private static final int DEFAULT_READ_TIMEOUT = 120;
+
+  /**
+   * The settings used for the servers that are not configured.
+   */
+  private static final WebdavServerSettings DEFAULT_SETTINGS =
+      new WebdavServerSettings(Collections.<String, String>emptyMap());
+
+  /**
+   * The settings parsed from the last value of the option, replaced when the option changes.
+   */
+  private static volatile Snapshot snapshot = new Snapshot("", Collections.<String, WebdavServerSettings>emptyMap());
+
+  /**
+   * The settings parsed from a value of the option.
+   */
+  private static final class Snapshot {
+    /**
+     * The option value from which the settings were parsed.
+     */
+    final String option;
+    /**
+     * The settings keyed by server, not modifiable.
+     */
+    final Map<String, WebdavServerSettings> settingsByServer;
+
+    /**
+     * Constructor.
+     *
+     * @param option The option value from which the settings were parsed.
+     * @param settingsByServer The settings keyed by server, not modifiable.
+     */
+    Snapshot(String option, Map<String, WebdavServerSettings> settingsByServer) {
+      this.option = option;
+      this.settingsByServer = settingsByServer;
+    }
+  }
+
+  /**
+   * The setting values keyed by name.
+   */
+  private final Map<String, String> values;
+
+  /**
+   * Constructor.
+   *
+   * @param values The setting values keyed by name.
+   */
+  private WebdavServerSettings(Map<String, String> values) {
+    this.values = values;
+  }
+
+  /**
+   * @param url The HTTP or WebDAV URL of a resource.
+   *
+   * @return The settings of the server of the resource.
+   */
+  static WebdavServerSettings get(URL url) {
+    WebdavServerSettings settings = getSettingsByServer().get(getServerKey(url));
+    return settings != null ? settings : DEFAULT_SETTINGS;
+  }
+
+  /**
+   * @return <code>true</code> if the server should be asked to compress the responses.
+   */
+  boolean isCompressResponses() {
+    return getBoolean(COMPRESS_RESPONSES, true);
+  }
+
+  /**
+   * @return <code>true</code> if the saved content should be compressed.
+   */
+  boolean isCompressUploads() {
+    return getBoolean(COMPRESS_UPLOADS, false);
+  }
+
+  /**
+   * @return The number of milliseconds to wait for a connection to the server.
+   */
+  int getConnectTimeoutMillis() {
+    return (int) TimeUnit.SECONDS.toMillis(getInt(CONNECT_TIMEOUT, DEFAULT_CONNECT_TIMEOUT));
+  }
+
+  /**
+   * @return The number of milliseconds to wait for data from the server.
+   */
+  int getReadTimeoutMillis() {
+    return (int) TimeUnit.SECONDS.toMillis(getInt(READ_TIMEOUT, DEFAULT_READ_TIMEOUT));
+  }
+
+  /**
+   * @param name The name of the setting.
+   * @param defaultValue The value to use if the setting is missing.
+   *
+   * @return The value of the setting.
+   */
+  boolean getBoolean(String name, boolean defaultValue) {
+    String value = values.get(name);
+    return value != null ? "on".equals(value) || "true".equals(value) : defaultValue;
+  }
+
+  /**
+   * @param name The name of the setting.
+   * @param defaultValue The value to use if the setting is missing or invalid.
+   *
+   * @return The value of the setting.
+   */
+  int getInt(String name, int defaultValue) {
+    String value = values.get(name);
+    try {
+      return value != null ? Integer.parseInt(value) : defaultValue;
+    } catch (NumberFormatException e) {
+      return defaultValue;
+    }
+  }
+
+  /**
+   * @return The settings keyed by server, parsed again if the option changed.
+   */
+  private static Map<String, WebdavServerSettings> getSettingsByServer() {
+    WSOptionsStorage optionsStorage = PluginWorkspaceProvider.getPluginWorkspace().getOptionsStorage();
+    String option = optionsStorage.getOption(WebdavPluginConfigExtension.SERVER_SETTINGS, "");
+    if (option == null) {
+      option = "";
+    }
+    Snapshot current = snapshot;
+    if (!option.equals(current.option)) {
+      // Concurrent requests may parse the same value, but they all publish equal snapshots.
+      current = new Snapshot(option, parse(option));
+      snapshot = current;
+    }
+    return current.settingsByServer;
+  }
+
+  /**
+   * Parses the server settings option.
+   *
+   * @param option The value of the option.
+   *
+   * @return The settings keyed by server.
+   */
+  private static Map<String, WebdavServerSettings> parse(String option) {
+    Map<String, WebdavServerSettings> parsed = new HashMap<>();
+    for (String line : option.split("[\\r\\n;]+")) {
+      String[] tokens = line.trim().split("\\s+");
+      if (tokens[0].isEmpty()) {
+        continue;
+      }
+      try {
+        Map<String, String> values = new HashMap<>();
+        for (int i = 1; i < tokens.length; i++) {
+          int equalsIndex = tokens[i].indexOf('=');
+          if (equalsIndex > 0) {
+            values.put(tokens[i].substring(0, equalsIndex).toLowerCase(Locale.ENGLISH),
+                tokens[i].substring(equalsIndex + 1).toLowerCase(Locale.ENGLISH));
+          }
+        }
+        String serverUrl = tokens[0];
+        if (serverUrl.startsWith(WebdavURLHandlerExtension.WEBDAV)) {
+          serverUrl = serverUrl.substring(WebdavURLHandlerExtension.WEBDAV.length());
+        }
+        parsed.put(getServerKey(new URL(serverUrl)), new WebdavServerSettings(values));
+      } catch (MalformedURLException e) {
+        log.warn("Invalid server URL in the server settings: " + tokens[0]);
+      }
+    }
+    return Collections.unmodifiableMap(parsed);
+  }
+
+  /**
+   * @param url The HTTP or WebDAV URL of a resource.
+   *
+   * @return The key of the server, as <code>protocol://host:port</code>.
+   */
+  private static String getServerKey(URL url) {
+    String protocol = url.getProtocol();
+    if (protocol.startsWith(WebdavURLHandlerExtension.WEBDAV)) {
+      protocol = protocol.substring(WebdavURLHandlerExtension.WEBDAV.length());
+    }
+    int port = url.getPort();
+    if (port == -1) {
+      port = "https".equals(protocol) ? 443 : 80;
+    }
+    return protocol + "://" + url.getHost().toLowerCase(Locale.ENGLISH) + ":" + port;
+  }
+}
@@ -0,0 +1,35 @@
+package com.oxygenxml.examples.webdav;
+
+import java.io.IOException;
+import java.net.URL;
+import java.net.URLConnection;
+
+/**
+ * Transport used to open the HTTP connections to the WebDAV servers.
+ * 
+ * The connections returned by the transport are wrapped in a {@link WebdavUrlConnection}, 
+ * so they should be regular HTTP(S) connections.
+ */
+public interface WebdavTransport {
+  
+  /**
+   * Opens a connection to the given HTTP(S) URL.
+   * 
+   * @param url The URL, it should no longer contain the "webdav-" prefix.
+   * 
+   * @return The connection.
+   * 
+   * @throws IOException If the connection could not be opened.
+   */
+  URLConnection openConnection(URL url) throws IOException;
+  
+  /**
+   * Releases a connection after the request was completed, possibly keeping 
+   * the underlying socket for later requests to the same server.
+   * 
+   * @param connection The connection to release.
+   * 
+   * @throws IOException If the server rejected the request.
+   */
+  void release(URLConnection connection) throws IOException;
+}
@@ -1,16 +1,31 @@
 package com.oxygenxml.examples.webdav;
 
-import java.io.FilterOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.io.SequenceInputStream;
+import java.net.HttpRetryException;
 import java.net.HttpURLConnection;
+import java.net.MalformedURLException;
 import java.net.URL;
 import java.net.URLConnection;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 import org.apache.commons.io.IOUtils;
 
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hasher;
+import com.google.common.io.ByteStreams;
 import com.google.common.io.Closeables;
 
 import lombok.extern.slf4j.Slf4j;
@@ -35,10 +50,105 @@ import ro.sync.net.protocol.http.WebdavLockHelper;
 public class WebdavUrlConnection extends FilterURLConnection 
     implements CacheableUrlConnection {
 
+  /**
+   * The status code sent by the server when the resource is locked.
+   */
+  private static final int LOCKED = 423;
+  
+  /**
+   * The size of the chunks of the uploads whose length is not known in advance.
+   */
+  private static final int UPLOAD_CHUNK_SIZE = 64 * 1024;
+  
+  /**
+   * The methods that change the members of a collection.
+   */
+  private static final Set<String> COLLECTION_CHANGING_METHODS = 
+      new HashSet<>(Arrays.asList("PUT", "DELETE", "MOVE", "COPY", "MKCOL"));
+
+  /**
+   * The maximum size of a response shared with the identical requests made at the same time.
+   * It is buffered only if such requests are waiting for it.
+   */
+  private static final int MAX_SHARED_BYTES = 4 * 1024 * 1024;
+  
+  /**
+   * Coalesces the identical GET requests made at the same time.
+   */
+  private static final SingleFlight<CachedResource> resourceFlights = new SingleFlight<>();
+  
+  /**
+   * Coalesces the identical folder listings made at the same time.
+   */
+  private static final SingleFlight<List<FolderEntryDescriptor>> listingFlights = new SingleFlight<>();
+  
   /**
    * The session ID.
    */
   private String contextId;
+  
+  /**
+   * <code>true</code> if we already decided whether to send the Authorization header preemptively.
+   */
+  private boolean preemptiveAuthorizationAdded;
+  
+  /**
+   * The Authorization header sent preemptively, <code>null</code> if none.
+   */
+  private String preemptiveAuthorization;
+  
+  /**
+   * <code>true</code> if the request was repeated because the server sent a new authentication challenge.
+   */
+  private boolean challengeAnswered;
+  
+  /**
+   * The key of the resource in the content cache, <code>null</code> if the request is not a GET.
+   */
+  private String contentCacheKey;
+  
+  /**
+   * The cached version of the resource that we asked the server to validate.
+   */
+  private CachedResource revalidatedResource;
+  
+  /**
+   * The headers of the GET request sent to the server, <code>null</code> if they are not known.
+   */
+  private Map<String, List<String>> sentRequestHeaders;
+  
+  /**
+   * The cached resource returned to the caller because the server answered with 304 Not Modified.
+   */
+  private CachedResource servedResource;
+  
+  /**
+   * The stream returned by {@link #getInputStream()}.
+   */
+  private InputStream inputStream;
+  
+  /**
+   * <code>true</code> if the response body was compressed by the server and we decode it.
+   */
+  private boolean responseDecoded;
+  
+  /**
+   * The duplicate request whose response is used instead of the one of the delegate connection, 
+   * <code>null</code> if none.
+   */
+  private HttpURLConnection hedgeConnection;
+  
+  /**
+   * The HTTP URLs of the resources changed by the request, whose folder listings 
+   * and URL information should be invalidated after the request.
+   */
+  private List<URL> changedResources;
+  
+  /**
+   * <code>true</code> if the save was skipped or replaced by a newer save, so the request 
+   * of the delegate connection is never sent.
+   */
+  private boolean saveCompleted;
 
   /**
    * Constructor method for the URLConnection wrapper.
@@ -53,50 +163,837 @@ public class WebdavUrlConnection extends FilterURLConnection
   
   @Override
   public void connect() throws IOException {
-    try {
-      super.connect();
-    } catch (IOException e) {
-      handleException(e);
+    if (saveCompleted || inputStream != null) {
+      return;
+    }
+    prepareRequest(getDelegateRequestMethod());
+    long start = System.nanoTime();
+    try (ServerGuard.Permit permit = ServerGuard.acquire(delegateConnection.getURL())) {
+      try {
+        super.connect();
+      } catch (IOException e) {
+        recordFailure(permit, e);
+        handleException(e);
+      }
+    } finally {
+      WebdavMetrics.record(delegateConnection.getURL(), WebdavMetrics.CONNECT, start);
+      invalidateChangedResources();
     }
   }
   
   @Override
   public InputStream getInputStream() throws IOException {
+    if (inputStream != null) {
+      return inputStream;
+    }
+    if (saveCompleted) {
+      // Reading the response of the delegate connection would send an empty PUT.
+      inputStream = new ByteArrayInputStream(new byte[0]);
+      return inputStream;
+    }
+    SingleFlight.Call<CachedResource> flight = joinResourceFlight();
+    if (flight != null && !flight.isLeader()) {
+      CachedResource sharedResource = resourceFlights.await(flight);
+      if (sharedResource != null) {
+        try {
+          inputStream = sharedResource.openStream();
+          servedResource = sharedResource;
+          return inputStream;
+        } catch (IOException e) {
+          // The shared body was evicted from the disk cache.
+          log.debug("Cannot read the shared response", e);
+        }
+      }
+      flight = null;
+    }
+    
+    CachedResource sharedResource = null;
+    prepareRequest(getDelegateRequestMethod());
+    ServerGuard.Permit permit = null;
     try {
-      return super.getInputStream();
+      permit = ServerGuard.acquire(delegateConnection.getURL());
+      long requestStart = System.nanoTime();
+      try {
+        inputStream = handleCachedResponse(decodeResponse(sendRequest()));
+      } catch (IOException e) {
+        recordFailure(permit, e);
+        throw e;
+      } finally {
+        permit.close();
+        WebdavMetrics.record(delegateConnection.getURL(), getDelegateRequestMethod(), requestStart);
+      }
+      if (flight != null) {
+        if (resourceFlights.hasWaiters(flight)) {
+          sharedResource = readSharedResponse();
+        } else {
+          // Nobody waits for the response, so it is streamed instead of buffered.
+          // The requests made from now on do not wait for it.
+          resourceFlights.complete(flight, null);
+          flight = null;
+        }
+      }
+      return inputStream;
     } catch (IOException e) {
+      if (permit == null) {
+        // The request was not sent.
+        throw e;
+      }
       handleException(e);
       
       // Unreachable.
       return null;
+    } finally {
+      if (flight != null) {
+        resourceFlights.complete(flight, sharedResource);
+      }
+      invalidateChangedResources();
     }
   }
   
+  /**
+   * Sends the request, duplicating a slow GET request if hedging is enabled for the server.
+   * 
+   * @return The stream of the response.
+   * 
+   * @throws IOException If the request fails.
+   */
+  private InputStream sendRequest() throws IOException {
+    if (!(delegateConnection instanceof HttpURLConnection) || !"GET".equals(getDelegateRequestMethod())) {
+      return super.getInputStream();
+    }
+    final HttpURLConnection connection = (HttpURLConnection) delegateConnection;
+    final Map<String, List<String>> requestHeaders = getRequestHeaders();
+    sentRequestHeaders = requestHeaders;
+    HedgedRequests.Response response;
+    try {
+      response = HedgedRequests.send("GET", connection, 
+          c -> c == connection ? super.getInputStream() : c.getInputStream(), 
+          () -> duplicateRequest(requestHeaders, "GET"));
+    } catch (IOException e) {
+      HttpURLConnection retry = repeatAfterChallenge(e, requestHeaders, "GET");
+      if (retry == null) {
+        throw e;
+      }
+      return retry.getInputStream();
+    }
+    if (response.getConnection() != connection) {
+      hedgeConnection = response.getConnection();
+    }
+    return response.getBody();
+  }
+  
+  /**
+   * @return The headers of the request, <code>null</code> if the delegate connection was already opened.
+   */
+  private Map<String, List<String>> getRequestHeaders() {
+    try {
+      return delegateConnection.getRequestProperties();
+    } catch (IllegalStateException e) {
+      // The connection was already opened by a header query.
+      return null;
+    }
+  }
+  
+  /**
+   * Opens a connection that repeats the request of the delegate connection.
+   * 
+   * @param requestHeaders The headers of the request.
+   * @param method The HTTP method of the request.
+   * 
+   * @return The new connection, not yet connected.
+   * 
+   * @throws IOException If the request cannot be repeated.
+   */
+  private HttpURLConnection duplicateRequest(Map<String, List<String>> requestHeaders, String method) 
+      throws IOException {
+    if (requestHeaders == null) {
+      throw new IOException("The request headers are not known.");
+    }
+    URL url = delegateConnection.getURL();
+    HttpURLConnection duplicate = (HttpURLConnection) WebdavUrlStreamHandler.getTransport().openConnection(url);
+    duplicate.setConnectTimeout(delegateConnection.getConnectTimeout());
+    duplicate.setReadTimeout(delegateConnection.getReadTimeout());
+    duplicate.setInstanceFollowRedirects(((HttpURLConnection) delegateConnection).getInstanceFollowRedirects());
+    for (Map.Entry<String, List<String>> header : requestHeaders.entrySet()) {
+      if (header.getKey() != null) {
+        for (String value : header.getValue()) {
+          duplicate.addRequestProperty(header.getKey(), value);
+        }
+      }
+    }
+    if (preemptiveAuthorization != null) {
+      // The credentials are not among the readable headers, and a digest cannot be reused.
+      String authorization = WebdavUrlStreamHandler.getPreemptiveAuthorization(contextId, url, method);
+      if (authorization != null) {
+        duplicate.setRequestProperty(PreemptiveAuthentication.AUTHORIZATION, authorization);
+      }
+    }
+    return duplicate;
+  }
+  
+  /**
+   * Repeats a request rejected with 401 because the server sent a new Digest challenge or 
+   * reported that our nonce is stale, so that valid credentials do not end up in a login 
+   * prompt. The request is repeated only once.
+   * 
+   * @param e The exception thrown by the request.
+   * @param requestHeaders The headers of the request.
+   * @param method The HTTP method of the request.
+   * 
+   * @return The connection that repeats the request, not yet connected, or <code>null</code> 
+   * if the request should not be repeated.
+   * 
+   * @throws IOException If the request cannot be repeated.
+   */
+  private HttpURLConnection repeatAfterChallenge(IOException e, Map<String, List<String>> requestHeaders, 
+      String method) throws IOException {
+    if (challengeAnswered || preemptiveAuthorization == null || requestHeaders == null || !isUnauthorized(e)
+        || !WebdavUrlStreamHandler.recordChallenge(contextId, delegateConnection, preemptiveAuthorization)) {
+      return null;
+    }
+    challengeAnswered = true;
+    log.debug("Repeating the request with the new authentication challenge");
+    HttpURLConnection retry = duplicateRequest(requestHeaders, method);
+    hedgeConnection = retry;
+    return retry;
+  }
+  
+  /**
+   * @return The HTTP status code of the response, or -1 if the response is not a valid HTTP response.
+   * 
+   * @throws IOException If the request fails.
+   */
+  public int getResponseCode() throws IOException {
+    if (saveCompleted) {
+      return HttpURLConnection.HTTP_OK;
+    }
+    URLConnection responseConnection = getResponseConnection();
+    return responseConnection instanceof HttpURLConnection 
+        ? ((HttpURLConnection) responseConnection).getResponseCode() : -1;
+  }
+  
+  /**
+   * @return The connection that received the response.
+   */
+  private URLConnection getResponseConnection() {
+    return hedgeConnection != null ? hedgeConnection : delegateConnection;
+  }
+  
+  /**
+   * Joins an identical GET request made at the same time, if any.
+   * 
+   * @return The call, <code>null</code> if the request cannot be shared.
+   */
+  private SingleFlight.Call<CachedResource> joinResourceFlight() {
+    if (!(delegateConnection instanceof HttpURLConnection) || !"GET".equals(getDelegateRequestMethod())) {
+      return null;
+    }
+    try {
+      if (delegateConnection.getRequestProperty("Range") != null) {
+        return null;
+      }
+    } catch (IllegalStateException e) {
+      // The connection was already opened by a header query.
+      return null;
+    }
+    return resourceFlights.join(getFlightKey("GET"));
+  }
+  
+  /**
+   * Reads the whole response so that it can be shared with the identical requests made 
+   * at the same time.
+   * 
+   * @return The response, or <code>null</code> if it cannot be shared.
+   * 
+   * @throws IOException If the response cannot be read.
+   */
+  private CachedResource readSharedResponse() throws IOException {
+    if (servedResource != null) {
+      // Not modified.
+      return servedResource;
+    }
+    if (((HttpURLConnection) getResponseConnection()).getResponseCode() != HttpURLConnection.HTTP_OK 
+        || getContentLengthLong() > MAX_SHARED_BYTES) {
+      return null;
+    }
+    byte[] body = ByteStreams.toByteArray(ByteStreams.limit(inputStream, MAX_SHARED_BYTES + 1L));
+    if (body.length > MAX_SHARED_BYTES) {
+      inputStream = new SequenceInputStream(new ByteArrayInputStream(body), inputStream);
+      return null;
+    }
+    inputStream.close();
+    CachedResource sharedResource = new CachedResource(body, getHeaderField("ETag"), 
+        getHeaderField("Last-Modified"), getContentType());
+    servedResource = sharedResource;
+    inputStream = sharedResource.openStream();
+    return sharedResource;
+  }
+  
+  /**
+   * @param method The HTTP method of the request.
+   * 
+   * @return The key that identifies the request and the credentials used for it.
+   */
+  private String getFlightKey(String method) {
+    URL url = delegateConnection.getURL();
+    return method + " " + URLUtil.clearUserInfo(url).toExternalForm() 
+        + "|" + WebdavUrlStreamHandler.computePrincipal(contextId, url);
+  }
+  
+  /**
+   * @return The number of requests answered with the response of an identical request.
+   */
+  static long getCoalescedRequestCount() {
+    return resourceFlights.getCoalescedCount() + listingFlights.getCoalescedCount();
+  }
+  
   @Override
   public OutputStream getOutputStream() throws IOException {
     // Before trying to save a resource, add the lock header if we have one.
     new WebdavLockHelper().addLockHeader(
         this.contextId, (HttpURLConnection) delegateConnection);
+    // The lock may have been obtained by another node of the cluster.
+    SharedLockTokens.addLockHeader(this.contextId, (HttpURLConnection) delegateConnection);
     this.addRequestProperty("X-Requested-With", "WA");
+    addPreemptiveAuthorization("PUT");
+    return new SaveOutputStream();
+  }
+  
+  /**
+   * @return The output stream of the delegate connection.
+   * 
+   * @throws IOException If the request fails.
+   */
+  private OutputStream getRequestOutputStream() throws IOException {
+    return super.getOutputStream();
+  }
+  
+  /**
+   * Stream that sends the saved content to the server. 
+   * 
+   * The content is buffered and hashed, so that the request is not sent if the content 
+   * is the same as the one last saved by this session. Large contents are sent directly.
+   * 
+   * The buffered saves of a resource can also be coalesced by {@link SaveCoalescer}.
+   */
+  private class SaveOutputStream extends OutputStream {
+    /**
+     * The key of the resource for the save deduplication.
+     */
+    private final String saveKey = SaveDeduplicator.getKey(contextId, delegateConnection.getURL());
+    
+    /**
+     * The buffered content, <code>null</code> after it was sent to the server.
+     */
+    private ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+    
+    /**
+     * Computes the hash of the buffered content.
+     */
+    private final Hasher hasher = SaveDeduplicator.getHashFunction().newHasher();
+    
+    /**
+     * The stream of the request, <code>null</code> while the content is buffered.
+     */
+    private OutputStream requestStream;
+    
+    /**
+     * The {@link System#nanoTime()} when the request was started.
+     */
+    private long requestStart;
+    
+    /**
+     * The place in the bulkhead of the server, held while the request is in flight.
+     */
+    private ServerGuard.Permit permit;
+    
+    /**
+     * <code>true</code> after the stream was closed.
+     */
+    private boolean closed;
+    
+    @Override
+    public void write(int b) throws IOException {
+      write(new byte[] {(byte) b}, 0, 1);
+    }
+    
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+      if (requestStream != null) {
+        requestStream.write(b, off, len);
+        return;
+      }
+      buffer.write(b, off, len);
+      hasher.putBytes(b, off, len);
+      if (buffer.size() > SaveDeduplicator.MAX_HASHED_BYTES) {
+        // Too large to keep in memory.
+        openRequestStream(false);
+      }
+    }
+    
+    @Override
+    public void flush() throws IOException {
+      if (requestStream != null) {
+        requestStream.flush();
+      }
+    }
+    
+    @Override
+    public void close() throws IOException {
+      if (closed) {
+        return;
+      }
+      closed = true;
+      
+      if (requestStream != null) {
+        send(null);
+        return;
+      }
+      
+      final HashCode hash = hasher.hash();
+      if (SaveCoalescer.isEnabled()) {
+        // Only one save is in flight for the resource and the older waiting ones are dropped.
+        SaveCoalescer.save(saveKey, () -> sendBuffered(hash));
+      } else {
+        sendBuffered(hash);
+      }
+      if (requestStream == null) {
+        // The content was already saved, by this session or by the newer save.
+        saveCompleted = true;
+      }
+    }
+    
+    /**
+     * Sends the buffered content, unless it is the same as the one last saved.
+     * 
+     * @param hash The hash of the content.
+     * 
+     * @throws IOException If the request fails.
+     */
+    private void sendBuffered(HashCode hash) throws IOException {
+      // While we hold the lock, nobody else could have changed the resource.
+      if (SaveDeduplicator.isUnchanged(saveKey, hash) && 
+          LockRefreshScheduler.isHeld(contextId, delegateConnection.getURL())) {
+        log.debug("Skipped saving unchanged content.");
+        SaveDeduplicator.recordSkipped(buffer.size());
+        return;
+      }
+      openRequestStream(true);
+      send(hash);
+    }
+    
+    /**
+     * Completes the request.
+     * 
+     * @param hash The hash of the content, <code>null</code> if it is unknown.
+     * 
+     * @throws IOException If the request fails.
+     */
+    private void send(HashCode hash) throws IOException {
+      boolean failed = false;
+      try {
+        requestStream.close();
+        // The breaker should judge the server by its response time, not by the upload of the content.
+        permit.requestSent();
+        if (delegateConnection instanceof HttpURLConnection) {
+          ((HttpURLConnection) delegateConnection).getResponseCode();
+        }
+        permit.responseStarted();
+        
+        WebdavUrlStreamHandler.getTransport().release(delegateConnection);
+        // The response was drained when the connection was released, so reading it again 
+        // must not go through the request path a second time.
+        inputStream = new ByteArrayInputStream(new byte[0]);
+        SaveDeduplicator.saved(saveKey, hash);
+      } catch (IOException e) {
+        // Authentication problems do not say anything about the server load.
+        failed = !isUnauthorized(e) && !isLockRejection();
+        recordFailure(permit, e);
+        SaveDeduplicator.invalidate(saveKey);
+        handleException(e);
+      } finally {
+        permit.close();
+        WebdavMetrics.record(delegateConnection.getURL(), WebdavMetrics.PUT, requestStart);
+        AutosaveAdvisor.recordSave(delegateConnection.getURL(), System.nanoTime() - requestStart, failed);
+        // Our cached information about the resource is obsolete.
+        WebdavContentCache.invalidate(WebdavContentCache.getKey(delegateConnection.getURL()));
+        UrlInfoCache.invalidate(delegateConnection.getURL());
+        FolderListingCache.invalidate(delegateConnection.getURL());
+      }
+    }
+    
+    /**
+     * Opens the request stream and sends the buffered content.
+     * 
+     * @param complete <code>true</code> if the buffer holds the whole content.
+     * 
+     * @throws IOException If the request fails.
+     */
+    private void openRequestStream(boolean complete) throws IOException {
+      permit = ServerGuard.acquire(delegateConnection.getURL());
+      requestStart = System.nanoTime();
+      boolean compress = requestCompressedUpload();
+      try {
+        ByteArrayOutputStream body = buffer;
+        if (compress && complete) {
+          body = ContentCompression.compress(buffer);
+        }
+        setStreamingMode(complete ? body.size() : -1);
+        requestStream = getRequestOutputStream();
+        if (compress && !complete) {
+          requestStream = ContentCompression.compressingStream(requestStream);
+        }
+        body.writeTo(requestStream);
+      } catch (IOException e) {
+        recordFailure(permit, e);
+        permit.close();
+        SaveDeduplicator.invalidate(saveKey);
+        handleException(e);
+      }
+      buffer = null;
+    }
+  }
+
+  /**
+   * Announces that the request body is compressed, if the server accepts compressed uploads.
+   * 
+   * @return <code>true</code> if the request body should be compressed.
+   */
+  private boolean requestCompressedUpload() {
+    if (!(delegateConnection instanceof HttpURLConnection) 
+        || !WebdavServerSettings.get(delegateConnection.getURL()).isCompressUploads()) {
+      return false;
+    }
     try {
-      return new FilterOutputStream(super.getOutputStream()) {
-        @Override
-        public void close() throws IOException {
-          try {
-            super.close();
-            
-            URLUtil.disconnect(delegateConnection);
-          } catch (IOException e) {
-            handleException(e);
-          }
+      delegateConnection.setRequestProperty("Content-Encoding", ContentCompression.UPLOAD_ENCODING);
+      return true;
+    } catch (IllegalStateException e) {
+      // The connection was already opened by a header query.
+      log.debug("Could not compress the request body", e);
+      return false;
+    }
+  }
+  
+  /**
+   * Makes the delegate connection stream the request body instead of buffering it 
+   * to compute its length.
+   * 
+   * @param length The length of the body, -1 if it is not known.
+   */
+  private void setStreamingMode(long length) {
+    if (!(delegateConnection instanceof HttpURLConnection)) {
+      return;
+    }
+    HttpURLConnection httpConnection = (HttpURLConnection) delegateConnection;
+    try {
+      if (length != -1) {
+        httpConnection.setFixedLengthStreamingMode(length);
+      } else {
+        httpConnection.setChunkedStreamingMode(UPLOAD_CHUNK_SIZE);
+      }
+    } catch (IllegalStateException e) {
+      // The connection was already opened by a header query.
+      log.debug("Could not set the streaming mode", e);
+    }
+  }
+
+  @Override
+  public String getContentType() {
+    if (servedResource != null) {
+      return servedResource.getContentType();
+    }
+    return hedgeConnection != null ? hedgeConnection.getContentType() : super.getContentType();
+  }
+  
+  @Override
+  public int getContentLength() {
+    if (servedResource != null) {
+      return (int) servedResource.getLength();
+    }
+    if (responseDecoded) {
+      // The decoded length is not known in advance.
+      return -1;
+    }
+    return hedgeConnection != null ? hedgeConnection.getContentLength() : super.getContentLength();
+  }
+  
+  @Override
+  public long getContentLengthLong() {
+    if (servedResource != null) {
+      return servedResource.getLength();
+    }
+    if (responseDecoded) {
+      return -1;
+    }
+    return hedgeConnection != null ? hedgeConnection.getContentLengthLong() : super.getContentLengthLong();
+  }
+  
+  @Override
+  public String getContentEncoding() {
+    if (servedResource != null || responseDecoded) {
+      return null;
+    }
+    return hedgeConnection != null ? hedgeConnection.getContentEncoding() : super.getContentEncoding();
+  }
+  
+  @Override
+  public String getHeaderField(String name) {
+    if (servedResource != null) {
+      for (Map.Entry<String, List<String>> header : getServedHeaders().entrySet()) {
+        if (header.getKey().equalsIgnoreCase(name)) {
+          return header.getValue().get(0);
         }
-      };
-    } catch (IOException e) {
-      handleException(e);
-      
-      // Unreachable.
+      }
       return null;
     }
+    return hedgeConnection != null ? hedgeConnection.getHeaderField(name) : super.getHeaderField(name);
+  }
+  
+  @Override
+  public Map<String, List<String>> getHeaderFields() {
+    if (servedResource != null) {
+      return getServedHeaders();
+    }
+    return hedgeConnection != null ? hedgeConnection.getHeaderFields() : super.getHeaderFields();
+  }
+  
+  @Override
+  public long getLastModified() {
+    if (servedResource != null) {
+      return Math.max(0, WebdavFolderEntry.parseDate(servedResource.getLastModified()));
+    }
+    return hedgeConnection != null ? hedgeConnection.getLastModified() : super.getLastModified();
+  }
+  
+  /**
+   * @return The headers of the cached or shared response that we serve, so that answering 
+   * a header query does not send the request of the delegate connection.
+   */
+  private Map<String, List<String>> getServedHeaders() {
+    Map<String, List<String>> headers = new LinkedHashMap<>();
+    headers.put("Content-Length", Collections.singletonList(String.valueOf(servedResource.getLength())));
+    if (servedResource.getContentType() != null) {
+      headers.put("Content-Type", Collections.singletonList(servedResource.getContentType()));
+    }
+    if (servedResource.getEtag() != null) {
+      headers.put("ETag", Collections.singletonList(servedResource.getEtag()));
+    }
+    if (servedResource.getLastModified() != null) {
+      headers.put("Last-Modified", Collections.singletonList(servedResource.getLastModified()));
+    }
+    return Collections.unmodifiableMap(headers);
+  }
+  
+  /**
+   * Adds the request headers before the delegate connection is opened.
+   * 
+   * @param method The HTTP method of the request.
+   */
+  private void prepareRequest(String method) {
+    addPreemptiveAuthorization(method);
+    if ("GET".equals(method)) {
+      addConditionalHeaders();
+      addAcceptEncoding();
+    } else if (COLLECTION_CHANGING_METHODS.contains(method)) {
+      recordChangedResources();
+    }
+  }
+  
+  /**
+   * Records the resources changed by the request, before the request headers become inaccessible.
+   */
+  private void recordChangedResources() {
+    if (changedResources != null) {
+      return;
+    }
+    changedResources = new ArrayList<>();
+    changedResources.add(delegateConnection.getURL());
+    try {
+      String destination = delegateConnection.getRequestProperty("Destination");
+      if (destination != null) {
+        changedResources.add(new URL(delegateConnection.getURL(), destination));
+      }
+    } catch (IllegalStateException | MalformedURLException e) {
+      log.debug("Could not read the destination of the request", e);
+    }
+  }
+  
+  /**
+   * Invalidates the folder listings and the URL information changed by the request.
+   */
+  private void invalidateChangedResources() {
+    if (changedResources != null) {
+      for (URL changedResource : changedResources) {
+        FolderListingCache.invalidate(changedResource);
+        UrlInfoCache.invalidate(changedResource);
+      }
+    }
+  }
+  
+  /**
+   * Asks the server to compress the response, if enabled for the server.
+   */
+  private void addAcceptEncoding() {
+    if (!(delegateConnection instanceof HttpURLConnection) 
+        || delegateConnection.getRequestProperty("Accept-Encoding") != null
+        || !WebdavServerSettings.get(delegateConnection.getURL()).isCompressResponses()) {
+      return;
+    }
+    try {
+      delegateConnection.setRequestProperty("Accept-Encoding", ContentCompression.ACCEPTED_ENCODINGS);
+    } catch (IllegalStateException e) {
+      // The connection was already opened by a header query.
+      log.debug("Could not add the Accept-Encoding header", e);
+    }
+  }
+  
+  /**
+   * Decodes the response body if the server compressed it.
+   * 
+   * @param responseStream The stream of the response.
+   * 
+   * @return The decoded stream.
+   * 
+   * @throws IOException If the compressed body is invalid.
+   */
+  private InputStream decodeResponse(InputStream responseStream) throws IOException {
+    String encoding = getResponseConnection().getContentEncoding();
+    if (!ContentCompression.isSupported(encoding)) {
+      return responseStream;
+    }
+    responseDecoded = true;
+    return ContentCompression.decode(encoding, responseStream);
+  }
+  
+  /**
+   * Adds the headers that allow the server to answer with 304 Not Modified if our 
+   * cached version of the resource is up-to-date.
+   */
+  private void addConditionalHeaders() {
+    if (contentCacheKey != null || !(delegateConnection instanceof HttpURLConnection)) {
+      return;
+    }
+    contentCacheKey = WebdavContentCache.getKey(delegateConnection.getURL());
+    CachedResource cachedResource = WebdavContentCache.get(contentCacheKey);
+    if (cachedResource != null) {
+      try {
+        if (cachedResource.getEtag() != null) {
+          delegateConnection.setRequestProperty("If-None-Match", cachedResource.getEtag());
+        }
+        if (cachedResource.getLastModified() != null) {
+          delegateConnection.setRequestProperty("If-Modified-Since", cachedResource.getLastModified());
+        }
+        revalidatedResource = cachedResource;
+      } catch (IllegalStateException e) {
+        // The connection was already opened by a header query.
+        log.debug("Could not add the conditional headers", e);
+      }
+    }
+  }
+  
+  /**
+   * Serves the cached resource if the server reported that it was not modified, 
+   * otherwise caches the new version while it is read.
+   * 
+   * @param responseStream The stream of the response.
+   * 
+   * @return The stream to return to the caller.
+   * 
+   * @throws IOException If the response code cannot be read.
+   */
+  private InputStream handleCachedResponse(InputStream responseStream) throws IOException {
+    if (contentCacheKey == null) {
+      return responseStream;
+    }
+    int responseCode = ((HttpURLConnection) getResponseConnection()).getResponseCode();
+    if (responseCode == HttpURLConnection.HTTP_NOT_MODIFIED && revalidatedResource != null) {
+      log.debug("Serving cached version of " + contentCacheKey);
+      if (responseStream != null) {
+        responseStream.close();
+      }
+      InputStream cachedBody;
+      try {
+        cachedBody = revalidatedResource.openStream();
+      } catch (IOException e) {
+        // The resource was evicted from the disk cache while we waited for the response.
+        log.debug("Cannot read cached resource", e);
+        WebdavContentCache.invalidate(contentCacheKey);
+        return reloadResource();
+      }
+      WebdavContentCache.recordNotModified();
+      servedResource = revalidatedResource;
+      return cachedBody;
+    }
+    
+    if (responseCode == HttpURLConnection.HTTP_OK) {
+      // The cache sees the decoded length and encoding.
+      return WebdavContentCache.cacheWhileReading(contentCacheKey, this, responseStream);
+    } else {
+      return responseStream;
+    }
+  }
+  
+  /**
+   * Repeats the GET request without the conditional headers, because the cached version 
+   * of the resource can no longer be read.
+   * 
+   * @return The stream of the response, cached while it is read.
+   * 
+   * @throws IOException If the request fails.
+   */
+  private InputStream reloadResource() throws IOException {
+    if (sentRequestHeaders == null) {
+      throw new IOException("The cached version of the resource was evicted.");
+    }
+    Map<String, List<String>> requestHeaders = new HashMap<>(sentRequestHeaders);
+    requestHeaders.remove("If-None-Match");
+    requestHeaders.remove("If-Modified-Since");
+    HttpURLConnection reload = duplicateRequest(requestHeaders, "GET");
+    hedgeConnection = reload;
+    InputStream responseStream = decodeResponse(reload.getInputStream());
+    if (reload.getResponseCode() == HttpURLConnection.HTTP_OK) {
+      return WebdavContentCache.cacheWhileReading(contentCacheKey, this, responseStream);
+    } else {
+      return responseStream;
+    }
+  }
+  
+  /**
+   * Sets the Authorization header on the delegate connection if the credentials should 
+   * be sent preemptively.
+   * 
+   * @param method The HTTP method of the request.
+   */
+  private void addPreemptiveAuthorization(String method) {
+    if (preemptiveAuthorizationAdded || !(delegateConnection instanceof HttpURLConnection)) {
+      return;
+    }
+    preemptiveAuthorizationAdded = true;
+    String authorization = WebdavUrlStreamHandler.getPreemptiveAuthorization(
+        contextId, delegateConnection.getURL(), method);
+    if (authorization != null) {
+      try {
+        delegateConnection.setRequestProperty(PreemptiveAuthentication.AUTHORIZATION, authorization);
+        preemptiveAuthorization = authorization;
+      } catch (IllegalStateException e) {
+        // The connection was already opened by a header query.
+        log.debug("Could not add the Authorization header", e);
+      }
+    }
+  }
+  
+  /**
+   * @return The HTTP method of the request made by the delegate connection.
+   */
+  private String getDelegateRequestMethod() {
+    String method = "GET";
+    if (delegateConnection instanceof HttpURLConnection) {
+      method = ((HttpURLConnection) delegateConnection).getRequestMethod();
+    }
+    if ("GET".equals(method) && delegateConnection.getDoOutput()) {
+      method = "PUT";
+    }
+    return method;
   }
 
   /**
@@ -109,7 +1006,16 @@ public class WebdavUrlConnection extends FilterURLConnection
    * @throws IOException the param exception if it does not contain a 401 status.
    */
   private void handleException(IOException e) throws UserActionRequiredException, IOException {
-    if (e.getMessage().indexOf("401") != -1) {
+    WebdavMetrics.recordError(delegateConnection.getURL(), getDelegateRequestMethod(), 
+        isUnauthorized(e) ? WebdavMetrics.UNAUTHORIZED : WebdavMetrics.ERROR);
+    if (isUnauthorized(e)) {
+      // A repeated request already used the last challenge.
+      boolean newChallenge = WebdavUrlStreamHandler.recordChallenge(contextId, getResponseConnection(), 
+          challengeAnswered ? null : preemptiveAuthorization);
+      if (newChallenge) {
+        // The credentials may be valid, but we used an old nonce. The next request will use the new one.
+        throw new IOException("The authentication session with the server expired, please retry.", e);
+      }
       // log failed login attempts.
       URL url = this.delegateConnection.getURL();
       String userInfo = url.getUserInfo();
@@ -119,6 +1025,8 @@ public class WebdavUrlConnection extends FilterURLConnection
         if (user != null && !user.trim().isEmpty() && password != null && !password.trim().isEmpty()) {
           log.warn("Failed login attempt of user " + user + " for " + URLUtil.getDescription(url));
         }
+      } else if (preemptiveAuthorization != null) {
+        log.warn("Failed login attempt for " + URLUtil.getDescription(url));
       }
       log.debug("WebDAV not authorized exception " + e.getMessage());
       PluginResourceBundle rb = ((WebappPluginWorkspace)PluginWorkspaceProvider.getPluginWorkspace()).getResourceBundle();
@@ -130,10 +1038,12 @@ public class WebdavUrlConnection extends FilterURLConnection
           true));  
     } else {
       if (delegateConnection instanceof HttpURLConnection) {
+        recordLockRejection();
         String serverMessage = null;
         InputStream errorStream = null;
         try {
-          errorStream = ((HttpURLConnection) this.delegateConnection).getErrorStream();
+          errorStream = ((HttpURLConnection) getResponseConnection()).getErrorStream();
+          errorStream = ContentCompression.decode(getResponseConnection().getContentEncoding(), errorStream);
           serverMessage = IOUtils.toString(errorStream);
         } catch (Exception ex) {
           Closeables.closeQuietly(errorStream);
@@ -146,10 +1056,81 @@ public class WebdavUrlConnection extends FilterURLConnection
     throw e;
   }
   
+  /**
+   * @param e The exception thrown by the delegate connection.
+   * 
+   * @return <code>true</code> if the server asked for authentication.
+   */
+  private static boolean isUnauthorized(IOException e) {
+    if (e instanceof HttpRetryException) {
+      // A streamed request cannot be re-sent with credentials.
+      return ((HttpRetryException) e).responseCode() == HttpURLConnection.HTTP_UNAUTHORIZED;
+    }
+    return e.getMessage() != null && e.getMessage().indexOf("401") != -1;
+  }
+
+  /**
+   * If the server rejected the request because of the lock, our lock state needs 
+   * to be checked on the server.
+   */
+  private void recordLockRejection() {
+    if (isLockRejection()) {
+      LockRefreshScheduler.lockRejected(contextId, delegateConnection.getURL());
+    }
+  }
+  
+  /**
+   * @return <code>true</code> if the server rejected the request because of a lock.
+   */
+  private boolean isLockRejection() {
+    try {
+      int responseCode = ((HttpURLConnection) getResponseConnection()).getResponseCode();
+      return responseCode == HttpURLConnection.HTTP_PRECON_FAILED || responseCode == LOCKED;
+    } catch (IOException e) {
+      log.debug(e.getMessage(), e);
+      return false;
+    }
+  }
+  
   @Override
   public List<FolderEntryDescriptor> listFolder() throws IOException {
+    URL folderUrl = delegateConnection.getURL();
+    List<FolderEntryDescriptor> entries = FolderListingCache.get(contextId, folderUrl);
+    if (entries != null) {
+      log.debug("Serving cached listing of " + folderUrl.getPath());
+      FolderListingCache.prefetchChildren(contextId, folderUrl, entries);
+      return entries;
+    }
+    SingleFlight.Call<List<FolderEntryDescriptor>> flight = null;
+    if (delegateConnection instanceof HttpURLConnection) {
+      flight = listingFlights.join(getFlightKey("PROPFIND"));
+      if (!flight.isLeader()) {
+        entries = listingFlights.await(flight);
+        if (entries != null) {
+          return new ArrayList<>(entries);
+        }
+      }
+    }
+    addPreemptiveAuthorization("PROPFIND");
     try {
+      if (delegateConnection instanceof HttpURLConnection) {
+        try {
+          final List<FolderEntryDescriptor> parsedEntries = new ArrayList<>();
+          propfindFolder(entry -> {
+            parsedEntries.add(entry);
+            return true;
+          });
+          entries = parsedEntries;
+        } finally {
+          listingFlights.complete(flight, entries);
+        }
+        FolderListingCache.put(contextId, folderUrl, entries);
+        FolderListingCache.prefetchChildren(contextId, folderUrl, entries);
+        return entries;
+      }
       return super.listFolder();
+    } catch (ServerUnavailableException e) {
+      throw e;
     } catch(IOException e) {
       handleException(e);
       // Unreachable
@@ -157,6 +1138,108 @@ public class WebdavUrlConnection extends FilterURLConnection
     }
   }
 
+  /**
+   * Lists the folder, reporting the members as soon as they are parsed.
+   * 
+   * @param handler Receives the members of the folder.
+   * 
+   * @throws IOException If the request fails.
+   */
+  void listFolder(WebdavPropfind.FolderEntryHandler handler) throws IOException {
+    addPreemptiveAuthorization("PROPFIND");
+    try {
+      if (delegateConnection instanceof HttpURLConnection) {
+        propfindFolder(handler);
+      } else {
+        for (FolderEntryDescriptor entry : super.listFolder()) {
+          if (!handler.handle(entry)) {
+            break;
+          }
+        }
+      }
+    } catch (ServerUnavailableException e) {
+      throw e;
+    } catch (IOException e) {
+      handleException(e);
+    }
+  }
+
+  /**
+   * Lists the folder and caches the listing, without reporting the errors to the user.
+   * 
+   * @throws IOException If the request fails.
+   */
+  void prefetchFolder() throws IOException {
+    if (!(delegateConnection instanceof HttpURLConnection)) {
+      return;
+    }
+    addPreemptiveAuthorization("PROPFIND");
+    URL folderUrl = delegateConnection.getURL();
+    final List<FolderEntryDescriptor> entries = new ArrayList<>();
+    propfindFolder(entry -> {
+      entries.add(entry);
+      return true;
+    });
+    FolderListingCache.put(contextId, folderUrl, entries);
+  }
+  
+  /**
+   * Lists the folder, holding a place in the bulkhead of the server until it starts answering.
+   * The request is duplicated if it is slow and hedging is enabled for the server.
+   * 
+   * @param handler Receives the members of the folder.
+   * 
+   * @throws IOException If the request fails.
+   */
+  private void propfindFolder(WebdavPropfind.FolderEntryHandler handler) throws IOException {
+    final ServerGuard.Permit permit = ServerGuard.acquire(delegateConnection.getURL());
+    try {
+      final Map<String, List<String>> requestHeaders = getRequestHeaders();
+      long requestStart = System.nanoTime();
+      InputStream body;
+      try {
+        HedgedRequests.Response response = HedgedRequests.send("PROPFIND 1", (HttpURLConnection) delegateConnection, 
+            c -> WebdavPropfind.send(c, "1"), 
+            () -> duplicateRequest(requestHeaders, "PROPFIND"));
+        if (response.getConnection() != delegateConnection) {
+          hedgeConnection = response.getConnection();
+        }
+        body = response.getBody();
+      } catch (IOException e) {
+        HttpURLConnection retry = repeatAfterChallenge(e, requestHeaders, "PROPFIND");
+        if (retry == null) {
+          throw e;
+        }
+        body = WebdavPropfind.send(retry, "1");
+      } finally {
+        WebdavMetrics.record(delegateConnection.getURL(), WebdavMetrics.PROPFIND, requestStart);
+      }
+      WebdavPropfind.parseFolder(delegateConnection.getURL(), body, entry -> {
+        // The server answered, the rest of the listing is paced by the reader.
+        permit.close();
+        return handler.handle(entry);
+      });
+    } catch (IOException e) {
+      recordFailure(permit, e);
+      throw e;
+    } finally {
+      permit.close();
+    }
+  }
+  
+  /**
+   * Reports to the circuit breaker a request that failed because of the server.
+   * 
+   * @param permit The permit of the request.
+   * @param e The exception thrown by the request.
+   */
+  private void recordFailure(ServerGuard.Permit permit, IOException e) {
+    if (delegateConnection instanceof HttpURLConnection 
+        && ServerGuard.isServerFailure((HttpURLConnection) getResponseConnection(), e)) {
+      permit.failed();
+    }
+  }
+
   /**
    * Decide whether to display the message returned by the WebDAV server.
    * 
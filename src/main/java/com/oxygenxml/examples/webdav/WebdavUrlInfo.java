@@ -2,26 +2,23 @@ package com.oxygenxml.examples.webdav;
 
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.OutputStream;
 import java.net.HttpURLConnection;
 import java.net.URL;
-import java.util.Arrays;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import java.util.concurrent.atomic.AtomicReference;
 
-import javax.xml.parsers.DocumentBuilder;
-import javax.xml.parsers.DocumentBuilderFactory;
-import javax.xml.parsers.ParserConfigurationException;
-
-import org.w3c.dom.Document;
-import org.w3c.dom.Element;
-import org.w3c.dom.NodeList;
-import org.xml.sax.SAXException;
-
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 import com.google.common.collect.ImmutableMap;
-import com.google.common.util.concurrent.Uninterruptibles;
 
 import lombok.extern.slf4j.Slf4j;
 import ro.sync.basic.util.URLUtil;
@@ -43,6 +40,29 @@ public class WebdavUrlInfo extends ServletPluginExtension {
    * The time allocated for server root computation.
    */
   private static final int SERVER_ROOT_COMPUTATION_ALLOCATION = 3;
+  
+  /**
+   * The number of minutes for which the server root is remembered.
+   */
+  private static final int SERVER_ROOT_CACHE_TTL = 10;
+  
+  /**
+   * The number of seconds after which the URL information computation is abandoned.
+   */
+  static final int URL_INFO_TIMEOUT = 10;
+  
+  /**
+   * The path of the root of each server, keyed by server id.
+   */
+  private static final Cache<String, String> rootPathCache = CacheBuilder.newBuilder()
+      .maximumSize(1000)
+      .expireAfterWrite(SERVER_ROOT_CACHE_TTL, TimeUnit.MINUTES)
+      .build();
+
+  /**
+   * The mapper used to serialize the responses.
+   */
+  static final ObjectMapper objectMapper = new ObjectMapper();
 
   /**
    * The resource type
@@ -68,156 +88,349 @@ public class WebdavUrlInfo extends ServletPluginExtension {
     URL url = new URL(req.getParameter("url"));
     String sessionId = req.getSession().getId();
     
-    URL urlWithCredentials = WebdavUrlStreamHandler.addCredentials(sessionId, url);
-    ResourceType resourceType = null;
-    String errorMessage = null;
+    long start = System.nanoTime();
+    long deadline = start + TimeUnit.SECONDS.toNanos(URL_INFO_TIMEOUT);
+    CompletableFuture<Map<String, String>> infoFuture = computeUrlInfo(sessionId, url, null, null, deadline);
+    
+    // The requests are made in the background, do not block this thread for too long.
+    Map<String, String> info;
     try {
-      resourceType = getResourceType(urlWithCredentials);
-    } catch (IOException e) {
-      if (e.getMessage().indexOf("401") != -1) {
-        String userInfo = urlWithCredentials.getUserInfo();
-        if(userInfo != null && !userInfo.isEmpty()) {
-          String user = URLUtil.extractUser(userInfo);
-          String password = URLUtil.extractPassword(userInfo);
-          if (user != null && !user.trim().isEmpty() && password != null && !password.trim().isEmpty()) {
-            log.warn("Failed login attempt of user " + user + " for " + URLUtil.getDescription(url));
-          }
-        }
+      info = infoFuture.get(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+    } catch (ExecutionException e) {
+      if (isUnauthorized(e.getCause())) {
         // We need credentials.
+        WebdavMetrics.recordError(url, WebdavMetrics.URL_INFO, WebdavMetrics.UNAUTHORIZED);
         resp.sendError(HttpServletResponse.SC_UNAUTHORIZED);
         return;
-      } else {
-        errorMessage = e.getMessage();
       }
+      WebdavMetrics.recordError(url, WebdavMetrics.URL_INFO, WebdavMetrics.ERROR);
+      info = ImmutableMap.of("errorMessage", String.valueOf(e.getCause().getMessage()));
+    } catch (TimeoutException e) {
+      log.warn("Did not manage to compute the URL information in the allocated time.");
+      WebdavMetrics.recordError(url, WebdavMetrics.URL_INFO, WebdavMetrics.ERROR);
+      info = ImmutableMap.of("errorMessage", "The server did not respond in time.");
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return;
+    } finally {
+      infoFuture.cancel(true);
+      WebdavMetrics.record(url, WebdavMetrics.URL_INFO, start);
     }
     
-    String rootUrl = getRootUrl(urlWithCredentials);
-    rootUrl = URLUtil.clearUserInfo(new URL(rootUrl)).toExternalForm();
+    objectMapper.writeValue(resp.getOutputStream(), info);
+  }
+  
+  /**
+   * Computes the information about the given URL in the background.
+   * 
+   * @param sessionId The session Id.
+   * @param url The WebDAV URL.
+   * @param knownResourceType The type of the resource if already known, <code>null</code> otherwise.
+   * @param rootDiscovery The discovery of the root of the same server started by {@link #discoverRootUrl}, 
+   * which is awaited instead of probing the server again. <code>null</code> if none.
+   * @param deadline The {@link System#nanoTime()} after which the requests are abandoned.
+   * 
+   * @return The future type and root URL, or the error message. It fails with an {@link IOException} 
+   * if the user is not authorized to access the given URL. Cancelling it cancels the pending requests.
+   */
+  static CompletableFuture<Map<String, String>> computeUrlInfo(final String sessionId, final URL url, 
+      ResourceType knownResourceType, CompletableFuture<String> rootDiscovery, final long deadline) {
+    UrlInfoCache.UrlInfo cachedInfo = UrlInfoCache.get(sessionId, url);
+    if (cachedInfo != null) {
+      return CompletableFuture.completedFuture(ImmutableMap.of(
+          "type", cachedInfo.type.toString(),
+          "rootUrl", cachedInfo.rootUrl));
+    }
     
-    Map<String, String> info;
-    if(errorMessage == null) {
-      info = ImmutableMap.of(
-          "type", resourceType.toString(),
-          "rootUrl", rootUrl);
+    final URL urlWithCredentials = WebdavUrlStreamHandler.getRequestUrl(sessionId, url);
+    final CompletableFuture<ResourceType> resourceTypeFuture = knownResourceType != null ?
+        CompletableFuture.completedFuture(knownResourceType) :
+        WebdavExecutors.callAsync(() -> getResourceType(sessionId, urlWithCredentials, deadline));
+    final CompletableFuture<String> rootUrlFuture;
+    if (rootDiscovery != null) {
+      // The discovered root is cached, so usually no request is needed once it completes.
+      rootUrlFuture = rootDiscovery.handle((rootUrl, e) -> null)
+          .thenCompose(ignored -> getRootUrl(sessionId, urlWithCredentials, deadline));
     } else {
-      info = ImmutableMap.of("errorMessage", errorMessage);
+      rootUrlFuture = getRootUrl(sessionId, urlWithCredentials, deadline);
     }
     
-    new ObjectMapper().writeValue(resp.getOutputStream(), info);
+    final CompletableFuture<Map<String, String>> infoFuture = resourceTypeFuture
+        .thenCombine(rootUrlFuture, (resourceType, rootUrl) -> {
+          UrlInfoCache.put(sessionId, url, resourceType, rootUrl);
+          Map<String, String> info = ImmutableMap.of(
+              "type", resourceType.toString(),
+              "rootUrl", rootUrl);
+          return info;
+        })
+        .exceptionally(e -> {
+          Throwable cause = e instanceof CompletionException ? e.getCause() : e;
+          if (isUnauthorized(cause)) {
+            String userInfo = urlWithCredentials.getUserInfo();
+            if(userInfo != null && !userInfo.isEmpty()) {
+              String user = URLUtil.extractUser(userInfo);
+              String password = URLUtil.extractPassword(userInfo);
+              if (user != null && !user.trim().isEmpty() && password != null && !password.trim().isEmpty()) {
+                log.warn("Failed login attempt of user " + user + " for " + URLUtil.getDescription(url));
+              }
+            }
+            throw new CompletionException(cause);
+          }
+          return ImmutableMap.of("errorMessage", String.valueOf(cause.getMessage()));
+        });
+    infoFuture.whenComplete((info, e) -> {
+      // Stop the requests that are no longer needed.
+      resourceTypeFuture.cancel(true);
+      rootUrlFuture.cancel(true);
+    });
+    return infoFuture;
+  }
+  
+  /**
+   * @param e The exception thrown by a request.
+   * @return <code>true</code> if the server answered with 401.
+   */
+  static boolean isUnauthorized(Throwable e) {
+    return e instanceof IOException && e.getMessage() != null && e.getMessage().indexOf("401") != -1;
+  }
+
+  /**
+   * Starts finding the root of the WebDAV server that serves the given URL, so that the 
+   * computations of the information about several URLs of the server share the probes.
+   * 
+   * @param sessionId The session Id.
+   * @param url The WebDAV URL.
+   * @param deadline The {@link System#nanoTime()} after which the probes are abandoned.
+   * 
+   * @return The future root URL of the server, without user info. It does not fail.
+   */
+  static CompletableFuture<String> discoverRootUrl(String sessionId, URL url, long deadline) {
+    return getRootUrl(sessionId, WebdavUrlStreamHandler.getRequestUrl(sessionId, url), deadline);
   }
 
   /**
    * Finds the root of the WebDAV server that serves the given URL.
    * 
+   * All the path prefixes of the URL are probed concurrently and the shortest one 
+   * that is a collection is chosen. The result is cached per server.
+   * 
+   * @param sessionId The session Id.
    * @param urlWithCredentials The URL to start from.
+   * @param deadline The {@link System#nanoTime()} after which the probes are abandoned. At most 
+   * {@link #SERVER_ROOT_COMPUTATION_ALLOCATION} seconds are spent anyway.
    *
-   * @return The root URL of the server.
+   * @return The future root URL of the server, without user info. It does not fail.
    */
-  private String getRootUrl(final URL urlWithCredentials) {
-    final AtomicReference<String> foundRoot = new AtomicReference<String>(urlWithCredentials.toExternalForm());
+  private static CompletableFuture<String> getRootUrl(final String sessionId, final URL urlWithCredentials, 
+      long deadline) {
+    final long probesDeadline = Math.min(deadline, 
+        System.nanoTime() + TimeUnit.SECONDS.toNanos(SERVER_ROOT_COMPUTATION_ALLOCATION));
+    final String serverBaseUrl = urlWithCredentials.getProtocol() + "://" + urlWithCredentials.getHost() + 
+        (urlWithCredentials.getPort() != -1 ? ":" + urlWithCredentials.getPort() : "");
+    String path = urlWithCredentials.getPath();
+    final String serverId = WebdavUrlStreamHandler.computeServerId(
+        WebdavURLHandlerExtension.WEBDAV + urlWithCredentials.toExternalForm());
+    
+    String cachedRootPath = rootPathCache.getIfPresent(serverId);
+    if (cachedRootPath != null && (path + "/").startsWith(cachedRootPath)) {
+      return CompletableFuture.completedFuture(serverBaseUrl + cachedRootPath);
+    }
+    
+    List<String> candidateRootPaths = new ArrayList<>();
+    String candidateRootPath = "";
+    for (String pathPart: path.split("/")) {
+      candidateRootPath += pathPart + "/";
+      candidateRootPaths.add(candidateRootPath);
+    }
+    if (candidateRootPaths.isEmpty()) {
+      candidateRootPaths.add("/");
+    }
+    if (log.isDebugEnabled()) {
+      log.debug(candidateRootPaths.toString());
+    }
 
     // Make several requests to the webdav server to find the server root.
     // Since this feature is not critical, do not block the user for too long.
-    Thread thread = new Thread(new Runnable() {
-      
-      public void run() {
-        String candidateRoot = urlWithCredentials.getProtocol() + "://" + urlWithCredentials.getAuthority();
-        String[] pathParts = urlWithCredentials.getPath().split("/");
-        
-        if (log.isDebugEnabled()) {
-          log.debug(Arrays.toString(pathParts));
-        }
-        
-        for (String pathPart: pathParts) {
-          if (Thread.interrupted()) {
-            log.debug("Time's up searching for server root URL");
-            break;
-          }
-          candidateRoot += pathPart + "/";
-          foundRoot.set(candidateRoot);
-          ResourceType candidateResourceType = ResourceType.NON_WEBDAV;
-          try {
-            candidateResourceType = getResourceType(new URL(candidateRoot));
-          } catch (IOException e) {
-            log.debug(e, e);
-          }
-          if (candidateResourceType == ResourceType.COLLECTION) {
-            log.debug("Found server root URL: " + candidateRoot);
-            break;
+    final long start = System.nanoTime();
+    final List<CompletableFuture<ResourceType>> probes = new ArrayList<>();
+    CompletableFuture<String> foundRootPathFuture = CompletableFuture.completedFuture(null);
+    for (final String rootPath : candidateRootPaths) {
+      final CompletableFuture<ResourceType> probe = WebdavExecutors.callAsync(
+          () -> getResourceType(sessionId, new URL(urlWithCredentials, rootPath), probesDeadline));
+      probes.add(probe);
+      // The shortest path that is a collection wins.
+      foundRootPathFuture = foundRootPathFuture.thenCompose(foundRootPath -> foundRootPath != null ? 
+          CompletableFuture.completedFuture(foundRootPath) : 
+          probe.handle((candidateResourceType, e) -> {
+            if (e != null) {
+              log.debug(e.getMessage(), e);
+            }
+            return candidateResourceType == ResourceType.COLLECTION ? rootPath : null;
+          }));
+    }
+    
+    final String defaultRootPath = candidateRootPaths.get(candidateRootPaths.size() - 1);
+    CompletableFuture<String> rootUrlFuture = foundRootPathFuture
+        .completeOnTimeout(null, probesDeadline - System.nanoTime(), TimeUnit.NANOSECONDS)
+        .thenApply(foundRootPath -> {
+          if (foundRootPath == null) {
+            return serverBaseUrl + defaultRootPath;
           }
-        }
+          log.debug("Found server root URL: " + serverBaseUrl + foundRootPath);
+          rootPathCache.put(serverId, foundRootPath);
+          return serverBaseUrl + foundRootPath;
+        });
+    rootUrlFuture.whenComplete((rootUrl, e) -> {
+      WebdavMetrics.record(urlWithCredentials, WebdavMetrics.ROOT_DISCOVERY, start);
+      for (CompletableFuture<ResourceType> probe : probes) {
+        probe.cancel(true);
       }
     });
-    thread.start();
-    Uninterruptibles.joinUninterruptibly(thread, SERVER_ROOT_COMPUTATION_ALLOCATION, TimeUnit.SECONDS);
-    if (thread.isAlive()) {
-      log.warn("Did not manage to determine the server root in the allocated time.");
-      thread.interrupt();
-    }
-    return foundRoot.get();
+    return rootUrlFuture;
   }
 
   /**
    * Returns the resource type of the given URL.
    * 
+   * @param sessionId The session Id.
    * @param urlWithCredentials The URL of the resource whose type we want to know. 
+   * @param deadline The {@link System#nanoTime()} after which the request times out.
    * 
    * @return The resource type.
    *
    * @throws IOException When there is an IOException communicating with server.
    */
-  private static ResourceType getResourceType(URL urlWithCredentials) throws IOException {
-    ResourceType resourceType = ResourceType.NON_WEBDAV;
-    
-    // Make a propfind request.
-    HttpURLConnection conn = (HttpURLConnection) urlWithCredentials.openConnection();
-    conn.setRequestMethod("PROPFIND");
-    conn.setRequestProperty("Depth", "0");
-    conn.setDoInput(true);
-    conn.setDoOutput(true);
+  private static ResourceType getResourceType(String sessionId, URL urlWithCredentials, long deadline) 
+      throws IOException {
+    InputStream inputStream = sendPropfind(sessionId, urlWithCredentials, "0", deadline);
     
-    String reqBody = "<?xml version=\"1.0\"?>\r\n" + 
-        "<a:propfind xmlns:a=\"DAV:\">\r\n" + 
-        "<a:prop><a:resourcetype/></a:prop>\r\n" + 
-        "</a:propfind>";
-   
-    OutputStream outputStream = conn.getOutputStream();
+    // Look for the resource type of the first response.
+    final AtomicReference<ResourceType> resourceType = new AtomicReference<>(ResourceType.NON_WEBDAV);
     try {
-      outputStream.write(reqBody.getBytes());
+      MultistatusParser.parse(inputStream, entry -> {
+        resourceType.set(getResourceType(entry));
+        return false;
+      });
     } finally {
-      outputStream.close();
+      // Closing the response allows the connection to be reused.
+      inputStream.close();
     }
-
-    // Parse the response.
-    DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
-    factory.setNamespaceAware(true);
-    DocumentBuilder builder;
+    
+    return resourceType.get();
+  }
+  
+  /**
+   * Returns the resource types of the members of a collection, using a single request.
+   * 
+   * @param sessionId The session Id.
+   * @param collectionUrlWithCredentials The URL of the collection.
+   * @param deadline The {@link System#nanoTime()} after which the request times out.
+   * 
+   * @return The resource types keyed by the normalized path of the members.
+   * 
+   * @throws IOException When there is an IOException communicating with server.
+   */
+  static Map<String, ResourceType> getMemberResourceTypes(String sessionId, final URL collectionUrlWithCredentials, 
+      long deadline) throws IOException {
+    InputStream inputStream = sendPropfind(sessionId, collectionUrlWithCredentials, "1", deadline);
+    
+    final Map<String, ResourceType> resourceTypes = new HashMap<>();
     try {
-      builder = factory.newDocumentBuilder();
-    } catch (ParserConfigurationException e) {
-      throw new IOException("Error creating parser", e);
+      MultistatusParser.parse(inputStream, entry -> {
+        URL memberUrl = new URL(collectionUrlWithCredentials, entry.getHref());
+        resourceTypes.put(WebdavPropfind.normalizePath(memberUrl.getPath()), getResourceType(entry));
+        return true;
+      });
+    } finally {
+      inputStream.close();
     }
-
-    InputStream inputStream = conn.getInputStream();
-    Document doc;
-    try {
-      doc = builder.parse(inputStream);
-    } catch (SAXException e) {
-      throw new IOException("Error parsing server response", e);
+    return resourceTypes;
+  }
+  
+  /**
+   * @param entry The entry of a multistatus response.
+   * @return The resource type reported in the entry.
+   */
+  private static ResourceType getResourceType(MultistatusParser.Entry entry) {
+    if (!entry.isResourceTypeReported()) {
+      return ResourceType.NON_WEBDAV;
     }
-    
-    // Look for the response type
-    NodeList resourceTypes = doc.getElementsByTagNameNS("DAV:", "resourcetype");
-    if (resourceTypes.getLength() == 1) {
-      resourceType = ResourceType.FILE;
-      Element resourceTypeElement = (Element) resourceTypes.item(0);
-      NodeList collections = resourceTypeElement.getElementsByTagNameNS("DAV:", "collection");
-      if (collections.getLength() == 1) {
-        resourceType = ResourceType.COLLECTION;
+    return entry.isCollection() ? ResourceType.COLLECTION : ResourceType.FILE;
+  }
+  
+  /**
+   * Makes a PROPFIND request. The request is duplicated if it is slow and hedging is enabled for the server.
+   * 
+   * @param sessionId The session Id.
+   * @param urlWithCredentials The URL of the resource.
+   * @param depth The value of the Depth header.
+   * @param deadline The {@link System#nanoTime()} after which the request times out.
+   * 
+   * @return The stream of the multistatus response.
+   * 
+   * @throws IOException When there is an IOException communicating with server.
+   */
+  private static InputStream sendPropfind(final String sessionId, final URL urlWithCredentials, final String depth, 
+      final long deadline) throws IOException {
+    String authorization = WebdavUrlStreamHandler.getPreemptiveAuthorization(sessionId, urlWithCredentials, "PROPFIND");
+    HttpURLConnection conn = openConnection(urlWithCredentials, deadline, authorization);
+    long start = System.nanoTime();
+    try (ServerGuard.Permit permit = ServerGuard.acquire(urlWithCredentials)) {
+      try {
+        try {
+          return HedgedRequests.send("PROPFIND " + depth, conn, c -> WebdavPropfind.send(c, depth), 
+              () -> openConnection(urlWithCredentials, deadline, WebdavUrlStreamHandler.getPreemptiveAuthorization(
+                  sessionId, urlWithCredentials, "PROPFIND"))).getBody();
+        } catch (IOException e) {
+          if (!isUnauthorized(e) || !WebdavUrlStreamHandler.recordChallenge(sessionId, conn, authorization)) {
+            throw e;
+          }
+          // The server sent a new Digest challenge or our nonce is stale, repeat the request once.
+          // A failure of the repeated request is final, so its challenge is only recorded.
+          authorization = null;
+          conn = openConnection(urlWithCredentials, deadline, 
+              WebdavUrlStreamHandler.getPreemptiveAuthorization(sessionId, urlWithCredentials, "PROPFIND"));
+          return WebdavPropfind.send(conn, depth);
+        }
+      } catch (IOException e) {
+        WebdavMetrics.recordError(urlWithCredentials, WebdavMetrics.PROPFIND, 
+            isUnauthorized(e) ? WebdavMetrics.UNAUTHORIZED : WebdavMetrics.ERROR);
+        if (ServerGuard.isServerFailure(conn, e)) {
+          permit.failed();
+        }
+        if (isUnauthorized(e)) {
+          // Reading the challenge of a connection that failed otherwise could connect again.
+          WebdavUrlStreamHandler.recordChallenge(sessionId, conn, authorization);
+        }
+        throw e;
       }
+    } finally {
+      WebdavMetrics.record(urlWithCredentials, WebdavMetrics.PROPFIND, start);
     }
-    
-    return resourceType;
+  }
+  
+  /**
+   * Opens a connection for a PROPFIND request.
+   * 
+   * @param urlWithCredentials The URL of the resource.
+   * @param deadline The {@link System#nanoTime()} after which the request times out.
+   * @param authorization The Authorization header to send preemptively, <code>null</code> if none.
+   * 
+   * @return The connection, not yet connected.
+   * 
+   * @throws IOException If the connection cannot be opened.
+   */
+  private static HttpURLConnection openConnection(URL urlWithCredentials, long deadline, String authorization) 
+      throws IOException {
+    int timeout = (int) Math.max(1, TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime()));
+    WebdavServerSettings settings = WebdavServerSettings.get(urlWithCredentials);
+    HttpURLConnection conn = (HttpURLConnection) WebdavUrlStreamHandler.getTransport().openConnection(urlWithCredentials);
+    conn.setConnectTimeout(Math.min(timeout, settings.getConnectTimeoutMillis()));
+    conn.setReadTimeout(Math.min(timeout, settings.getReadTimeoutMillis()));
+    if (authorization != null) {
+      conn.setRequestProperty(PreemptiveAuthentication.AUTHORIZATION, authorization);
+    }
+    return conn;
   }
   
   @Override
@@ -0,0 +1,263 @@
+package com.oxygenxml.examples.webdav;
+
+import java.io.IOException;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.AbstractMap.SimpleImmutableEntry;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.google.common.collect.ImmutableMap;
+import com.oxygenxml.examples.webdav.WebdavUrlInfo.ResourceType;
+
+import lombok.extern.slf4j.Slf4j;
+import ro.sync.ecss.extensions.api.webapp.plugin.ServletPluginExtension;
+import ro.sync.ecss.extensions.api.webapp.plugin.servlet.ServletException;
+import ro.sync.ecss.extensions.api.webapp.plugin.servlet.http.HttpServletRequest;
+import ro.sync.ecss.extensions.api.webapp.plugin.servlet.http.HttpServletResponse;
+
+/**
+ * Servlet that computes the information about several WebDAV URLs at once.
+ *
+ * The URLs that have the same parent collection are resolved with a single PROPFIND request
+ * when there are enough of them, the root of each server is discovered once for the whole batch,
+ * and the information is written as soon as it is available for each URL.
+ */
+@Slf4j
+public class WebdavUrlInfoBatch extends ServletPluginExtension {
+
+  /**
+   * The maximum number of URLs accepted in a request.
+   */
+  private static final int MAX_BATCH_SIZE = 100;
+
+  /**
+   * The number of seconds after which the URLs not yet resolved are reported as failed.
+   */
+  private static final int BATCH_TIMEOUT = 30;
+
+  /**
+   * The minimum number of uncached URLs from the same collection resolved by listing the collection.
+   * For fewer URLs, a request for each of them is cheaper than listing a possibly large collection.
+   */
+  private static final int MIN_SIBLINGS_FOR_LISTING = 4;
+
+  /**
+   * Return information about the URLs given as a JSON array in the "urls" parameter.
+   *
+   * The response is a JSON object that maps each URL to its information:
+   * the type and root URL, an error message, or an "unauthorized" flag.
+   */
+  @Override
+  public void doPost(HttpServletRequest req, HttpServletResponse resp) throws ServletException, IOException {
+    String sessionId = req.getSession().getId();
+
+    String[] urls;
+    try {
+      urls = WebdavUrlInfo.objectMapper.readValue(req.getParameter("urls"), String[].class);
+    } catch (IOException | IllegalArgumentException e) {
+      log.debug(e.getMessage(), e);
+      resp.sendError(HttpServletResponse.SC_BAD_REQUEST);
+      return;
+    }
+    if (urls == null || urls.length > MAX_BATCH_SIZE) {
+      resp.sendError(HttpServletResponse.SC_BAD_REQUEST);
+      return;
+    }
+
+    JsonGenerator generator = WebdavUrlInfo.objectMapper.getFactory().createGenerator(resp.getOutputStream());
+    generator.writeStartObject();
+
+    Set<String> pendingUrls = new LinkedHashSet<>();
+    Map<String, Map<String, URL>> urlsByParent = new LinkedHashMap<>();
+    for (String url : urls) {
+      if (url == null || !pendingUrls.add(url)) {
+        continue;
+      }
+      try {
+        URL webdavUrl = new URL(url);
+        String parentUrl = getParentUrl(webdavUrl).toExternalForm();
+        Map<String, URL> siblings = urlsByParent.get(parentUrl);
+        if (siblings == null) {
+          siblings = new LinkedHashMap<>();
+          urlsByParent.put(parentUrl, siblings);
+        }
+        siblings.put(url, webdavUrl);
+      } catch (MalformedURLException e) {
+        writeInfo(generator, pendingUrls, url, ImmutableMap.of("errorMessage", e.getMessage()));
+      }
+    }
+
+    long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(BATCH_TIMEOUT);
+    BlockingQueue<Map.Entry<String, Map<String, ?>>> results = new LinkedBlockingQueue<>();
+    Queue<Future<?>> tasks = new ConcurrentLinkedQueue<>();
+    try {
+      // Discover the root of each server once, instead of once for each URL.
+      Map<String, CompletableFuture<String>> rootDiscoveries = new HashMap<>();
+      for (Map<String, URL> siblings : urlsByParent.values()) {
+        for (URL url : siblings.values()) {
+          String serverId = WebdavUrlStreamHandler.computeServerId(url.toExternalForm());
+          if (!rootDiscoveries.containsKey(serverId)) {
+            CompletableFuture<String> rootDiscovery = WebdavUrlInfo.discoverRootUrl(sessionId, url, deadline);
+            tasks.add(rootDiscovery);
+            rootDiscoveries.put(serverId, rootDiscovery);
+          }
+        }
+      }
+      
+      for (Map.Entry<String, Map<String, URL>> siblings : urlsByParent.entrySet()) {
+        resolveSiblings(sessionId, new URL(siblings.getKey()), siblings.getValue(), rootDiscoveries, 
+            deadline, results, tasks);
+      }
+
+      // Write the information as soon as it is available.
+      while (!pendingUrls.isEmpty()) {
+        Map.Entry<String, Map<String, ?>> result = results.poll(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+        if (result == null) {
+          log.warn("Did not manage to compute the information for all the URLs in the allocated time.");
+          break;
+        }
+        do {
+          writeInfo(generator, pendingUrls, result.getKey(), result.getValue());
+          result = results.poll();
+        } while (result != null);
+        generator.flush();
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    } finally {
+      for (Future<?> task : tasks) {
+        task.cancel(true);
+      }
+    }
+
+    for (String url : new ArrayList<>(pendingUrls)) {
+      writeInfo(generator, pendingUrls, url,
+          ImmutableMap.of("errorMessage", "The server did not respond in time."));
+    }
+    generator.writeEndObject();
+    generator.close();
+  }
+
+  /**
+   * Computes the information about several URLs from the same collection in the background.
+   * 
+   * If enough of them need to be resolved, their types are retrieved with a single request.
+   *
+   * @param sessionId The session Id.
+   * @param parentUrl The URL of the parent collection.
+   * @param urls The URLs to resolve, keyed by the string received from the client.
+   * @param rootDiscoveries The discoveries of the server roots, keyed by server id.
+   * @param deadline The {@link System#nanoTime()} after which the requests are abandoned.
+   * @param results Receives the information about each URL.
+   * @param tasks Receives the background tasks, to be cancelled when no longer needed.
+   */
+  private static void resolveSiblings(final String sessionId, final URL parentUrl, final Map<String, URL> urls,
+      final Map<String, CompletableFuture<String>> rootDiscoveries, final long deadline, 
+      final Queue<Map.Entry<String, Map<String, ?>>> results, final Queue<Future<?>> tasks) {
+    int uncachedCount = 0;
+    for (URL url : urls.values()) {
+      if (UrlInfoCache.get(sessionId, url) == null) {
+        uncachedCount++;
+      }
+    }
+    
+    CompletableFuture<Map<String, ResourceType>> memberTypesFuture;
+    if (uncachedCount >= MIN_SIBLINGS_FOR_LISTING) {
+      memberTypesFuture = WebdavExecutors.callAsync(() -> WebdavUrlInfo.getMemberResourceTypes(sessionId,
+          WebdavUrlStreamHandler.getRequestUrl(sessionId, parentUrl), deadline));
+      tasks.add(memberTypesFuture);
+      memberTypesFuture = memberTypesFuture.exceptionally(e -> {
+        // Fall back to a request for each URL.
+        log.debug(e.getMessage(), e);
+        return Collections.emptyMap();
+      });
+    } else {
+      memberTypesFuture = CompletableFuture.completedFuture(Collections.<String, ResourceType>emptyMap());
+    }
+    
+    memberTypesFuture.thenAccept(memberTypes -> {
+      for (final Map.Entry<String, URL> url : urls.entrySet()) {
+        ResourceType knownType = memberTypes.get(WebdavPropfind.normalizePath(url.getValue().getPath()));
+        CompletableFuture<String> rootDiscovery = rootDiscoveries.get(
+            WebdavUrlStreamHandler.computeServerId(url.getValue().toExternalForm()));
+        CompletableFuture<Map<String, String>> infoFuture = 
+            WebdavUrlInfo.computeUrlInfo(sessionId, url.getValue(), knownType, rootDiscovery, deadline);
+        tasks.add(infoFuture);
+        infoFuture.whenComplete((info, e) -> {
+          Map<String, ?> result = info;
+          if (e != null) {
+            Throwable cause = e instanceof CompletionException ? e.getCause() : e;
+            if (WebdavUrlInfo.isUnauthorized(cause)) {
+              // We need credentials.
+              result = ImmutableMap.of("unauthorized", true);
+            } else {
+              result = ImmutableMap.of("errorMessage", String.valueOf(cause.getMessage()));
+            }
+          }
+          results.add(new SimpleImmutableEntry<String, Map<String, ?>>(url.getKey(), result));
+        });
+      }
+    });
+  }
+
+  /**
+   * The URLs can also be sent in the query string.
+   *
+   * @see #doPost(HttpServletRequest, HttpServletResponse)
+   */
+  @Override
+  public void doGet(HttpServletRequest req, HttpServletResponse resp) throws ServletException, IOException {
+    doPost(req, resp);
+  }
+
+  /**
+   * Writes the information about an URL.
+   *
+   * @param generator The JSON generator.
+   * @param pendingUrls The URLs not yet written.
+   * @param url The URL.
+   * @param info The information about the URL.
+   *
+   * @throws IOException If the client cannot be reached.
+   */
+  private static void writeInfo(JsonGenerator generator, Set<String> pendingUrls,
+      String url, Map<String, ?> info) throws IOException {
+    if (pendingUrls.remove(url)) {
+      generator.writeObjectField(url, info);
+    }
+  }
+
+  /**
+   * @param url The URL.
+   * @return The URL of the collection that contains the given URL.
+   *
+   * @throws MalformedURLException If the URL is not valid.
+   */
+  private static URL getParentUrl(URL url) throws MalformedURLException {
+    String path = url.getPath();
+    if (path.endsWith("/")) {
+      path = path.substring(0, path.length() - 1);
+    }
+    return new URL(url, path.substring(0, path.lastIndexOf('/') + 1));
+  }
+
+  @Override
+  public String getPath() {
+    return "webdav-url-info-batch";
+  }
+}
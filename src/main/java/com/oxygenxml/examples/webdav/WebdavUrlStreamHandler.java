@@ -2,13 +2,14 @@ package com.oxygenxml.examples.webdav;
 
 import java.io.IOException;
 import java.net.MalformedURLException;
-import java.net.PasswordAuthentication;
 import java.net.Proxy;
 import java.net.URL;
 import java.net.URLConnection;
+import java.nio.charset.StandardCharsets;
+
+import com.google.common.hash.Hashing;
 
 import lombok.extern.slf4j.Slf4j;
-import ro.sync.basic.util.URLUtil;
 import ro.sync.ecss.extensions.api.webapp.plugin.URLStreamHandlerWithContext;
 
 /**
@@ -17,6 +18,36 @@ import ro.sync.ecss.extensions.api.webapp.plugin.URLStreamHandlerWithContext;
 @Slf4j
 public class WebdavUrlStreamHandler extends URLStreamHandlerWithContext {
 
+  /**
+   * The transport used to open connections to the WebDAV servers.
+   */
+  private static volatile WebdavTransport transport;
+  
+  /**
+   * @return The transport used to open connections to the WebDAV servers.
+   */
+  static WebdavTransport getTransport() {
+    WebdavTransport currentTransport = transport;
+    if (currentTransport == null) {
+      synchronized (WebdavUrlStreamHandler.class) {
+        if (transport == null) {
+          transport = new KeepAliveTransport();
+        }
+        currentTransport = transport;
+      }
+    }
+    return currentTransport;
+  }
+  
+  /**
+   * Sets the transport used to open connections to the WebDAV servers.
+   * 
+   * @param newTransport The new transport.
+   */
+  public static void setTransport(WebdavTransport newTransport) {
+    transport = newTransport;
+  }
+
   /**
    * Computes a server identifier out of the requested URL.
    * 
@@ -37,37 +68,181 @@ public class WebdavUrlStreamHandler extends URLStreamHandlerWithContext {
     return serverId;
   }
 
+  /**
+   * Computes the principal on behalf of which a request is made. Responses are shared 
+   * between sessions only if they use the same credentials.
+   * 
+   * @param sessionId The session Id.
+   * @param httpUrl The HTTP URL of the request.
+   * 
+   * @return A digest of the credentials, empty for anonymous requests.
+   */
+  static String computePrincipal(String sessionId, URL httpUrl) {
+    String serverId = computeServerId(WebdavURLHandlerExtension.WEBDAV + httpUrl.toExternalForm());
+    ResolvedCredentials credentials = CredentialsStore.resolve(sessionId, serverId);
+    String userInfo;
+    if (credentials != null && credentials.hasPassword()) {
+      userInfo = credentials.getUserName() + ":" + credentials.getPassword();
+    } else {
+      userInfo = httpUrl.getUserInfo();
+    }
+    return hashUserInfo(userInfo);
+  }
+
+  /**
+   * Computes the principal of the credentials that a session stored for a server.
+   *
+   * @param sessionId The session Id.
+   * @param serverId The server id.
+   *
+   * @return A digest of the credentials, empty if the session has no credentials for the server.
+   */
+  static String computeStoredPrincipal(String sessionId, String serverId) {
+    ResolvedCredentials credentials = CredentialsStore.resolve(sessionId, serverId);
+    if (credentials == null || !credentials.hasPassword()) {
+      return "";
+    }
+    return hashUserInfo(credentials.getUserName() + ":" + credentials.getPassword());
+  }
+
+  /**
+   * @param userInfo The user info, may be <code>null</code>.
+   *
+   * @return A digest of the user info, empty if there is no user info.
+   */
+  private static String hashUserInfo(String userInfo) {
+    if (userInfo == null || userInfo.isEmpty()) {
+      return "";
+    }
+    return Hashing.sha256().hashString(userInfo, StandardCharsets.UTF_8).toString();
+  }
+
   @Override
   protected URLConnection openConnectionInContext(String contextId, URL url, Proxy proxy) throws IOException {
-    URL completeUrl = addCredentials(contextId, url);
-    URLConnection urlConnection = completeUrl.openConnection();
-    
-    return new WebdavUrlConnection(contextId, urlConnection);
+    URL completeUrl = getRequestUrl(contextId, url);
+    return new WebdavUrlConnection(contextId, openHttpConnection(completeUrl));
+  }
+  
+  /**
+   * Opens a connection to a WebDAV server with the timeouts configured for the server.
+   * 
+   * @param httpUrl The HTTP URL of the request.
+   * 
+   * @return The connection, not yet connected.
+   * 
+   * @throws IOException If the connection cannot be opened.
+   */
+  static URLConnection openHttpConnection(URL httpUrl) throws IOException {
+    URLConnection urlConnection = getTransport().openConnection(httpUrl);
+    WebdavServerSettings settings = WebdavServerSettings.get(httpUrl);
+    urlConnection.setConnectTimeout(settings.getConnectTimeoutMillis());
+    urlConnection.setReadTimeout(settings.getReadTimeoutMillis());
+    return urlConnection;
+  }
+  
+  /**
+   * Computes the HTTP URL to which the requests for a WebDAV URL are made.
+   * 
+   * When the credentials are sent preemptively in the Authorization header, they 
+   * are not added to the URL. They are still added if the server asked for a Digest 
+   * algorithm that we cannot compute, or if the connection is not encrypted and the 
+   * server did not ask for Basic.
+   * 
+   * @param sessionId The session Id.
+   * @param url The WebDAV URL.
+   * 
+   * @return The HTTP URL.
+   */
+  static URL getRequestUrl(String sessionId, URL url) {
+    if (PreemptiveAuthentication.isEnabled()) {
+      ResolvedCredentials userCredentials = CredentialsStore.resolve(sessionId, computeServerId(url.toExternalForm()));
+      boolean useHeader = userCredentials != null && userCredentials.hasPassword();
+      if (!useHeader) {
+        return toHttpUrl(url, url.getUserInfo());
+      }
+      URL httpUrl = toHttpUrl(url, null);
+      return PreemptiveAuthentication.canAuthorize(userCredentials, httpUrl) ? httpUrl : toHttpUrl(url, userCredentials.getEncodedUserInfo());
+    } else {
+      return addCredentials(sessionId, url);
+    }
+  }
+  
+  /**
+   * Computes the value of the Authorization header that should be sent preemptively 
+   * with a request.
+   * 
+   * @param sessionId The session Id.
+   * @param httpUrl The URL of the request, without the "webdav-" prefix.
+   * @param method The HTTP method of the request.
+   * 
+   * @return The value of the header or <code>null</code> if the credentials should not be 
+   * sent preemptively.
+   */
+  static String getPreemptiveAuthorization(String sessionId, URL httpUrl, String method) {
+    if (!PreemptiveAuthentication.isEnabled()) {
+      return null;
+    }
+    String serverId = computeServerId(WebdavURLHandlerExtension.WEBDAV + httpUrl.toExternalForm());
+    ResolvedCredentials userCredentials = CredentialsStore.resolve(sessionId, serverId);
+    if (userCredentials == null || !userCredentials.hasPassword()) {
+      return null;
+    }
+    return PreemptiveAuthentication.computeAuthorization(userCredentials, httpUrl, method);
+  }
+  
+  /**
+   * Remembers the authentication challenge sent by the server in a 401 response.
+   * 
+   * @param sessionId The session Id.
+   * @param connection The connection that received the 401 response.
+   * @param sentAuthorization The Authorization header sent preemptively with the request, 
+   * <code>null</code> if none.
+   * 
+   * @return <code>true</code> if the request should be repeated once with the new challenge.
+   */
+  static boolean recordChallenge(String sessionId, URLConnection connection, String sentAuthorization) {
+    String serverId = computeServerId(WebdavURLHandlerExtension.WEBDAV + connection.getURL().toExternalForm());
+    ResolvedCredentials userCredentials = CredentialsStore.resolve(sessionId, serverId);
+    return PreemptiveAuthentication.recordChallenge(connection, userCredentials, sentAuthorization);
   }
   
   /**
    * Adds credentials associated with a given user context to the URL.
    * 
    * @param sessionId The session Id.
-   * @param url The URL, it should no longer contain the "webdav-" prefix.
+   * @param url The WebDAV URL.
    * 
-   * @return The URL with credentials. 
+   * @return The HTTP URL with credentials. 
    */
   static URL addCredentials(String sessionId, URL url) {
     // Obtain the credentials for the current user.
-    PasswordAuthentication userCredentials = CredentialsStore.get(sessionId, computeServerId(url.toExternalForm()));
+    ResolvedCredentials userCredentials = CredentialsStore.resolve(sessionId, computeServerId(url.toExternalForm()));
     
+    String userInfo;
+    if (userCredentials != null && userCredentials.hasPassword()) {
+      userInfo = userCredentials.getEncodedUserInfo();
+    } else {
+      userInfo = url.getUserInfo();
+    }
+    return toHttpUrl(url, userInfo);
+  }
+  
+  /**
+   * Converts a WebDAV URL to the corresponding HTTP URL.
+   * 
+   * @param url The WebDAV URL.
+   * @param userInfo The user info to add to the URL, may be <code>null</code>.
+   * 
+   * @return The HTTP URL.
+   */
+  private static URL toHttpUrl(URL url, String userInfo) {
     String protocol = url.getProtocol().substring(WebdavURLHandlerExtension.WEBDAV.length());
 
     // Build the complete URL that contains the user and password in it.
     StringBuilder completeUrl = new StringBuilder();
     completeUrl.append(protocol).append("://");
-    if (userCredentials != null && userCredentials.getPassword().length > 0) {
-      String encodedUserName = URLUtil.encodeURIComponent(userCredentials.getUserName());
-      String encodedPasswd = URLUtil.encodeURIComponent(new String(userCredentials.getPassword()));
-      completeUrl.append(encodedUserName).append(":").append(encodedPasswd).append("@");
-    } else if (url.getUserInfo() != null) {
-      completeUrl.append(url.getUserInfo()).append("@");
+    if (userInfo != null) {
+      completeUrl.append(userInfo).append("@");
     }
     completeUrl.append(url.getHost());
     if (url.getPort() != -1) {
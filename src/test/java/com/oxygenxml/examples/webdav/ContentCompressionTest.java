@@ -0,0 +1,118 @@
+package com.oxygenxml.examples.webdav;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.DeflaterOutputStream;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.Test;
+
+/**
+ * Tests the compression of the request bodies and the decoding of the response bodies.
+ */
+public class ContentCompressionTest {
+
+  /**
+   * The content of a document.
+   */
+  private static final byte[] CONTENT = "<topic><title>Compressed</title></topic>".getBytes(StandardCharsets.UTF_8);
+
+  /**
+   * An empty body announced as compressed is decoded as an empty body.
+   *
+   * @throws IOException If the body cannot be decoded.
+   */
+  @Test
+  public void testDecodeEmptyBody() throws IOException {
+    try (InputStream decoded = ContentCompression.decode("gzip", new ByteArrayInputStream(new byte[0]))) {
+      assertEquals(-1, decoded.read());
+    }
+    try (InputStream decoded = ContentCompression.decode("deflate", new ByteArrayInputStream(new byte[0]))) {
+      assertEquals(-1, decoded.read());
+    }
+  }
+
+  /**
+   * The compression of an empty content is decoded as an empty body.
+   *
+   * @throws IOException If the body cannot be decoded.
+   */
+  @Test
+  public void testDecodeCompressedEmptyContent() throws IOException {
+    ByteArrayOutputStream compressed = ContentCompression.compress(new ByteArrayOutputStream());
+    try (InputStream decoded = ContentCompression.decode("gzip", new ByteArrayInputStream(compressed.toByteArray()))) {
+      assertArrayEquals(new byte[0], IOUtils.toByteArray(decoded));
+    }
+  }
+
+  /**
+   * The compressed request bodies are decoded to the original content.
+   *
+   * @throws IOException If the content cannot be compressed or decoded.
+   */
+  @Test
+  public void testCompressAndDecode() throws IOException {
+    ByteArrayOutputStream content = new ByteArrayOutputStream();
+    content.write(CONTENT);
+    ByteArrayOutputStream compressed = ContentCompression.compress(content);
+    try (InputStream decoded = ContentCompression.decode(" X-GZIP ", new ByteArrayInputStream(compressed.toByteArray()))) {
+      assertArrayEquals(CONTENT, IOUtils.toByteArray(decoded));
+    }
+
+    ByteArrayOutputStream streamed = new ByteArrayOutputStream();
+    try (OutputStream compressingStream = ContentCompression.compressingStream(streamed)) {
+      compressingStream.write(CONTENT);
+    }
+    try (InputStream decoded = ContentCompression.decode("gzip", new ByteArrayInputStream(streamed.toByteArray()))) {
+      assertArrayEquals(CONTENT, IOUtils.toByteArray(decoded));
+    }
+  }
+
+  /**
+   * The deflate encoding is decoded.
+   *
+   * @throws IOException If the body cannot be decoded.
+   */
+  @Test
+  public void testDecodeDeflate() throws IOException {
+    ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+    try (DeflaterOutputStream compressingStream = new DeflaterOutputStream(compressed)) {
+      compressingStream.write(CONTENT);
+    }
+    try (InputStream decoded = ContentCompression.decode("deflate", new ByteArrayInputStream(compressed.toByteArray()))) {
+      assertArrayEquals(CONTENT, IOUtils.toByteArray(decoded));
+    }
+  }
+
+  /**
+   * The bodies with an unsupported or missing encoding are returned unchanged.
+   *
+   * @throws IOException If the body cannot be decoded.
+   */
+  @Test
+  public void testUnsupportedEncoding() throws IOException {
+    InputStream body = new ByteArrayInputStream(CONTENT);
+    assertSame(body, ContentCompression.decode("br", body));
+    assertSame(body, ContentCompression.decode(null, body));
+    assertNull(ContentCompression.decode("gzip", null));
+  }
+
+  /**
+   * A body that is not compressed although it is announced as such is reported as an error.
+   *
+   * @throws IOException If the body cannot be decoded.
+   */
+  @Test(expected = IOException.class)
+  public void testDecodeInvalidBody() throws IOException {
+    ContentCompression.decode("gzip", new ByteArrayInputStream(CONTENT));
+  }
+}
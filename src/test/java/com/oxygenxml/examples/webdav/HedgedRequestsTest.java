@@ -0,0 +1,83 @@
+package com.oxygenxml.examples.webdav;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+/**
+ * Tests the budget and the delay of the duplicate requests.
+ */
+public class HedgedRequestsTest {
+
+  /**
+   * With a 10% budget, each ten requests pay for one duplicate.
+   */
+  @Test
+  public void testBudget() {
+    HedgedRequests.OperationStats stats = new HedgedRequests.OperationStats();
+    for (int i = 0; i < 9; i++) {
+      assertFalse(stats.earn(10));
+    }
+    assertFalse(stats.spend());
+
+    assertTrue(stats.earn(10));
+    assertTrue(stats.spend());
+    assertFalse(stats.spend());
+  }
+
+  /**
+   * The unused budget accumulates only up to a burst of ten duplicates.
+   */
+  @Test
+  public void testBudgetCapped() {
+    HedgedRequests.OperationStats stats = new HedgedRequests.OperationStats();
+    for (int i = 0; i < 1000; i++) {
+      stats.earn(10);
+    }
+    for (int i = 0; i < 10; i++) {
+      assertTrue(stats.spend());
+    }
+    assertFalse(stats.spend());
+  }
+
+  /**
+   * A budget of 0 never pays for a duplicate, and a negative one does not drain the budget.
+   */
+  @Test
+  public void testNoBudget() {
+    HedgedRequests.OperationStats stats = new HedgedRequests.OperationStats();
+    for (int i = 0; i < 1000; i++) {
+      assertFalse(stats.earn(0));
+    }
+    assertFalse(stats.spend());
+
+    stats.earn(50);
+    assertFalse(stats.earn(-100));
+    assertTrue(stats.earn(50));
+  }
+
+  /**
+   * The requests are duplicated only after enough response times are known, after the requested
+   * percentile of the recent ones.
+   */
+  @Test
+  public void testDelay() {
+    HedgedRequests.OperationStats stats = new HedgedRequests.OperationStats();
+    for (int i = 1; i < 20; i++) {
+      stats.record(TimeUnit.MILLISECONDS.toNanos(i * 5L));
+    }
+    assertEquals(-1, stats.getDelay(95));
+
+    for (int i = 20; i <= 100; i++) {
+      stats.record(TimeUnit.MILLISECONDS.toNanos(i * 5L));
+    }
+    assertEquals(TimeUnit.MILLISECONDS.toNanos(475), stats.getDelay(95));
+    assertEquals(TimeUnit.MILLISECONDS.toNanos(500), stats.getDelay(100));
+    // Never less than the minimum delay.
+    assertEquals(TimeUnit.MILLISECONDS.toNanos(10), stats.getDelay(1));
+  }
+}
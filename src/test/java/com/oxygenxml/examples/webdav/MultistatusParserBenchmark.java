@@ -0,0 +1,144 @@
+package com.oxygenxml.examples.webdav;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NodeList;
+import org.xml.sax.SAXException;
+
+/**
+ * Compares the streaming multistatus parser with the DOM parsing used before it,
+ * on Depth:1 listings of 10, 1k and 50k members.
+ *
+ * Run it with the <code>main</code> method, from the test classpath.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class MultistatusParserBenchmark {
+
+  /**
+   * The number of members in the listing.
+   */
+  @Param({"10", "1000", "50000"})
+  public int entryCount;
+
+  /**
+   * The multistatus response body.
+   */
+  private byte[] body;
+
+  /**
+   * Builds the response body.
+   */
+  @Setup
+  public void setUp() {
+    StringBuilder xml = new StringBuilder("<?xml version=\"1.0\" encoding=\"utf-8\"?>\n<D:multistatus xmlns:D=\"DAV:\">\n");
+    for (int i = 0; i < entryCount; i++) {
+      boolean collection = i % 10 == 0;
+      xml.append("<D:response><D:href>/dav/folder/member-").append(i).append(collection ? "/" : ".xml")
+        .append("</D:href><D:propstat><D:prop>")
+        .append(collection ? "<D:resourcetype><D:collection/></D:resourcetype>" : "<D:resourcetype/>")
+        .append("<D:getetag>\"etag-").append(i).append("\"</D:getetag>")
+        .append("<D:getlastmodified>Tue, 15 Nov 1994 08:12:31 GMT</D:getlastmodified>")
+        .append(collection ? "" : "<D:getcontentlength>" + (i * 17) + "</D:getcontentlength>")
+        .append("</D:prop><D:status>HTTP/1.1 200 OK</D:status></D:propstat></D:response>\n");
+    }
+    xml.append("</D:multistatus>");
+    body = xml.toString().getBytes(StandardCharsets.UTF_8);
+  }
+
+  /**
+   * Parses the response with the streaming parser.
+   *
+   * @param blackhole Consumes the parsed properties.
+   *
+   * @throws IOException If the response is invalid.
+   */
+  @Benchmark
+  public void streaming(final Blackhole blackhole) throws IOException {
+    MultistatusParser.parse(new ByteArrayInputStream(body), entry -> {
+      blackhole.consume(entry.getHref());
+      blackhole.consume(entry.isCollection());
+      blackhole.consume(entry.getEtag());
+      blackhole.consume(entry.getLastModified());
+      blackhole.consume(entry.getContentLength());
+      return true;
+    });
+  }
+
+  /**
+   * Parses the response as the plugin did before the streaming parser: a new factory
+   * for every response and a DOM walked with <code>getElementsByTagNameNS</code>.
+   *
+   * @param blackhole Consumes the parsed properties.
+   *
+   * @throws Exception If the response is invalid.
+   */
+  @Benchmark
+  public void dom(Blackhole blackhole) throws ParserConfigurationException, SAXException, IOException {
+    DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+    factory.setNamespaceAware(true);
+    DocumentBuilder builder = factory.newDocumentBuilder();
+    Document doc = builder.parse(new ByteArrayInputStream(body));
+    NodeList responses = doc.getElementsByTagNameNS("DAV:", "response");
+    for (int i = 0; i < responses.getLength(); i++) {
+      Element response = (Element) responses.item(i);
+      blackhole.consume(getText(response, "href"));
+      NodeList resourceTypes = response.getElementsByTagNameNS("DAV:", "resourcetype");
+      blackhole.consume(resourceTypes.getLength() == 1
+          && ((Element) resourceTypes.item(0)).getElementsByTagNameNS("DAV:", "collection").getLength() == 1);
+      blackhole.consume(getText(response, "getetag"));
+      blackhole.consume(getText(response, "getlastmodified"));
+      blackhole.consume(getText(response, "getcontentlength"));
+    }
+  }
+
+  /**
+   * @param element An element.
+   * @param localName The local name of a descendant in the DAV: namespace.
+   *
+   * @return The text of the first such descendant, <code>null</code> if none.
+   */
+  private static String getText(Element element, String localName) {
+    NodeList nodes = element.getElementsByTagNameNS("DAV:", localName);
+    return nodes.getLength() > 0 ? nodes.item(0).getTextContent() : null;
+  }
+
+  /**
+   * Runs the benchmark.
+   *
+   * @param args Not used.
+   *
+   * @throws RunnerException If the benchmark fails.
+   */
+  public static void main(String[] args) throws RunnerException {
+    new Runner(new OptionsBuilder().include(MultistatusParserBenchmark.class.getSimpleName()).build()).run();
+  }
+}
@@ -0,0 +1,173 @@
+package com.oxygenxml.examples.webdav;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+/**
+ * Tests the parsing of the multistatus responses of PROPFIND requests.
+ */
+public class MultistatusParserTest {
+
+  /**
+   * The WebDAV namespace may be declared as the default namespace.
+   *
+   * @throws IOException If the response cannot be parsed.
+   */
+  @Test
+  public void testDefaultNamespace() throws IOException {
+    List<MultistatusParser.Entry> entries = parse(
+        "<multistatus xmlns=\"DAV:\">"
+        + "<response><href>/dav/</href><propstat>"
+        + "<prop><resourcetype><collection/></resourcetype></prop>"
+        + "<status>HTTP/1.1 200 OK</status>"
+        + "</propstat></response>"
+        + "<response><href>/dav/a.xml</href><propstat>"
+        + "<prop><resourcetype/><getetag>\"1\"</getetag>"
+        + "<getlastmodified>Mon, 12 Jan 1998 09:25:56 GMT</getlastmodified>"
+        + "<getcontentlength>42</getcontentlength></prop>"
+        + "<status>HTTP/1.1 200 OK</status>"
+        + "</propstat></response>"
+        + "</multistatus>");
+
+    assertEquals(2, entries.size());
+    assertEquals("/dav/", entries.get(0).getHref());
+    assertTrue(entries.get(0).isResourceTypeReported());
+    assertTrue(entries.get(0).isCollection());
+
+    MultistatusParser.Entry file = entries.get(1);
+    assertEquals("/dav/a.xml", file.getHref());
+    assertTrue(file.isResourceTypeReported());
+    assertFalse(file.isCollection());
+    assertEquals("\"1\"", file.getEtag());
+    assertEquals("Mon, 12 Jan 1998 09:25:56 GMT", file.getLastModified());
+    assertEquals(42, file.getContentLength());
+  }
+
+  /**
+   * The WebDAV elements may use any prefix, and the properties of a propstat whose
+   * status is not 200 are ignored.
+   *
+   * @throws IOException If the response cannot be parsed.
+   */
+  @Test
+  public void testPrefixedNamespace() throws IOException {
+    List<MultistatusParser.Entry> entries = parse(
+        "<D:multistatus xmlns:D=\"DAV:\" xmlns:x=\"http://example.com/ns\">"
+        + "<D:response><D:href>/dav/a.xml</D:href>"
+        + "<D:propstat><D:prop><D:getcontentlength>7</D:getcontentlength>"
+        + "<x:getetag>other</x:getetag></D:prop>"
+        + "<D:status>HTTP/1.1 200 OK</D:status></D:propstat>"
+        + "<D:propstat><D:prop><D:getetag>\"2\"</D:getetag></D:prop>"
+        + "<D:status>HTTP/1.1 404 Not Found</D:status></D:propstat>"
+        + "</D:response>"
+        + "</D:multistatus>");
+
+    assertEquals(1, entries.size());
+    MultistatusParser.Entry entry = entries.get(0);
+    assertEquals("/dav/a.xml", entry.getHref());
+    assertEquals(7, entry.getContentLength());
+    assertNull(entry.getEtag());
+    assertFalse(entry.isResourceTypeReported());
+  }
+
+  /**
+   * A response without a propstat element is reported without properties.
+   *
+   * @throws IOException If the response cannot be parsed.
+   */
+  @Test
+  public void testMissingPropstat() throws IOException {
+    List<MultistatusParser.Entry> entries = parse(
+        "<d:multistatus xmlns:d=\"DAV:\">"
+        + "<d:response><d:href>/dav/missing.xml</d:href>"
+        + "<d:status>HTTP/1.1 404 Not Found</d:status></d:response>"
+        + "</d:multistatus>");
+
+    assertEquals(1, entries.size());
+    MultistatusParser.Entry entry = entries.get(0);
+    assertEquals("/dav/missing.xml", entry.getHref());
+    assertFalse(entry.isResourceTypeReported());
+    assertNull(entry.getEtag());
+    assertNull(entry.getLastModified());
+    assertEquals(-1, entry.getContentLength());
+  }
+
+  /**
+   * The href is reported as sent by the server: percent-encoding is kept, while XML
+   * entities and surrounding whitespace are not.
+   *
+   * @throws IOException If the response cannot be parsed.
+   */
+  @Test
+  public void testEncodedHref() throws IOException {
+    List<MultistatusParser.Entry> entries = parse(
+        "<D:multistatus xmlns:D=\"DAV:\">"
+        + "<D:response><D:href>\n  http://localhost/dav/a%20b%C3%A9.xml?x=1&amp;y=2  \n</D:href>"
+        + "<D:propstat><D:prop><D:resourcetype/></D:prop>"
+        + "<D:status>HTTP/1.1 200 OK</D:status></D:propstat>"
+        + "</D:response>"
+        + "</D:multistatus>");
+
+    assertEquals(1, entries.size());
+    assertEquals("http://localhost/dav/a%20b%C3%A9.xml?x=1&y=2", entries.get(0).getHref());
+  }
+
+  /**
+   * The parsing stops when the handler asks for it.
+   *
+   * @throws IOException If the response cannot be parsed.
+   */
+  @Test
+  public void testStopParsing() throws IOException {
+    String response = "<D:multistatus xmlns:D=\"DAV:\">"
+        + "<D:response><D:href>/dav/a.xml</D:href></D:response>"
+        + "<D:response><D:href>/dav/b.xml</D:href></D:response>"
+        + "</D:multistatus>";
+    List<String> hrefs = new ArrayList<>();
+    MultistatusParser.parse(new ByteArrayInputStream(response.getBytes(StandardCharsets.UTF_8)), entry -> {
+      hrefs.add(entry.getHref());
+      return false;
+    });
+
+    assertEquals(1, hrefs.size());
+    assertEquals("/dav/a.xml", hrefs.get(0));
+  }
+
+  /**
+   * A response that is not well-formed is reported as an I/O error.
+   *
+   * @throws IOException If the response cannot be parsed.
+   */
+  @Test(expected = IOException.class)
+  public void testMalformedResponse() throws IOException {
+    parse("<D:multistatus xmlns:D=\"DAV:\"><D:response>");
+  }
+
+  /**
+   * Parses a multistatus response.
+   *
+   * @param response The response body.
+   *
+   * @return The entries of the response.
+   *
+   * @throws IOException If the response cannot be parsed.
+   */
+  private static List<MultistatusParser.Entry> parse(String response) throws IOException {
+    List<MultistatusParser.Entry> entries = new ArrayList<>();
+    MultistatusParser.parse(new ByteArrayInputStream(response.getBytes(StandardCharsets.UTF_8)), entry -> {
+      entries.add(entry);
+      return true;
+    });
+    return entries;
+  }
+}
@@ -0,0 +1,162 @@
+package com.oxygenxml.examples.webdav;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Test;
+
+/**
+ * Tests the coalescing of the saves of a resource.
+ */
+public class SaveCoalescerTest {
+
+  /**
+   * The saves sent to the server, in order.
+   */
+  private final List<String> sentSaves = new CopyOnWriteArrayList<>();
+
+  /**
+   * A save is sent right away when no other save of the resource is in flight.
+   *
+   * @throws IOException If the save fails.
+   */
+  @Test
+  public void testSingleSave() throws IOException {
+    SaveCoalescer.save("session1|http://localhost/dav/single.xml", () -> sentSaves.add("first"));
+    SaveCoalescer.save("session1|http://localhost/dav/single.xml", () -> sentSaves.add("second"));
+    assertEquals(Arrays.asList("first", "second"), sentSaves);
+  }
+
+  /**
+   * While a save is in flight, a newer save replaces the one that waits for its turn, and the
+   * replaced save reports the result of the newer one.
+   *
+   * @throws Exception If the test fails.
+   */
+  @Test
+  public void testWaitingSaveReplaced() throws Exception {
+    String key = "session1|http://localhost/dav/replaced.xml";
+    CountDownLatch firstStarted = new CountDownLatch(1);
+    CountDownLatch firstReleased = new CountDownLatch(1);
+    AtomicReference<Throwable> firstFailure = new AtomicReference<>();
+    Thread first = startSave(key, () -> {
+      sentSaves.add("first");
+      firstStarted.countDown();
+      awaitLatch(firstReleased);
+    }, firstFailure);
+    firstStarted.await();
+
+    AtomicReference<Throwable> replacedFailure = new AtomicReference<>();
+    Thread replaced = startSave(key, () -> sentSaves.add("replaced"), replacedFailure);
+    awaitWaiting(replaced);
+    AtomicReference<Throwable> latestFailure = new AtomicReference<>();
+    Thread latest = startSave(key, () -> sentSaves.add("latest"), latestFailure);
+    awaitWaiting(latest);
+
+    firstReleased.countDown();
+    first.join();
+    replaced.join();
+    latest.join();
+
+    assertEquals(Arrays.asList("first", "latest"), sentSaves);
+    assertNull(firstFailure.get());
+    assertNull(replacedFailure.get());
+    assertNull(latestFailure.get());
+  }
+
+  /**
+   * A replaced save fails if the newer save that replaced it fails.
+   *
+   * @throws Exception If the test fails.
+   */
+  @Test
+  public void testReplacingSaveFailed() throws Exception {
+    String key = "session1|http://localhost/dav/failed.xml";
+    CountDownLatch firstStarted = new CountDownLatch(1);
+    CountDownLatch firstReleased = new CountDownLatch(1);
+    AtomicReference<Throwable> firstFailure = new AtomicReference<>();
+    Thread first = startSave(key, () -> {
+      firstStarted.countDown();
+      awaitLatch(firstReleased);
+    }, firstFailure);
+    firstStarted.await();
+
+    AtomicReference<Throwable> replacedFailure = new AtomicReference<>();
+    Thread replaced = startSave(key, () -> sentSaves.add("replaced"), replacedFailure);
+    awaitWaiting(replaced);
+    IOException saveFailure = new IOException("Locked");
+    AtomicReference<Throwable> latestFailure = new AtomicReference<>();
+    Thread latest = startSave(key, () -> {
+      throw saveFailure;
+    }, latestFailure);
+    awaitWaiting(latest);
+
+    firstReleased.countDown();
+    first.join();
+    replaced.join();
+    latest.join();
+
+    assertTrue(sentSaves.isEmpty());
+    assertNull(firstFailure.get());
+    assertSame(saveFailure, latestFailure.get());
+    assertSame(saveFailure, replacedFailure.get());
+  }
+
+  /**
+   * Starts a save in a new thread.
+   *
+   * @param key The key of the resource.
+   * @param sender Sends the save.
+   * @param failure Receives the exception thrown by the save.
+   *
+   * @return The thread.
+   */
+  private static Thread startSave(String key, SaveCoalescer.Sender sender, AtomicReference<Throwable> failure) {
+    Thread thread = new Thread(() -> {
+      try {
+        SaveCoalescer.save(key, sender);
+      } catch (IOException | RuntimeException e) {
+        failure.set(e);
+      }
+    });
+    thread.start();
+    return thread;
+  }
+
+  /**
+   * Waits until a save waits for its turn or for the result of the save that replaced it.
+   *
+   * @param thread The thread of the save.
+   */
+  private static void awaitWaiting(Thread thread) {
+    while (thread.getState() != Thread.State.TIMED_WAITING && thread.isAlive()) {
+      Thread.yield();
+    }
+  }
+
+  /**
+   * Waits for a latch from a sender.
+   *
+   * @param latch The latch.
+   *
+   * @throws InterruptedIOException If the thread was interrupted.
+   */
+  private static void awaitLatch(CountDownLatch latch) throws InterruptedIOException {
+    try {
+      latch.await();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException();
+    }
+  }
+}
@@ -0,0 +1,103 @@
+package com.oxygenxml.examples.webdav;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.charset.StandardCharsets;
+
+import org.junit.After;
+import org.junit.Test;
+
+import com.google.common.hash.HashCode;
+
+/**
+ * Tests the detection of the saves that do not change the resource.
+ */
+public class SaveDeduplicatorTest {
+
+  /**
+   * The key of a resource saved by the first session.
+   */
+  private static final String KEY = "session1|http://localhost/dav/a.xml";
+
+  /**
+   * The key of the same resource saved by a session whose id starts with the id of the first one.
+   */
+  private static final String OTHER_SESSION_KEY = "session10|http://localhost/dav/a.xml";
+
+  /**
+   * Forgets the hashes remembered by the test.
+   */
+  @After
+  public void tearDown() {
+    SaveDeduplicator.invalidate(KEY);
+    SaveDeduplicator.invalidate(OTHER_SESSION_KEY);
+  }
+
+  /**
+   * Only the content last saved is reported as unchanged.
+   */
+  @Test
+  public void testUnchangedContent() {
+    assertFalse(SaveDeduplicator.isUnchanged(KEY, hash("<a/>")));
+
+    SaveDeduplicator.saved(KEY, hash("<a/>"));
+    assertTrue(SaveDeduplicator.isUnchanged(KEY, hash("<a/>")));
+    assertFalse(SaveDeduplicator.isUnchanged(KEY, hash("<b/>")));
+    assertFalse(SaveDeduplicator.isUnchanged(OTHER_SESSION_KEY, hash("<a/>")));
+
+    SaveDeduplicator.saved(KEY, hash("<b/>"));
+    assertFalse(SaveDeduplicator.isUnchanged(KEY, hash("<a/>")));
+    assertTrue(SaveDeduplicator.isUnchanged(KEY, hash("<b/>")));
+  }
+
+  /**
+   * A save whose content was not hashed, or that failed, forgets the previous content.
+   */
+  @Test
+  public void testUnknownContent() {
+    SaveDeduplicator.saved(KEY, hash("<a/>"));
+    SaveDeduplicator.saved(KEY, null);
+    assertFalse(SaveDeduplicator.isUnchanged(KEY, hash("<a/>")));
+
+    SaveDeduplicator.saved(KEY, hash("<a/>"));
+    SaveDeduplicator.invalidate(KEY);
+    assertFalse(SaveDeduplicator.isUnchanged(KEY, hash("<a/>")));
+  }
+
+  /**
+   * Only the content saved by the session that logs out is forgotten.
+   */
+  @Test
+  public void testInvalidateSession() {
+    SaveDeduplicator.saved(KEY, hash("<a/>"));
+    SaveDeduplicator.saved(OTHER_SESSION_KEY, hash("<a/>"));
+
+    SaveDeduplicator.invalidateSession("session1");
+    assertFalse(SaveDeduplicator.isUnchanged(KEY, hash("<a/>")));
+    assertTrue(SaveDeduplicator.isUnchanged(OTHER_SESSION_KEY, hash("<a/>")));
+  }
+
+  /**
+   * The skipped saves are counted together with the bytes that were not sent.
+   */
+  @Test
+  public void testRecordSkipped() {
+    long skippedSaveCount = SaveDeduplicator.getSkippedSaveCount();
+    long skippedBytes = SaveDeduplicator.getSkippedBytes();
+
+    SaveDeduplicator.recordSkipped(10);
+    SaveDeduplicator.recordSkipped(32);
+    assertEquals(skippedSaveCount + 2, SaveDeduplicator.getSkippedSaveCount());
+    assertEquals(skippedBytes + 42, SaveDeduplicator.getSkippedBytes());
+  }
+
+  /**
+   * @param content The content of a resource.
+   * @return The hash of the content.
+   */
+  private static HashCode hash(String content) {
+    return SaveDeduplicator.getHashFunction().hashString(content, StandardCharsets.UTF_8);
+  }
+}
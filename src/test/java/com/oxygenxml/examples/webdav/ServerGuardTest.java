@@ -0,0 +1,191 @@
+package com.oxygenxml.examples.webdav;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.lang.reflect.Proxy;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import ro.sync.ecss.extensions.api.webapp.access.WebappPluginWorkspace;
+import ro.sync.exml.workspace.api.PluginResourceBundle;
+import ro.sync.exml.workspace.api.PluginWorkspaceProvider;
+
+/**
+ * Tests the state transitions of the circuit breaker that protects a server.
+ */
+public class ServerGuardTest {
+
+  /**
+   * The id of the guarded server.
+   */
+  private static final String SERVER_ID = "webdav-httplocalhost80";
+
+  /**
+   * The guard of the server.
+   */
+  private ServerGuard.Guard guard;
+
+  /**
+   * Installs a workspace that translates the messages to their keys and creates the guard.
+   */
+  @Before
+  public void setUp() {
+    PluginResourceBundle resourceBundle = (PluginResourceBundle) Proxy.newProxyInstance(
+        getClass().getClassLoader(), new Class<?>[] {PluginResourceBundle.class},
+        (proxy, method, args) -> "getMessage".equals(method.getName()) ? args[0] : null);
+    WebappPluginWorkspace workspace = (WebappPluginWorkspace) Proxy.newProxyInstance(
+        getClass().getClassLoader(), new Class<?>[] {WebappPluginWorkspace.class},
+        (proxy, method, args) -> "getResourceBundle".equals(method.getName()) ? resourceBundle : null);
+    PluginWorkspaceProvider.setPluginWorkspace(workspace);
+    guard = new ServerGuard.Guard();
+  }
+
+  /**
+   * Removes the workspace.
+   */
+  @After
+  public void tearDown() {
+    PluginWorkspaceProvider.setPluginWorkspace(null);
+  }
+
+  /**
+   * The circuit breaker opens only after enough requests, when half of the recent ones failed.
+   *
+   * @throws ServerUnavailableException If the circuit breaker opened too early.
+   */
+  @Test
+  public void testOpensWhenMostRequestsFail() throws ServerUnavailableException {
+    for (int i = 0; i < 9; i++) {
+      assertFalse(guard.allowRequest());
+      guard.record(false, true, SERVER_ID);
+    }
+    assertTrue(guard.isClosed());
+
+    guard.record(false, true, SERVER_ID);
+    assertFalse(guard.isClosed());
+    assertRejected();
+  }
+
+  /**
+   * Only the recent requests count, so old failures do not open the circuit breaker.
+   */
+  @Test
+  public void testSlidingWindow() {
+    for (int i = 0; i < 11; i++) {
+      guard.record(false, false, SERVER_ID);
+    }
+    for (int i = 0; i < 9; i++) {
+      guard.record(false, true, SERVER_ID);
+    }
+    for (int i = 0; i < 20; i++) {
+      guard.record(false, false, SERVER_ID);
+    }
+    assertTrue(guard.isClosed());
+
+    // 9 failures out of the last 20 requests.
+    for (int i = 0; i < 9; i++) {
+      guard.record(false, true, SERVER_ID);
+    }
+    assertTrue(guard.isClosed());
+    guard.record(false, true, SERVER_ID);
+    assertFalse(guard.isClosed());
+  }
+
+  /**
+   * After the open period a single probe is let through, and its success closes the circuit breaker.
+   *
+   * @throws ServerUnavailableException If a request is rejected.
+   */
+  @Test
+  public void testProbeSucceeds() throws ServerUnavailableException {
+    open();
+    guard.openUntil = System.nanoTime();
+
+    assertTrue(guard.allowRequest());
+    assertRejected();
+
+    guard.record(true, false, SERVER_ID);
+    assertTrue(guard.isClosed());
+    assertFalse(guard.allowRequest());
+
+    // The failures before the recovery are forgotten.
+    for (int i = 0; i < 9; i++) {
+      guard.record(false, true, SERVER_ID);
+    }
+    assertTrue(guard.isClosed());
+  }
+
+  /**
+   * A failed probe opens the circuit breaker again.
+   *
+   * @throws ServerUnavailableException If the probe is rejected.
+   */
+  @Test
+  public void testProbeFails() throws ServerUnavailableException {
+    open();
+    guard.openUntil = System.nanoTime();
+
+    assertTrue(guard.allowRequest());
+    guard.record(true, true, SERVER_ID);
+    assertFalse(guard.isClosed());
+    assertRejected();
+  }
+
+  /**
+   * A probe abandoned before it reached the server lets another request be the probe.
+   *
+   * @throws ServerUnavailableException If the probe is rejected.
+   */
+  @Test
+  public void testProbeReleased() throws ServerUnavailableException {
+    open();
+    guard.openUntil = System.nanoTime();
+
+    assertTrue(guard.allowRequest());
+    guard.releaseProbe();
+    assertTrue(guard.allowRequest());
+  }
+
+  /**
+   * The outcomes of the requests sent before the circuit breaker opened are ignored.
+   *
+   * @throws ServerUnavailableException If the probe is rejected.
+   */
+  @Test
+  public void testLateOutcomesIgnored() throws ServerUnavailableException {
+    open();
+    for (int i = 0; i < 20; i++) {
+      guard.record(false, false, SERVER_ID);
+    }
+    assertFalse(guard.isClosed());
+
+    guard.openUntil = System.nanoTime();
+    assertTrue(guard.allowRequest());
+  }
+
+  /**
+   * Opens the circuit breaker.
+   */
+  private void open() {
+    for (int i = 0; i < 10; i++) {
+      guard.record(false, true, SERVER_ID);
+    }
+    assertFalse(guard.isClosed());
+  }
+
+  /**
+   * Checks that a request is rejected.
+   */
+  private void assertRejected() {
+    try {
+      guard.allowRequest();
+      fail("The request should be rejected.");
+    } catch (ServerUnavailableException e) {
+      // Expected.
+    }
+  }
+}
@@ -0,0 +1,116 @@
+package com.oxygenxml.examples.webdav;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Tests the lock tokens shared between two nodes of a cluster, simulated by two
+ * {@link FileSharedStore}s that use the same folder.
+ */
+public class SharedLockTokensTest {
+
+  /**
+   * The If header of the lock.
+   */
+  private static final String IF_HEADER = "(<opaquelocktoken:e71d4fae-5dec-22d6-fea5-00a0c91e6be4>)";
+
+  /**
+   * The folder shared by the nodes.
+   */
+  @Rule
+  public TemporaryFolder sharedFolder = new TemporaryFolder();
+
+  /**
+   * The store of the node that locked the resource.
+   */
+  private FileSharedStore lockingNode;
+
+  /**
+   * The store of the node that serves the requests after a failover.
+   */
+  private FileSharedStore failoverNode;
+
+  /**
+   * Creates the stores of the two nodes. They do not keep the entries in memory, so that each
+   * node sees the changes made by the other one immediately.
+   *
+   * @throws IOException If the folder cannot be used.
+   */
+  @Before
+  public void setUp() throws IOException {
+    lockingNode = new FileSharedStore(sharedFolder.getRoot().toPath(), 0, TimeUnit.SECONDS);
+    failoverNode = new FileSharedStore(sharedFolder.getRoot().toPath(), 0, TimeUnit.SECONDS);
+  }
+
+  /**
+   * Forgets the store and stops the watchers of the nodes.
+   *
+   * @throws IOException If a store cannot be closed.
+   */
+  @After
+  public void tearDown() throws IOException {
+    SharedStores.setStore(null);
+    lockingNode.close();
+    failoverNode.close();
+  }
+
+  /**
+   * A token published by a node is sent by the other node with the requests of the same session.
+   *
+   * @throws IOException If the connection cannot be created.
+   */
+  @Test
+  public void testTokenUsedByOtherNode() throws IOException {
+    SharedLockTokens.publish(lockingNode, "session1", new URL("webdav-http://localhost/dav/a.xml"), IF_HEADER);
+
+    SharedStores.setStore(failoverNode);
+    HttpURLConnection connection = (HttpURLConnection) new URL("http://localhost/dav/a.xml").openConnection();
+    SharedLockTokens.addLockHeader("session1", connection);
+    assertEquals(IF_HEADER, connection.getRequestProperty("If"));
+
+    HttpURLConnection otherSessionConnection =
+        (HttpURLConnection) new URL("http://localhost/dav/a.xml").openConnection();
+    SharedLockTokens.addLockHeader("session2", otherSessionConnection);
+    assertNull(otherSessionConnection.getRequestProperty("If"));
+  }
+
+  /**
+   * A token released by a node is no longer used by the other node.
+   *
+   * @throws IOException If the connection cannot be created.
+   */
+  @Test
+  public void testTokenReleasedByOtherNode() throws IOException {
+    URL url = new URL("webdav-http://localhost/dav/a.xml");
+    SharedLockTokens.publish(lockingNode, "session1", url, IF_HEADER);
+    SharedStores.setStore(failoverNode);
+    SharedLockTokens.unpublish("session1", url);
+
+    SharedStores.setStore(lockingNode);
+    HttpURLConnection connection = (HttpURLConnection) new URL("http://localhost/dav/a.xml").openConnection();
+    SharedLockTokens.addLockHeader("session1", connection);
+    assertNull(connection.getRequestProperty("If"));
+  }
+
+  /**
+   * The lock token is extracted from tagged and untagged If headers.
+   */
+  @Test
+  public void testGetLockToken() {
+    assertEquals("opaquelocktoken:e71d4fae-5dec-22d6-fea5-00a0c91e6be4", SharedLockTokens.getLockToken(IF_HEADER));
+    assertEquals("urn:uuid:181d4fae",
+        SharedLockTokens.getLockToken("<http://localhost/dav/a.xml> (<urn:uuid:181d4fae>)"));
+    assertNull(SharedLockTokens.getLockToken("([\"etag\"])"));
+  }
+}
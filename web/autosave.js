@@ -1,4 +1,67 @@
 (function() {
+  /**
+   * The interval at which the recommended auto-save intervals are refreshed, in milliseconds.
+   */
+  var REFRESH_INTERVAL = 2 * 60 * 1000;
+
+  /**
+   * The auto-save intervals recommended by the server, keyed by protocol://host[:port].
+   */
+  var recommendations = {};
+  try {
+    recommendations = JSON.parse(
+        sync.options.PluginsOptions.getClientOption('webdav_autosave_recommendations') || '{}');
+  } catch (e) {
+    // Use the configured interval.
+  }
+
+  /**
+   * Returns the auto-save interval recommended by the server for the given URL.
+   *
+   * @param {string} url The URL of the edited document.
+   * @param {number} defaultInterval The interval configured in the admin page.
+   * @return {number} The auto-save interval.
+   */
+  function getRecommendedInterval(url, defaultInterval) {
+    var match = url.match(/^webdav-(https?:\/\/)(?:[^@\/]*@)?([^\/?#]*)/);
+    var recommendedInterval = match && recommendations[match[1] + match[2]];
+    if (!recommendedInterval) {
+      return defaultInterval;
+    }
+    var minInterval = parseInt(sync.options.PluginsOptions.getClientOption('webdav_autosave_min_interval'));
+    var maxInterval = parseInt(sync.options.PluginsOptions.getClientOption('webdav_autosave_max_interval'));
+    if (minInterval > 0) {
+      recommendedInterval = Math.max(minInterval, recommendedInterval);
+    }
+    if (maxInterval > 0) {
+      // A maximum smaller than the minimum is ignored, like on the server.
+      recommendedInterval = Math.min(Math.max(minInterval || 0, maxInterval), recommendedInterval);
+    }
+    return recommendedInterval;
+  }
+
+  /**
+   * Refreshes periodically the recommended auto-save interval of an editor.
+   *
+   * @param {sync.api.Editor} editor The editor.
+   * @param {string} url The URL of the edited document.
+   * @param {number} defaultInterval The interval configured in the admin page.
+   */
+  function refreshRecommendation(editor, url, defaultInterval) {
+    var timer = setInterval(function() {
+      goog.net.XhrIo.send('../plugins-dispatcher/webdav-autosave-recommendations', function(e) {
+        var request = /** {@type goog.net.XhrIo} */ (e.target);
+        if (request.getStatus() === 200) {
+          recommendations = request.getResponseJson() || {};
+          editor.setAutoSaveInterval(getRecommendedInterval(url, defaultInterval));
+        }
+      });
+    }, REFRESH_INTERVAL);
+    goog.events.listenOnce(editor, sync.api.Editor.EventTypes.DISPOSE, function() {
+      clearInterval(timer);
+    });
+  }
+
   /** BEFORE_EDITOR_LOADED */
   goog.events.listen(workspace, sync.api.Workspace.EventType.BEFORE_EDITOR_LOADED, function(e) {
     var urlAutoSaveInterval = sync.util.getURLParameter('autoSaveInterval');
@@ -6,8 +69,14 @@
     if(!urlAutoSaveInterval) {
       var autoSaveInterval = parseInt(sync.options.PluginsOptions.getClientOption('webdav_autosave_interval'));
       if (e.options.url.match(/^webdav-https?:/)) {
-        e.options.autoSaveInterval = autoSaveInterval;
+        e.options.autoSaveInterval = autoSaveInterval > 0 ?
+            getRecommendedInterval(e.options.url, autoSaveInterval) : autoSaveInterval;
+        var adaptive = sync.options.PluginsOptions.getClientOption('webdav_autosave_adaptive') === 'on';
+        // Older versions of the editor cannot change the interval after it was loaded.
+        if (adaptive && autoSaveInterval > 0 && e.editor && e.editor.setAutoSaveInterval) {
+          refreshRecommendation(e.editor, e.options.url, autoSaveInterval);
+        }
       }
     }
   });
-})();
\ No newline at end of file
+})();